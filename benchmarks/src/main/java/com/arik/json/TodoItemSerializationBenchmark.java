@@ -0,0 +1,88 @@
+package com.arik.json;
+
+import com.arik.models.TodoItem;
+import com.arik.models.TodoItems;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing items to the response stream, both one by one and as the lists returned by the list and search
+ * endpoints
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoItemSerializationBenchmark {
+
+    @Param({"1", "100", "10000", "100000"})
+    public int itemCount;
+
+    private final TodoItemJSONProvider provider = new TodoItemJSONProvider();
+    private final CountingOutputStream outputStream = new CountingOutputStream();
+
+    private List<TodoItem> items;
+
+    @Setup
+    public void setUp() {
+        this.items = TodoItems.buildItems(this.itemCount);
+    }
+
+    /**
+     * Write the list through the message body writer, just like Jersey does
+     */
+    @Benchmark
+    public long writeList() throws IOException {
+
+        this.outputStream.byteCount = 0;
+        this.provider.writeTo(this.items, List.class, List.class, new Annotation[0], null, null, this.outputStream);
+
+        return this.outputStream.byteCount;
+
+    }
+
+    /**
+     * Write every item as a response of its own, including the modification token, just like the update endpoint does
+     */
+    @Benchmark
+    public long writeItems() throws IOException {
+
+        this.outputStream.byteCount = 0;
+
+        for (TodoItem todoItem : this.items) {
+            try (JSONStreamWriter writer = JSONStreamWriter.open(this.outputStream)) {
+                todoItem.writeJSON(writer, true);
+            }
+        }
+
+        return this.outputStream.byteCount;
+
+    }
+
+    /**
+     * Discards what is written, such that only the serialization is measured
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long byteCount;
+
+        @Override
+        public void write(final int b) {
+            this.byteCount++;
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) {
+            this.byteCount += length;
+        }
+
+    }
+
+}
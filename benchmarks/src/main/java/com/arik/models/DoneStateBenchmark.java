@@ -0,0 +1,29 @@
+package com.arik.models;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing the done parameter of the update requests
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DoneStateBenchmark {
+
+    /**
+     * The spellings clients send, including ones that leave the state unchanged
+     */
+    @Param({"true", "FALSE", "1", "0", "maybe"})
+    public String isDoneString;
+
+    @Benchmark
+    public TodoItemState.DoneState fromString() {
+        return TodoItemState.DoneState.fromString(this.isDoneString);
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.arik.models;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures generating modification tokens from several threads at once, as concurrent create requests do, against
+ * the shared SecureRandom the tokens used to be generated with
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ModificationTokenBenchmark {
+
+    private final SecureRandom sharedRandom = new SecureRandom();
+
+    @Benchmark
+    public String generate() {
+        return ModificationTokenGenerator.generate();
+    }
+
+    @Benchmark
+    public String sharedSecureRandom() {
+        return new BigInteger(128, this.sharedRandom).toString(32);
+    }
+
+}
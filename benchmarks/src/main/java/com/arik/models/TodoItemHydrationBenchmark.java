@@ -0,0 +1,51 @@
+package com.arik.models;
+
+import com.mongodb.DBObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building items from the rows read from MongoDB and from the sources of search hits
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TodoItemHydrationBenchmark {
+
+    @Param({"0", "10"})
+    public int subscriberCount;
+
+    private DBObject row;
+    private String identifier;
+    private Map<String, Object> searchSource;
+
+    @Setup
+    public void setUp() {
+
+        this.row = TodoItems.buildRow(1, this.subscriberCount);
+        this.identifier = this.row.get("_id").toString();
+
+        this.searchSource = new HashMap<>();
+        this.searchSource.put("title", this.row.get("title"));
+        this.searchSource.put("body", this.row.get("body"));
+        this.searchSource.put("done", this.row.get("is_done"));
+
+    }
+
+    @Benchmark
+    public TodoItem fromRow() {
+        return new TodoItem(this.row);
+    }
+
+    @Benchmark
+    public TodoItem fromElasticSearchSource() {
+        return TodoItem.fromElasticSearchSource(this.identifier, this.searchSource);
+    }
+
+}
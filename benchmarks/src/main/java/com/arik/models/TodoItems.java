@@ -0,0 +1,73 @@
+package com.arik.models;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the rows and items the benchmarks work on
+ * The class lives in the package of the models, since items can only be built from rows within it.
+ */
+public class TodoItems {
+
+    private static final String TITLE = "Buy milk";
+    private static final String BODY = "Two bottles of whole milk, and some \"oat milk\" for the guests\nfrom the shop around the corner";
+
+    /**
+     * Build a row as it is read from MongoDB
+     *
+     * @param index           Distinguishes the rows, such that they are not all alike
+     * @param subscriberCount The number of phone numbers subscribed to the item
+     * @return The row
+     */
+    public static DBObject buildRow(final int index, final int subscriberCount) {
+
+        final List<String> subscribers = new ArrayList<>(subscriberCount);
+        for (int i = 0; i < subscriberCount; i++) {
+            subscribers.add("+1415555" + String.format("%04d", i));
+        }
+
+        final BasicDBObject row = new BasicDBObject("_id", new ObjectId());
+        row.append("title", TITLE + " #" + index);
+        row.append("body", BODY);
+        row.append("is_done", index % 2 == 0);
+        row.append("subscribers", subscribers);
+        row.append("modification_token", "4f2k9q0v1c8e7h3j5m6n0p2r4t");
+        row.append("version", (long) index);
+
+        return row;
+
+    }
+
+    /**
+     * Build an item from a row, just like the cursors do
+     *
+     * @param row The row
+     * @return The item
+     */
+    public static TodoItem fromRow(final DBObject row) {
+        return new TodoItem(row);
+    }
+
+    /**
+     * Build a list of items
+     *
+     * @param count The number of items
+     * @return The items
+     */
+    public static List<TodoItem> buildItems(final int count) {
+
+        final List<TodoItem> items = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            items.add(new TodoItem(buildRow(i, 0)));
+        }
+
+        return items;
+
+    }
+
+}
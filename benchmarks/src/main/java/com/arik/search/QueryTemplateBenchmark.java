@@ -0,0 +1,43 @@
+package com.arik.search;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures substituting the search query into the bundled presets, as done for every search request
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryTemplateBenchmark {
+
+    @Param({"default", "fuzzy", "prefix", "phrase"})
+    public String presetName;
+
+    /**
+     * A plain word, and a query that has to be escaped
+     */
+    @Param({"milk", "\"whole milk\" \\ oat \u00e9t\u00e9"})
+    public String queryString;
+
+    private QueryTemplate queryTemplate;
+    private Map<String, String> parameters;
+
+    @Setup
+    public void setUp() {
+        this.queryTemplate = QueryTemplateRegistry.getInstance().getTemplate(this.presetName);
+        this.parameters = Collections.singletonMap("QUERY_STRING", this.queryString);
+    }
+
+    @Benchmark
+    public String render() {
+        return this.queryTemplate.render(this.parameters);
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.arik.twilio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures normalizing the phone numbers of the subscribe requests
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhoneNumberNormalizerBenchmark {
+
+    /**
+     * A number as Twilio wants it, one whose + has been decoded to a space, and one with an international prefix
+     */
+    @Param({"+14155550123", " 14155550123", "004915112345678"})
+    public String phoneNumber;
+
+    @Benchmark
+    public String normalizePhoneNumber() {
+        return PhoneNumberNormalizer.normalizePhoneNumber(this.phoneNumber);
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.arik.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stands in for the _bulk and _search endpoints of Searchly
+ * The indexed documents are kept in memory, and a search finds the documents whose title or body contains any of the
+ * words of the query, which is enough to give the search endpoint realistic results to load from MongoDB.
+ */
+class ElasticsearchStub extends StubServer {
+
+    private static final int MAXIMUM_HITS = 10;
+
+    private final Map<String, JSONObject> documents = new ConcurrentHashMap<>();
+
+    ElasticsearchStub(final long meanLatency, final double errorRate) {
+        super("elasticsearch", meanLatency, errorRate);
+    }
+
+    @Override
+    void respond(final HttpExchange exchange, final String path, final String requestBody) throws IOException {
+
+        if (path.endsWith("/_bulk")) {
+            send(exchange, 200, this.bulk(requestBody));
+        } else if (path.endsWith("/_search")) {
+            send(exchange, 200, this.search(requestBody));
+        } else {
+            send(exchange, 200, "{\"acknowledged\":true}");
+        }
+
+    }
+
+    @Override
+    void respondWithError(final HttpExchange exchange) throws IOException {
+        send(exchange, 503, "{\"error\":\"UnavailableShardsException[[todo-items][0] Primary shard is not active]\",\"status\":503}");
+    }
+
+    /**
+     * Apply the actions of a _bulk request, i. e. lines of action metadata, each index action followed by a document
+     */
+    private String bulk(final String requestBody) {
+
+        final JSONArray items = new JSONArray();
+        final Iterator<String> lines = Arrays.asList(requestBody.split("\n")).iterator();
+
+        while (lines.hasNext()) {
+
+            final String line = lines.next().trim();
+
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            final JSONObject action = (JSONObject) JSONValue.parse(line);
+            final String actionName = (String) action.keySet().iterator().next();
+            final String identifier = (String) ((Map<?, ?>) action.get(actionName)).get("_id");
+
+            final JSONObject result = new JSONObject();
+            result.put("_id", identifier);
+            result.put("status", 200);
+
+            if (actionName.equals("delete")) {
+
+                if (this.documents.remove(identifier) == null) {
+                    result.put("status", 404);
+                }
+
+            } else if (lines.hasNext()) {
+                this.documents.put(identifier, (JSONObject) JSONValue.parse(lines.next()));
+            }
+
+            final JSONObject item = new JSONObject();
+            item.put(actionName, result);
+            items.add(item);
+
+        }
+
+        final JSONObject response = new JSONObject();
+        response.put("took", 1);
+        response.put("errors", false);
+        response.put("items", items);
+
+        return response.toJSONString();
+
+    }
+
+    private String search(final String requestBody) {
+
+        final Set<String> words = new HashSet<>();
+        collectQueryWords(JSONValue.parse(requestBody), words);
+
+        final JSONArray hits = new JSONArray();
+
+        for (Map.Entry<String, JSONObject> document : this.documents.entrySet()) {
+
+            if (hits.size() == MAXIMUM_HITS) {
+                break;
+            }
+
+            final String text = (document.getValue().get("title") + " " + document.getValue().get("body")).toLowerCase(Locale.ROOT);
+
+            for (String word : words) {
+
+                if (text.contains(word)) {
+
+                    final JSONObject hit = new JSONObject();
+                    hit.put("_index", "todo-items");
+                    hit.put("_type", "todo-item");
+                    hit.put("_id", document.getKey());
+                    hit.put("_score", 1.0);
+                    hit.put("_source", document.getValue());
+                    hits.add(hit);
+
+                    break;
+
+                }
+
+            }
+
+        }
+
+        final JSONObject outerHits = new JSONObject();
+        outerHits.put("total", hits.size());
+        outerHits.put("max_score", 1.0);
+        outerHits.put("hits", hits);
+
+        final JSONObject response = new JSONObject();
+        response.put("took", 1);
+        response.put("timed_out", false);
+        response.put("hits", outerHits);
+
+        return response.toJSONString();
+
+    }
+
+    /**
+     * Find the query strings of a query, whichever preset it has been rendered from
+     */
+    private static void collectQueryWords(final Object node, final Set<String> words) {
+
+        if (node instanceof Map) {
+
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) node).entrySet()) {
+
+                if (entry.getKey().equals("query") && entry.getValue() instanceof String) {
+
+                    for (String word : ((String) entry.getValue()).toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                        if (!word.isEmpty()) {
+                            words.add(word);
+                        }
+                    }
+
+                } else {
+                    collectQueryWords(entry.getValue(), words);
+                }
+
+            }
+
+        } else if (node instanceof List) {
+
+            for (Object element : (List<?>) node) {
+                collectQueryWords(element, words);
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,335 @@
+package com.arik.loadtest;
+
+import com.arik.metrics.LatencyHistogram;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends a mix of requests to the API from a number of clients, each of which sends its next request as soon as the
+ * previous one has been answered, and records the latencies by endpoint
+ */
+class LoadGenerator {
+
+    private static final String[] WORDS = {"milk", "bread", "eggs", "dentist", "taxes", "garden", "flight", "report", "birthday", "laundry"};
+
+    /**
+     * The number of item IDs remembered for reading and modifying them
+     */
+    private static final int MAXIMUM_KNOWN_ITEMS = 10000;
+
+    enum Operation {
+
+        CREATE("POST /"),
+        LIST("GET /"),
+        GET("GET /{id}"),
+        UPDATE("PUT /{id}"),
+        SEARCH("GET /search/{query}"),
+        SUBSCRIBE("GET /{id}/subscribe/{phone}");
+
+        private final String endpoint;
+
+        Operation(final String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        String getEndpoint() {
+            return this.endpoint;
+        }
+
+    }
+
+    private final String baseURL;
+
+    /**
+     * The operations, each repeated as many times as its weight, to pick from at random
+     */
+    private final Operation[] weightedOperations;
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, AtomicLong> errorCounts = new EnumMap<>(Operation.class);
+
+    /**
+     * The IDs and modification tokens of the items that have been created
+     */
+    private final List<String[]> knownItems = new ArrayList<>();
+
+    private volatile boolean isMeasuring;
+    private volatile boolean isStopped;
+
+    /**
+     * @param baseURL The URL the API listens on
+     * @param mix     The weights of the operations, e. g. create:10,list:25
+     */
+    LoadGenerator(final String baseURL, final String mix) {
+
+        this.baseURL = baseURL;
+
+        final List<Operation> operations = new ArrayList<>();
+
+        for (String weight : mix.split(",")) {
+
+            final String[] nameAndWeight = weight.trim().split(":");
+            final Operation operation = Operation.valueOf(nameAndWeight[0].trim().toUpperCase(Locale.ROOT));
+
+            for (int i = 0; i < Integer.parseInt(nameAndWeight[1].trim()); i++) {
+                operations.add(operation);
+            }
+
+        }
+
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("The mix does not contain any operation: " + mix);
+        }
+
+        this.weightedOperations = operations.toArray(new Operation[operations.size()]);
+
+        for (Operation operation : Operation.values()) {
+            this.latencies.put(operation, new LatencyHistogram());
+            this.errorCounts.put(operation, new AtomicLong());
+        }
+
+    }
+
+    /**
+     * Create items such that there is something to read, modify, and find from the start
+     *
+     * @param count The number of items
+     * @throws IOException Thrown if the API cannot be reached
+     */
+    void seed(final int count) throws IOException {
+
+        for (int i = 0; i < count; i++) {
+            this.create();
+        }
+
+    }
+
+    /**
+     * Send requests until the warmup and the measurement are over
+     *
+     * @param clientCount The number of concurrent clients
+     * @param warmup      How long to send requests before measuring, in milliseconds
+     * @param duration    How long to measure, in milliseconds
+     * @return The time that has actually been measured, in nanoseconds
+     * @throws InterruptedException Thrown if the calling thread is interrupted
+     */
+    long run(final int clientCount, final long warmup, final long duration) throws InterruptedException {
+
+        final List<Thread> clients = new ArrayList<>(clientCount);
+
+        for (int i = 0; i < clientCount; i++) {
+
+            final Thread client = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    LoadGenerator.this.sendRequests();
+                }
+            }, "load-client-" + i);
+
+            client.setDaemon(true);
+            client.start();
+            clients.add(client);
+
+        }
+
+        Thread.sleep(warmup);
+
+        this.isMeasuring = true;
+        final long measurementStart = System.nanoTime();
+
+        Thread.sleep(duration);
+
+        this.isMeasuring = false;
+        final long measuredTime = System.nanoTime() - measurementStart;
+
+        this.isStopped = true;
+
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        return measuredTime;
+
+    }
+
+    LatencyHistogram getLatencies(final Operation operation) {
+        return this.latencies.get(operation);
+    }
+
+    long getErrorCount(final Operation operation) {
+        return this.errorCounts.get(operation).get();
+    }
+
+    private void sendRequests() {
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (!this.isStopped) {
+
+            final Operation operation = this.weightedOperations[random.nextInt(this.weightedOperations.length)];
+            final long startTime = System.nanoTime();
+
+            boolean isSuccessful;
+
+            try {
+                isSuccessful = this.send(operation, random);
+            } catch (IOException e) {
+                isSuccessful = false;
+            }
+
+            if (this.isMeasuring) {
+
+                this.latencies.get(operation).record(System.nanoTime() - startTime);
+
+                if (!isSuccessful) {
+                    this.errorCounts.get(operation).incrementAndGet();
+                }
+
+            }
+
+        }
+
+    }
+
+    private boolean send(final Operation operation, final ThreadLocalRandom random) throws IOException {
+
+        if (operation == Operation.CREATE) {
+            return this.create();
+        }
+
+        if (operation == Operation.LIST) {
+            return request("GET", "/?limit=20", null).status == 200;
+        }
+
+        if (operation == Operation.SEARCH) {
+            return request("GET", "/search/" + WORDS[random.nextInt(WORDS.length)], null).status == 200;
+        }
+
+        final String[] item = this.pickItem(random);
+
+        // nothing has been created yet, e. g. because seeding has been turned off
+        if (item == null) {
+            return this.create();
+        }
+
+        final String path = "/" + item[0];
+
+        switch (operation) {
+            case GET:
+                return request("GET", path, null).status == 200;
+            case UPDATE:
+                return request("PUT", path, "modification_token=" + item[1] + "&done=" + random.nextBoolean() + "&title=" + buildTitle(random)).status == 200;
+            case SUBSCRIBE:
+                return request("GET", path + "/subscribe/%2B1415555" + (1000 + random.nextInt(9000)), null).status == 200;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+
+    }
+
+    private boolean create() throws IOException {
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Response response = request("POST", "/", "title=" + buildTitle(random) + "&body=" + URLEncoder.encode("Remember the " + WORDS[random.nextInt(WORDS.length)] + " before the weekend", "UTF-8"));
+
+        if (response.status != 200) {
+            return false;
+        }
+
+        final JSONObject item = (JSONObject) JSONValue.parse(response.body);
+        final String[] knownItem = {(String) item.get("id"), (String) item.get("modification_token")};
+
+        synchronized (this.knownItems) {
+
+            if (this.knownItems.size() < MAXIMUM_KNOWN_ITEMS) {
+                this.knownItems.add(knownItem);
+            } else {
+                this.knownItems.set(random.nextInt(MAXIMUM_KNOWN_ITEMS), knownItem);
+            }
+
+        }
+
+        return true;
+
+    }
+
+    private String[] pickItem(final ThreadLocalRandom random) {
+
+        synchronized (this.knownItems) {
+            return this.knownItems.isEmpty() ? null : this.knownItems.get(random.nextInt(this.knownItems.size()));
+        }
+
+    }
+
+    private static String buildTitle(final ThreadLocalRandom random) {
+        return "Buy+" + WORDS[random.nextInt(WORDS.length)] + "+" + random.nextInt(1000);
+    }
+
+    private Response request(final String method, final String path, final String form) throws IOException {
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(this.baseURL + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(60000);
+
+        if (form != null) {
+
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(form.getBytes(StandardCharsets.UTF_8));
+            }
+
+        }
+
+        final int status = connection.getResponseCode();
+
+        // the body has to be read entirely for the connection to be kept alive
+        final InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        if (inputStream != null) {
+
+            try (InputStream stream = inputStream) {
+
+                final byte[] buffer = new byte[8192];
+
+                int length;
+                while ((length = stream.read(buffer)) != -1) {
+                    body.write(buffer, 0, length);
+                }
+
+            }
+
+        }
+
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+
+    }
+
+    private static class Response {
+
+        private final int status;
+        private final String body;
+
+        private Response(final int status, final String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.arik.loadtest;
+
+import com.arik.Configuration;
+import com.arik.heroku.Main;
+import com.arik.metrics.LatencyHistogram;
+import com.arik.metrics.MetricsRegistry;
+import com.arik.persistence.PersistentStorage;
+import com.github.fakemongo.Fongo;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Runs the API in-process against stand-ins for MongoDB, Searchly, and Twilio, sends it a mix of requests, and reports
+ * the throughput and the latency percentiles of every endpoint, followed by the API's own metrics
+ * MongoDB is replaced by Fongo, an in-memory implementation of the driver's API, so the results show the cost of the
+ * API itself plus the latencies injected into the stand-ins of Searchly and Twilio rather than that of a real database.
+ * The load test is configured like the API, i. e. with environment variables or system properties:
+ * LOADTEST_CLIENTS (default 32), LOADTEST_WARMUP_S (default 10), LOADTEST_DURATION_S (default 60),
+ * LOADTEST_SEED_ITEMS (default 1000), LOADTEST_MIX (default create:10,list:25,get:30,update:15,search:15,subscribe:5),
+ * LOADTEST_SEARCH_LATENCY_MS (default 20), LOADTEST_SEARCH_ERROR_RATE (default 0), LOADTEST_TWILIO_LATENCY_MS
+ * (default 150), and LOADTEST_TWILIO_ERROR_RATE (default 0). The settings of the API apply as well.
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+
+        final ElasticsearchStub elasticsearchStub = new ElasticsearchStub(Configuration.getLong("LOADTEST_SEARCH_LATENCY_MS", 20), getRate("LOADTEST_SEARCH_ERROR_RATE"));
+        final TwilioStub twilioStub = new TwilioStub(Configuration.getLong("LOADTEST_TWILIO_LATENCY_MS", 150), getRate("LOADTEST_TWILIO_ERROR_RATE"));
+
+        elasticsearchStub.start();
+        twilioStub.start();
+
+        // the connectors read their endpoints when they are first used, which is after the API has started
+        System.setProperty("SEARCHBOX_URL", elasticsearchStub.getBaseURL());
+        System.setProperty("TWILIO_API_ENDPOINT", twilioStub.getMessagesURL());
+        System.setProperty("TWILIO_AUTH_TOKEN", "loadtest");
+
+        PersistentStorage.useDatabase(new Fongo("loadtest").getDB("todo-api-db"));
+
+        final Server server = Main.start(0);
+        final String baseURL = "http://127.0.0.1:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+        final LoadGenerator loadGenerator = new LoadGenerator(baseURL, Configuration.getString("LOADTEST_MIX", "create:10,list:25,get:30,update:15,search:15,subscribe:5"));
+
+        final int seedItemCount = Configuration.getInt("LOADTEST_SEED_ITEMS", 1000);
+        final int clientCount = Configuration.getInt("LOADTEST_CLIENTS", 32);
+
+        System.out.println("Seeding " + seedItemCount + " items at " + baseURL);
+        loadGenerator.seed(seedItemCount);
+
+        System.out.println("Running " + clientCount + " clients");
+        final long measuredTime = loadGenerator.run(clientCount, Configuration.getLong("LOADTEST_WARMUP_S", 10) * 1000, Configuration.getLong("LOADTEST_DURATION_S", 60) * 1000);
+
+        printReport(loadGenerator, measuredTime);
+
+        for (StubServer stubServer : new StubServer[]{elasticsearchStub, twilioStub}) {
+            System.out.println(stubServer.getName() + " stand-in: " + stubServer.getRequestCount() + " requests, " + stubServer.getInjectedErrorCount() + " injected errors");
+        }
+
+        // the server is stopped right away, so the API's own view of the run, as served at /_metrics, is printed instead
+        System.out.println("The API's metrics, including the seeding and the warmup:");
+
+        final Writer metricsWriter = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        MetricsRegistry.getInstance().writePrometheusText(metricsWriter);
+        metricsWriter.flush();
+
+        server.stop();
+        elasticsearchStub.stop();
+        twilioStub.stop();
+
+        // the background pools of the API do not stop on their own
+        System.exit(0);
+
+    }
+
+    private static void printReport(final LoadGenerator loadGenerator, final long measuredTime) {
+
+        final double seconds = measuredTime / 1e9;
+
+        System.out.println(String.format(Locale.ROOT, "%-30s %10s %8s %10s %10s %10s %10s", "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms"));
+
+        long totalCount = 0;
+
+        for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+
+            final LatencyHistogram latencies = loadGenerator.getLatencies(operation);
+            final long count = latencies.getCount();
+            totalCount += count;
+
+            if (count == 0) {
+                continue;
+            }
+
+            System.out.println(String.format(Locale.ROOT, "%-30s %10d %8d %10.1f %10.2f %10.2f %10.2f",
+                    operation.getEndpoint(), count, loadGenerator.getErrorCount(operation), count / seconds,
+                    latencies.getValueAtQuantile(0.5) / 1000.0, latencies.getValueAtQuantile(0.99) / 1000.0, latencies.getValueAtQuantile(0.999) / 1000.0));
+
+        }
+
+        System.out.println(String.format(Locale.ROOT, "%-30s %10d %8s %10.1f", "total", totalCount, "", totalCount / seconds));
+
+    }
+
+    private static double getRate(final String name) {
+
+        final String value = Configuration.getString(name, "0");
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring malformed setting " + name + "=" + value);
+            return 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.arik.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process HTTP server standing in for an external service, which delays its responses and fails some of them
+ * The delays follow an exponential distribution around the configured mean, such that the stand-in has a tail like a
+ * real service over the internet.
+ */
+abstract class StubServer implements HttpHandler {
+
+    private final String name;
+    private final long meanLatency;
+    private final double errorRate;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong injectedErrorCount = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param name        The name shown in the report
+     * @param meanLatency The mean delay of the responses in milliseconds
+     * @param errorRate   The share of requests that are answered with an error, between 0 and 1
+     */
+    StubServer(final String name, final long meanLatency, final double errorRate) {
+        this.name = name;
+        this.meanLatency = meanLatency;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Listen on a free port of the loopback interface
+     *
+     * @throws IOException Thrown if no port can be bound
+     */
+    void start() throws IOException {
+
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+        this.server.createContext("/", this);
+
+        // the delays are slept away on the handler threads, so there have to be enough of them
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.executor);
+        this.server.start();
+
+    }
+
+    void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    String getBaseURL() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    long getRequestCount() {
+        return this.requestCount.get();
+    }
+
+    long getInjectedErrorCount() {
+        return this.injectedErrorCount.get();
+    }
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+
+        try {
+
+            this.requestCount.incrementAndGet();
+
+            final String requestBody = readFully(exchange.getRequestBody());
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            if (this.meanLatency > 0) {
+                TimeUnit.MILLISECONDS.sleep((long) (-Math.log(1 - random.nextDouble()) * this.meanLatency));
+            }
+
+            if (random.nextDouble() < this.errorRate) {
+                this.injectedErrorCount.incrementAndGet();
+                this.respondWithError(exchange);
+            } else {
+                this.respond(exchange, exchange.getRequestURI().getPath(), requestBody);
+            }
+
+        } catch (InterruptedException e) {
+
+            // the stand-in is being stopped
+            Thread.currentThread().interrupt();
+
+        } catch (RuntimeException e) {
+
+            e.printStackTrace();
+            send(exchange, 500, "{}");
+
+        } finally {
+            exchange.close();
+        }
+
+    }
+
+    /**
+     * Answer a request the way the real service would
+     *
+     * @param exchange    The request
+     * @param path        The path of the request
+     * @param requestBody The body of the request
+     * @throws IOException Thrown if the response cannot be written
+     */
+    abstract void respond(HttpExchange exchange, String path, String requestBody) throws IOException;
+
+    /**
+     * Answer a request with the error the real service sends when it is in trouble
+     *
+     * @param exchange The request
+     * @throws IOException Thrown if the response cannot be written
+     */
+    abstract void respondWithError(HttpExchange exchange) throws IOException;
+
+    static void send(final HttpExchange exchange, final int status, final String json) throws IOException {
+
+        final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+
+    }
+
+    private static String readFully(final InputStream inputStream) throws IOException {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, length);
+        }
+
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.arik.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Stands in for Twilio's Messages resource, accepting every message it is sent
+ */
+class TwilioStub extends StubServer {
+
+    TwilioStub(final long meanLatency, final double errorRate) {
+        super("twilio", meanLatency, errorRate);
+    }
+
+    /**
+     * The URL the TwilioConnector posts its messages to
+     */
+    String getMessagesURL() {
+        return this.getBaseURL() + "/2010-04-01/Accounts/AC00000000000000000000000000000000/Messages.json";
+    }
+
+    @Override
+    void respond(final HttpExchange exchange, final String path, final String requestBody) throws IOException {
+
+        final String messageID = "SM" + UUID.randomUUID().toString().replace("-", "");
+        send(exchange, 201, "{\"sid\":\"" + messageID + "\",\"status\":\"queued\"}");
+
+    }
+
+    @Override
+    void respondWithError(final HttpExchange exchange) throws IOException {
+        send(exchange, 500, "{\"code\":20500,\"message\":\"Internal Server Error\",\"status\":500}");
+    }
+
+}
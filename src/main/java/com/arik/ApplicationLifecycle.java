@@ -0,0 +1,51 @@
+package com.arik;
+
+import com.arik.models.TodoItem;
+import com.arik.models.TodoStatisticsReconciler;
+import com.arik.persistence.PersistentStorage;
+import com.arik.resilience.BackendUnavailableException;
+import com.arik.search.IndexSynchronizer;
+import com.arik.search.QueryTemplateRegistry;
+import com.mongodb.MongoException;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.net.UnknownHostException;
+
+/**
+ * Sets up the shared resources when the application starts, such that the first requests do not have to
+ */
+public class ApplicationLifecycle implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(final ServletContextEvent servletContextEvent) {
+
+        try {
+            PersistentStorage.initialize();
+
+            // the filters of the list would scan the whole collection without them
+            TodoItem.createIndexes();
+        } catch (UnknownHostException | MongoException | BackendUnavailableException e) {
+
+            // the requests will try again, and fail with a proper error message if MongoDB is still unavailable
+            e.printStackTrace();
+
+        }
+
+        QueryTemplateRegistry.getInstance();
+
+        // the counters of a collection that predates them are filled in by the first reconciliation
+        TodoStatisticsReconciler.getInstance().start();
+
+        // with the embedded index, there is no other process that could tail the oplog on our behalf
+        if (Configuration.getString("SEARCH_INDEX_SYNC", "requests").equalsIgnoreCase("oplog")) {
+            IndexSynchronizer.getInstance().start();
+        }
+
+    }
+
+    @Override
+    public void contextDestroyed(final ServletContextEvent servletContextEvent) {
+    }
+
+}
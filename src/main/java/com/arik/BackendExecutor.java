@@ -0,0 +1,149 @@
+package com.arik;
+
+import com.arik.resilience.BackendUnavailableException;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.*;
+
+/**
+ * Runs the MongoDB, Searchly, and Twilio work of the requests on a dedicated pool
+ * The container threads only accept requests and suspend them, so a slow backend can only exhaust this pool rather than
+ * the one of Jetty. Once the pool and its queue are full, further requests are rejected right away.
+ */
+public class BackendExecutor {
+
+    private static BackendExecutor backendExecutor;
+
+    private final int threadCount = Configuration.getInt("BACKEND_THREADS", 64);
+    private final int queueCapacity = Configuration.getInt("BACKEND_QUEUE_CAPACITY", 1000);
+    private final long requestTimeout = Configuration.getLong("BACKEND_REQUEST_TIMEOUT_MS", 30000);
+
+    private final ThreadPoolExecutor executor;
+
+    private BackendExecutor() {
+
+        final ThreadFactory threadFactory = new ThreadFactory() {
+
+            private int threadNumber = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+
+                final Thread thread = new Thread(runnable, "backend-" + this.threadNumber++);
+                thread.setDaemon(true);
+                return thread;
+
+            }
+
+        };
+
+        this.executor = new ThreadPoolExecutor(this.threadCount, this.threadCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(this.queueCapacity), threadFactory);
+
+    }
+
+    /**
+     * Get the singleton executor
+     *
+     * @return The executor instance
+     */
+    public static synchronized BackendExecutor getInstance() {
+
+        if (backendExecutor == null) {
+            backendExecutor = new BackendExecutor();
+        }
+
+        return backendExecutor;
+
+    }
+
+    /**
+     * Run a request's work on the backend pool and resume the suspended request with its result
+     * Exceptions, including the WebApplicationExceptions thrown by RestAPIExceptionHandler, resume the request as well,
+     * so they are mapped to responses just like in a synchronous resource method.
+     *
+     * @param asyncResponse The suspended request
+     * @param task          The work producing the response entity
+     */
+    public static void resume(final AsyncResponse asyncResponse, final Callable<?> task) {
+        getInstance().submit(asyncResponse, task);
+    }
+
+    private void submit(final AsyncResponse asyncResponse, final Callable<?> task) {
+
+        asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+            @Override
+            public void handleTimeout(final AsyncResponse timedOutResponse) {
+                timedOutResponse.resume(RestAPIExceptionHandler.buildErrorResponse(Response.Status.SERVICE_UNAVAILABLE, "The request has timed out"));
+            }
+        });
+        asyncResponse.setTimeout(this.requestTimeout, TimeUnit.MILLISECONDS);
+
+        try {
+
+            this.executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+
+                        final Object result = task.call();
+
+                        // once the request has timed out, nobody is going to write, and thereby close, the entity
+                        if (!asyncResponse.resume(result)) {
+                            closeEntity(result);
+                        }
+
+                    } catch (BackendUnavailableException e) {
+
+                        // the resource methods only catch the exceptions of the backends themselves
+                        asyncResponse.resume(RestAPIExceptionHandler.buildErrorResponse(Response.Status.SERVICE_UNAVAILABLE, e.getMessage()));
+
+                    } catch (Throwable throwable) {
+                        asyncResponse.resume(throwable);
+                    }
+
+                }
+
+            });
+
+        } catch (RejectedExecutionException e) {
+            asyncResponse.resume(RestAPIExceptionHandler.buildErrorResponse(Response.Status.SERVICE_UNAVAILABLE, "The server is too busy, please try again later"));
+        }
+
+    }
+
+    /**
+     * Release the resources of a response that is not going to be written, e. g. the database cursor of a streamed list
+     *
+     * @param result The result of a task, which is either a response or an entity
+     */
+    private static void closeEntity(final Object result) {
+
+        final Object entity = result instanceof Response ? ((Response) result).getEntity() : result;
+
+        if (!(entity instanceof Closeable)) {
+            return;
+        }
+
+        try {
+            ((Closeable) entity).close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+    }
+
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+}
@@ -0,0 +1,331 @@
+package com.arik;
+
+import com.arik.json.JSONStreamWriter;
+import com.arik.models.TodoItem;
+import com.arik.models.TodoItemBatch;
+import com.arik.models.TodoItemState;
+import com.arik.models.VersionConflictException;
+import com.mongodb.MongoException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Controller for creating, modifying, and removing many to-do items at once
+ * All items to be modified or removed are read with a single query, all writes go to MongoDB as a single bulk write,
+ * and the search index is updated with a single bulk request by the indexer.
+ */
+@Path("/_bulk")
+public class BulkResource {
+
+    /**
+     * The largest number of operations a single request may contain
+     */
+    private static final int MAXIMUM_OPERATION_COUNT = Configuration.getInt("BULK_MAXIMUM_OPERATIONS", 1000);
+
+    /**
+     * Create, modify, and remove several to-do items
+     * Each operation is a JSON object whose "op" is "create" (with a title and a body), "update" (with an id, a
+     * modification_token, and optionally a title, a body, and done), or "delete" (with an id and a modification_token).
+     * The operations are independent of each other, so some of them may fail while others succeed.
+     *
+     * @param requestBody   A JSON array of operations
+     * @param asyncResponse The suspended response, which is resumed with a JSON array containing the status of each
+     *                      operation, along with the item for creations (including its modification token) and modifications
+     */
+    @POST
+    @Consumes("application/json")
+    @Produces("application/json")
+    public void executeOperations(final String requestBody, @Suspended final AsyncResponse asyncResponse) {
+
+        BackendExecutor.resume(asyncResponse, new Callable<StreamingOutput>() {
+            @Override
+            public StreamingOutput call() {
+                return executeBatch(requestBody);
+            }
+        });
+
+    }
+
+    /**
+     * The part of executeOperations() that runs on the backend pool
+     */
+    private StreamingOutput executeBatch(final String requestBody) {
+
+        final List<JSONObject> operations = parseOperations(requestBody);
+
+        // every item to be modified or removed is read at once
+        final List<String> identifiers = new ArrayList<>();
+        for (JSONObject operation : operations) {
+            if (operation.get("id") instanceof String) {
+                identifiers.add((String) operation.get("id"));
+            }
+        }
+
+        final Map<String, TodoItem> itemsByID = new HashMap<>();
+
+        try {
+            for (TodoItem todoItem : TodoItem.fetchTodoItemsByIDs(identifiers)) {
+                itemsByID.put(todoItem.getID(), todoItem);
+            }
+        } catch (UnknownHostException | MongoException e) {
+            RestAPIExceptionHandler.handleExternalServiceException(e);
+        }
+
+        final TodoItemBatch batch = new TodoItemBatch();
+
+        // the item of every operation that is part of the batch, and the result of every operation that is not
+        final TodoItem[] operationItems = new TodoItem[operations.size()];
+        final TodoItemState.DoneState[] doneStates = new TodoItemState.DoneState[operations.size()];
+        final OperationResult[] results = new OperationResult[operations.size()];
+
+        for (int i = 0; i < operations.size(); i++) {
+
+            final JSONObject operation = operations.get(i);
+            final Object operationType = operation.get("op");
+
+            if ("create".equals(operationType)) {
+
+                final Object title = operation.get("title");
+                final Object body = operation.get("body");
+
+                if (!(title instanceof String) || ((String) title).isEmpty()) {
+                    results[i] = new OperationResult(Response.Status.BAD_REQUEST, "The title must not be empty");
+                    continue;
+                }
+
+                operationItems[i] = batch.create((String) title, body == null ? null : body.toString());
+                continue;
+
+            }
+
+            if (!"update".equals(operationType) && !"delete".equals(operationType)) {
+                results[i] = new OperationResult(Response.Status.BAD_REQUEST, "The operation must be create, update, or delete");
+                continue;
+            }
+
+            final Object identifier = operation.get("id");
+            final TodoItem todoItem = identifier instanceof String ? itemsByID.get(identifier) : null;
+
+            // the item with that ID does no exist
+            if (todoItem == null) {
+                results[i] = new OperationResult(Response.Status.NOT_FOUND, "Invalid item ID");
+                continue;
+            }
+
+            final Object modificationToken = operation.get("modification_token");
+
+            if (!(modificationToken instanceof String) || !todoItem.matchesModificationToken((String) modificationToken)) {
+                results[i] = new OperationResult(Response.Status.UNAUTHORIZED, "Invalid modification token");
+                continue;
+            }
+
+            if (batch.contains(todoItem.getID())) {
+                results[i] = new OperationResult(Response.Status.BAD_REQUEST, "The item is already part of another operation");
+                continue;
+            }
+
+            if ("delete".equals(operationType)) {
+                batch.remove(todoItem);
+                operationItems[i] = todoItem;
+                continue;
+            }
+
+            final Object title = operation.get("title");
+            final Object body = operation.get("body");
+            final Object isDone = operation.get("done");
+
+            if (title instanceof String && !((String) title).isEmpty()) {
+                todoItem.setTitle((String) title);
+            }
+
+            if (body != null) {
+                todoItem.setBody(body.toString());
+            }
+
+            // done may be given as a boolean or as a string, just like in the form of the PUT request
+            doneStates[i] = TodoItemState.DoneState.fromString(isDone == null ? null : isDone.toString());
+
+            if (doneStates[i].isModifier()) {
+                todoItem.setDone(doneStates[i].isDone());
+            }
+
+            batch.save(todoItem);
+            operationItems[i] = todoItem;
+
+        }
+
+        Map<TodoItem, Exception> failures = Collections.emptyMap();
+
+        try {
+            failures = batch.execute();
+        } catch (UnknownHostException | MongoException e) {
+            RestAPIExceptionHandler.handleExternalServiceException(e);
+        }
+
+        for (int i = 0; i < operations.size(); i++) {
+
+            final TodoItem todoItem = operationItems[i];
+
+            if (results[i] == null) {
+
+                final Exception failure = failures.get(todoItem);
+                final Object operationType = operations.get(i).get("op");
+
+                if (failure instanceof VersionConflictException) {
+                    results[i] = new OperationResult(Response.Status.CONFLICT, failure.getMessage());
+                } else if (failure != null) {
+                    results[i] = new OperationResult(Response.Status.INTERNAL_SERVER_ERROR, "There was an issue with MongoDB: " + failure.getMessage());
+                } else if ("create".equals(operationType)) {
+                    results[i] = new OperationResult(Response.Status.CREATED, todoItem, true);
+                } else if ("update".equals(operationType)) {
+
+                    results[i] = new OperationResult(Response.Status.OK, todoItem, false);
+
+                    // the modifications are persisted, so the subscribers may be notified
+                    TodoResource.notifySubscribers(todoItem, doneStates[i]);
+
+                } else {
+                    results[i] = new OperationResult(Response.Status.NO_CONTENT, null, false);
+                }
+
+            }
+
+        }
+
+        return new StreamingOutput() {
+
+            @Override
+            public void write(final OutputStream outputStream) throws IOException {
+
+                try (JSONStreamWriter writer = JSONStreamWriter.open(outputStream)) {
+
+                    writer.beginArray();
+                    for (OperationResult result : results) {
+                        result.writeJSON(writer);
+                    }
+                    writer.endArray();
+
+                }
+
+            }
+
+        };
+
+    }
+
+    /**
+     * Parse the request body into a list of operations
+     *
+     * @param requestBody The JSON array of operations
+     * @return The operations
+     */
+    private static List<JSONObject> parseOperations(final String requestBody) {
+
+        Object parsedBody = null;
+
+        try {
+            parsedBody = new JSONParser().parse(requestBody == null ? "" : requestBody);
+        } catch (ParseException e) {
+            RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "The request body must be a JSON array of operations");
+        }
+
+        if (!(parsedBody instanceof JSONArray)) {
+            RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "The request body must be a JSON array of operations");
+        }
+
+        final JSONArray operationArray = (JSONArray) parsedBody;
+
+        if (operationArray.size() > MAXIMUM_OPERATION_COUNT) {
+            RestAPIExceptionHandler.handleException(Response.Status.REQUEST_ENTITY_TOO_LARGE, "A request may contain at most " + MAXIMUM_OPERATION_COUNT + " operations");
+        }
+
+        final List<JSONObject> operations = new ArrayList<>(operationArray.size());
+
+        for (Object operation : operationArray) {
+
+            // an operation that is not an object is treated just like one without a valid op
+            operations.add(operation instanceof JSONObject ? (JSONObject) operation : new JSONObject());
+
+        }
+
+        return operations;
+
+    }
+
+    /**
+     * The result of a single operation
+     */
+    private static class OperationResult {
+
+        /**
+         * The HTTP status the operation would have had on its own
+         */
+        private final Response.Status status;
+
+        private final String message;
+
+        private final TodoItem todoItem;
+
+        private final boolean includeModificationToken;
+
+        /**
+         * @param status  The HTTP status of the failed operation
+         * @param message The error message
+         */
+        private OperationResult(final Response.Status status, final String message) {
+            this(status, message, null, false);
+        }
+
+        /**
+         * @param status                   The HTTP status of the successful operation
+         * @param todoItem                 The item in its new form (null if there is nothing to show)
+         * @param includeModificationToken Whether or not the modification token should be shown
+         */
+        private OperationResult(final Response.Status status, final TodoItem todoItem, final boolean includeModificationToken) {
+            this(status, null, todoItem, includeModificationToken);
+        }
+
+        private OperationResult(final Response.Status status, final String message, final TodoItem todoItem, final boolean includeModificationToken) {
+            this.status = status;
+            this.message = message;
+            this.todoItem = todoItem;
+            this.includeModificationToken = includeModificationToken;
+        }
+
+        private void writeJSON(final JSONStreamWriter writer) throws IOException {
+
+            writer.beginObject();
+            writer.name("status").value(this.status.getStatusCode());
+
+            if (this.message != null) {
+                writer.name("message").value(this.message);
+            }
+
+            if (this.todoItem != null) {
+                writer.name("item");
+                this.todoItem.writeJSON(writer, this.includeModificationToken);
+            }
+
+            writer.endObject();
+
+        }
+
+    }
+
+}
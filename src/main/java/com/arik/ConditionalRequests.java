@@ -0,0 +1,99 @@
+package com.arik;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+
+/**
+ * Evaluates the If-None-Match and If-Match headers against the entity tag of a resource
+ * The headers are read on the container thread and evaluated on the backend pool, where the request itself is not
+ * available, which is why Request.evaluatePreconditions() cannot be used.
+ */
+public class ConditionalRequests {
+
+    private static final String ANY_TAG = "*";
+    private static final String WEAK_PREFIX = "W/";
+    private static final String GZIP_SUFFIX = "--gzip";
+
+    /**
+     * Check whether the client already has the current representation of a resource
+     *
+     * @param ifNoneMatch The If-None-Match header (null if there is none)
+     * @param entityTag   The current entity tag of the resource
+     * @return A 304 Not Modified response if any of the tags matches, otherwise null
+     */
+    public static Response evaluateIfNoneMatch(final String ifNoneMatch, final EntityTag entityTag) {
+
+        // GET requests compare weakly, i. e. a weak tag sent by the client matches as well
+        if (ifNoneMatch == null || !matches(ifNoneMatch, entityTag, false)) {
+            return null;
+        }
+
+        return Response.notModified(entityTag).build();
+
+    }
+
+    /**
+     * Make sure that the client modifies the representation it has seen, and not a newer one
+     *
+     * @param ifMatch   The If-Match header (null if there is none)
+     * @param entityTag The current entity tag of the resource
+     */
+    public static void checkIfMatch(final String ifMatch, final EntityTag entityTag) {
+
+        if (ifMatch != null && !matches(ifMatch, entityTag, true)) {
+            RestAPIExceptionHandler.handleException(Response.Status.PRECONDITION_FAILED, "The item has been modified in the meantime");
+        }
+
+    }
+
+    /**
+     * Check whether a list of entity tags, e. g. "a", W/"b", contains a tag
+     *
+     * @param header    The comma separated list of tags, or *
+     * @param entityTag The tag to look for
+     * @param isStrong  Whether weak tags are disregarded
+     * @return True if the list contains the tag
+     */
+    private static boolean matches(final String header, final EntityTag entityTag, final boolean isStrong) {
+
+        for (String candidate : header.split(",")) {
+
+            String tag = candidate.trim();
+
+            if (tag.equals(ANY_TAG)) {
+                return true;
+            }
+
+            if (tag.startsWith(WEAK_PREFIX)) {
+
+                if (isStrong) {
+                    continue;
+                }
+
+                tag = tag.substring(WEAK_PREFIX.length());
+
+            }
+
+            if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+                continue;
+            }
+
+            // the values we generate never contain quotes, commas, or escapes
+            String value = tag.substring(1, tag.length() - 1);
+
+            // Jetty's GzipFilter appends a suffix to the tags of compressed responses, and the client sends it back
+            if (value.endsWith(GZIP_SUFFIX)) {
+                value = value.substring(0, value.length() - GZIP_SUFFIX.length());
+            }
+
+            if (value.equals(entityTag.getValue())) {
+                return true;
+            }
+
+        }
+
+        return false;
+
+    }
+
+}
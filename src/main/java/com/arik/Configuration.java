@@ -0,0 +1,90 @@
+package com.arik;
+
+/**
+ * Reads the tunable settings of the application
+ * Heroku hands us our configuration through environment variables, but a system property of the same name takes
+ * precedence so that settings can be overridden in-process as well
+ */
+public class Configuration {
+
+    /**
+     * Get a string setting
+     *
+     * @param name         The name of the setting, e. g. SEARCH_INDEX_BATCH_SIZE
+     * @param defaultValue The value to fall back to if the setting is absent
+     * @return The value of the setting
+     */
+    public static String getString(final String name, final String defaultValue) {
+
+        String value = System.getProperty(name);
+
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(name);
+        }
+
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+
+        return value.trim();
+
+    }
+
+    /**
+     * Get an integer setting
+     *
+     * @param name         The name of the setting
+     * @param defaultValue The value to fall back to if the setting is absent or malformed
+     * @return The value of the setting
+     */
+    public static int getInt(final String name, final int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+
+    /**
+     * Get a long setting
+     *
+     * @param name         The name of the setting
+     * @param defaultValue The value to fall back to if the setting is absent or malformed
+     * @return The value of the setting
+     */
+    public static long getLong(final String name, final long defaultValue) {
+
+        final String value = getString(name, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+
+            // a typo in the configuration should not take the whole application down
+            System.err.println("Ignoring malformed setting " + name + "=" + value);
+            return defaultValue;
+
+        }
+
+    }
+
+    /**
+     * Get a boolean setting
+     *
+     * @param name         The name of the setting
+     * @param defaultValue The value to fall back to if the setting is absent
+     * @return The value of the setting (true, 1 or yes, case-insensitive)
+     */
+    public static boolean getBoolean(final String name, final boolean defaultValue) {
+
+        final String value = getString(name, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        return value.equalsIgnoreCase("true") || value.equals("1") || value.equalsIgnoreCase("yes");
+
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.arik;
+
+import com.arik.events.ItemEventBroadcaster;
+import com.arik.models.TodoItemCache;
+import com.arik.twilio.NotificationDispatcher;
+import org.json.simple.JSONObject;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * Controller exposing the internal counters we need in order to size and tune the application
+ */
+@Path("/_diagnostics")
+public class DiagnosticsResource {
+
+    /**
+     * Show the statistics of the to-do item cache
+     *
+     * @return JSON string containing the size and the hit, miss, and eviction counters of the cache
+     */
+    @GET
+    @Path("/cache")
+    @Produces("application/json")
+    public String getCacheStatistics() {
+
+        final TodoItemCache cache = TodoItemCache.getInstance();
+
+        final long hits = cache.getHits();
+        final long misses = cache.getMisses();
+
+        final JSONObject json = new JSONObject();
+        json.put("size", cache.getSize());
+        json.put("capacity", cache.getCapacity());
+        json.put("hits", hits);
+        json.put("misses", misses);
+        json.put("hit_ratio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        json.put("evictions", cache.getEvictions());
+        json.put("expirations", cache.getExpirations());
+        json.put("invalidations", cache.getInvalidations());
+
+        return json.toString();
+
+    }
+
+    /**
+     * Show the statistics of the SMS notification dispatcher
+     *
+     * @return JSON string containing the queue depth, the send latency, and the failure counters of the dispatcher
+     */
+    @GET
+    @Path("/notifications")
+    @Produces("application/json")
+    public String getNotificationStatistics() {
+
+        final NotificationDispatcher dispatcher = NotificationDispatcher.getInstance();
+
+        final JSONObject json = new JSONObject();
+        json.put("queue_depth", dispatcher.getQueueDepth());
+        json.put("sent", dispatcher.getSentCount());
+        json.put("failed", dispatcher.getFailedCount());
+        json.put("retried", dispatcher.getRetriedCount());
+        json.put("dropped", dispatcher.getDroppedCount());
+        json.put("average_send_latency_ms", dispatcher.getAverageSendLatency());
+        json.put("maximum_send_latency_ms", dispatcher.getMaximumSendLatency());
+
+        return json.toString();
+
+    }
+
+    /**
+     * Show the utilization of the pool running the backend work of the requests
+     *
+     * @return JSON string containing the number of busy threads and of queued requests
+     */
+    @GET
+    @Path("/backend")
+    @Produces("application/json")
+    public String getBackendStatistics() {
+
+        final BackendExecutor executor = BackendExecutor.getInstance();
+
+        final JSONObject json = new JSONObject();
+        json.put("active_threads", executor.getActiveCount());
+        json.put("queue_depth", executor.getQueueDepth());
+
+        return json.toString();
+
+    }
+
+    /**
+     * Show the statistics of the item event streams
+     *
+     * @return JSON string containing the number of open streams, of published events, and of dropped slow clients
+     */
+    @GET
+    @Path("/events")
+    @Produces("application/json")
+    public String getEventStatistics() {
+
+        final ItemEventBroadcaster broadcaster = ItemEventBroadcaster.getInstance();
+
+        final JSONObject json = new JSONObject();
+        json.put("connections", broadcaster.getConnectionCount());
+        json.put("published", broadcaster.getPublishedCount());
+        json.put("dropped", broadcaster.getDroppedCount());
+
+        return json.toString();
+
+    }
+
+}
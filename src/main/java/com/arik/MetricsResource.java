@@ -0,0 +1,159 @@
+package com.arik;
+
+import com.arik.events.ItemEventBroadcaster;
+import com.arik.metrics.Gauge;
+import com.arik.metrics.MetricsRegistry;
+import com.arik.models.TodoItemCache;
+import com.arik.search.SearchIndexer;
+import com.arik.twilio.NotificationDispatcher;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Controller exposing the request and backend call latencies, along with the counters of the diagnostics endpoints, in
+ * the text format scraped by Prometheus
+ */
+@Path("/_metrics")
+public class MetricsResource {
+
+    static {
+        registerComponentGauges();
+    }
+
+    /**
+     * Show every metric of the application
+     *
+     * @return The metrics in Prometheus' text exposition format
+     */
+    @GET
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public String getMetrics() {
+
+        final StringWriter writer = new StringWriter();
+
+        try {
+            MetricsRegistry.getInstance().writePrometheusText(writer);
+        } catch (IOException e) {
+
+            // writing to memory does not fail
+            throw new IllegalStateException(e);
+
+        }
+
+        return writer.toString();
+
+    }
+
+    /**
+     * Expose the counters the components keep for the diagnostics endpoints
+     * The components are only looked up when the metrics are scraped, just like they are by the diagnostics endpoints.
+     */
+    private static void registerComponentGauges() {
+
+        final MetricsRegistry registry = MetricsRegistry.getInstance();
+
+        registry.registerGauge("todo_api_cache_size", "gauge", "Number of items in the to-do item cache", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return TodoItemCache.getInstance().getSize();
+            }
+        });
+
+        registry.registerGauge("todo_api_cache_hits_total", "counter", "Lookups answered by the to-do item cache", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return TodoItemCache.getInstance().getHits();
+            }
+        });
+
+        registry.registerGauge("todo_api_cache_misses_total", "counter", "Lookups the to-do item cache had to pass on to MongoDB", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return TodoItemCache.getInstance().getMisses();
+            }
+        });
+
+        registry.registerGauge("todo_api_cache_evictions_total", "counter", "Items evicted from the to-do item cache to make room", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return TodoItemCache.getInstance().getEvictions();
+            }
+        });
+
+        registry.registerGauge("todo_api_notification_queue_depth", "gauge", "SMS notifications waiting to be sent", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return NotificationDispatcher.getInstance().getQueueDepth();
+            }
+        });
+
+        registry.registerGauge("todo_api_notifications_sent_total", "counter", "SMS notifications sent", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return NotificationDispatcher.getInstance().getSentCount();
+            }
+        });
+
+        registry.registerGauge("todo_api_notifications_failed_total", "counter", "SMS notifications given up on", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return NotificationDispatcher.getInstance().getFailedCount();
+            }
+        });
+
+        registry.registerGauge("todo_api_notifications_dropped_total", "counter", "SMS notifications dropped because the queue was full", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return NotificationDispatcher.getInstance().getDroppedCount();
+            }
+        });
+
+        registry.registerGauge("todo_api_backend_pool_active_threads", "gauge", "Threads of the backend pool running requests", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return BackendExecutor.getInstance().getActiveCount();
+            }
+        });
+
+        registry.registerGauge("todo_api_backend_pool_queue_depth", "gauge", "Requests waiting for the backend pool", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return BackendExecutor.getInstance().getQueueDepth();
+            }
+        });
+
+        registry.registerGauge("todo_api_event_connections", "gauge", "Open item event streams", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return ItemEventBroadcaster.getInstance().getConnectionCount();
+            }
+        });
+
+        registry.registerGauge("todo_api_events_published_total", "counter", "Item events published", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return ItemEventBroadcaster.getInstance().getPublishedCount();
+            }
+        });
+
+        registry.registerGauge("todo_api_event_connections_dropped_total", "counter", "Item event streams closed because the client could not keep up", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return ItemEventBroadcaster.getInstance().getDroppedCount();
+            }
+        });
+
+        registry.registerGauge("todo_api_search_index_queue_depth", "gauge", "Index updates waiting to be sent to the search backend", "", new Gauge() {
+            @Override
+            public double getValue() {
+                return SearchIndexer.getInstance().getQueueDepth();
+            }
+        });
+
+    }
+
+}
@@ -1,6 +1,8 @@
 package com.arik;
 
+import com.arik.resilience.BackendUnavailableException;
 import com.arik.search.JestException;
+import com.arik.search.SearchException;
 import com.mongodb.MongoException;
 import com.twilio.sdk.TwilioRestException;
 import org.json.simple.JSONObject;
@@ -21,6 +23,15 @@ public class RestAPIExceptionHandler {
      */
     public static void handleExternalServiceException(final Exception externalServiceException) {
 
+        // failing fast is what is supposed to happen while a backend is down, so there is nothing to log
+        if (externalServiceException instanceof BackendUnavailableException) {
+            handleException(Response.Status.SERVICE_UNAVAILABLE, externalServiceException.getMessage());
+        }
+
+        if (externalServiceException.getCause() instanceof BackendUnavailableException) {
+            handleException(Response.Status.SERVICE_UNAVAILABLE, externalServiceException.getCause().getMessage());
+        }
+
         // stderr directs the output to Heroku's logger
         externalServiceException.printStackTrace();
 
@@ -32,6 +43,8 @@ public class RestAPIExceptionHandler {
             errorMessage = "There was an issue with Twilio: ";
         } else if (externalServiceException instanceof JestException) {
             errorMessage = "There was an issue with Searchly: ";
+        } else if (externalServiceException instanceof SearchException) {
+            errorMessage = "There was an issue with the search index: ";
         } else {
             return;
         }
@@ -48,6 +61,17 @@ public class RestAPIExceptionHandler {
      * @param errorMessage The error message
      */
     public static void handleException(final Response.Status status, final String errorMessage) {
+        throw new WebApplicationException(buildErrorResponse(status, errorMessage));
+    }
+
+    /**
+     * Build a JSON/encoded error response with status and message fields without throwing it
+     *
+     * @param status       HTTP status
+     * @param errorMessage The error message
+     * @return The error response
+     */
+    public static Response buildErrorResponse(final Response.Status status, final String errorMessage) {
 
         JSONObject jsonError = new JSONObject();
         jsonError.put("status", status.getStatusCode());
@@ -58,7 +82,7 @@ public class RestAPIExceptionHandler {
             jsonError.put("message", status.getReasonPhrase());
         }
 
-        throw new WebApplicationException(Response.status(status).entity(jsonError.toString()).build());
+        return Response.status(status).entity(jsonError.toString()).type("application/json").build();
 
     }
 
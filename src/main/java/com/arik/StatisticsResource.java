@@ -0,0 +1,85 @@
+package com.arik;
+
+import com.arik.models.TodoStatistics;
+import com.mongodb.MongoException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import java.net.UnknownHostException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+
+/**
+ * Controller exposing the statistics of the to-do items for the dashboards
+ * The statistics are maintained by the writes, so they are read from a single document instead of counting the items.
+ */
+@Path("/_stats")
+public class StatisticsResource {
+
+    /**
+     * Show the number of items, of done and open items, of subscriptions, and of items created per hour
+     *
+     * @param asyncResponse The suspended response, which is resumed with a JSON string containing the statistics
+     */
+    @GET
+    @Produces("application/json")
+    public void getStatistics(@Suspended final AsyncResponse asyncResponse) {
+
+        BackendExecutor.resume(asyncResponse, new Callable<String>() {
+            @Override
+            public String call() {
+                return buildStatistics();
+            }
+        });
+
+    }
+
+    /**
+     * The part of getStatistics() that runs on the backend pool
+     */
+    private String buildStatistics() {
+
+        TodoStatistics statistics = null;
+        try {
+            statistics = TodoStatistics.fetch();
+        } catch (UnknownHostException | MongoException e) {
+            RestAPIExceptionHandler.handleExternalServiceException(e);
+        }
+
+        // SimpleDateFormat is not thread-safe, and the requests run on several threads
+        final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        final JSONArray createdCounts = new JSONArray();
+
+        for (Map.Entry<Long, Long> createdCount : statistics.getCreatedCounts().entrySet()) {
+
+            final JSONObject bucket = new JSONObject();
+            bucket.put("hour", dateFormat.format(new Date(createdCount.getKey())));
+            bucket.put("created", createdCount.getValue());
+            createdCounts.add(bucket);
+
+        }
+
+        final JSONObject json = new JSONObject();
+        json.put("items", statistics.getItemCount());
+        json.put("done", statistics.getDoneCount());
+        json.put("open", statistics.getOpenCount());
+        json.put("subscriptions", statistics.getSubscriptionCount());
+        json.put("created_per_hour", createdCounts);
+        json.put("reconciled_at", statistics.getReconciledAt() == null ? null : dateFormat.format(statistics.getReconciledAt()));
+
+        return json.toString();
+
+    }
+
+}
@@ -1,31 +1,43 @@
 package com.arik;
 
+import com.arik.events.ItemEventBroadcaster;
+import com.arik.json.JSONStreamWriter;
+import com.arik.models.TodoCollectionMetadata;
 import com.arik.models.TodoItem;
+import com.arik.models.TodoItemCursor;
+import com.arik.models.TodoItemQuery;
 import com.arik.models.TodoItemState;
-import com.arik.search.JestException;
-import com.arik.search.SearchlyConnector;
+import com.arik.models.VersionConflictException;
+import com.arik.resilience.BackendUnavailableException;
+import com.arik.search.QueryTemplate;
+import com.arik.search.QueryTemplateRegistry;
+import com.arik.search.SearchBackendFactory;
+import com.arik.search.SearchException;
+import com.arik.search.SearchHit;
+import com.arik.twilio.NotificationDispatcher;
 import com.arik.twilio.PhoneNumberNormalizer;
 import com.arik.twilio.TwilioConnector;
-import com.mongodb.Mongo;
 import com.mongodb.MongoException;
 import com.twilio.sdk.TwilioRestException;
-import io.searchbox.client.JestClient;
-import io.searchbox.core.Search;
-import io.searchbox.core.SearchResult;
-import org.apache.commons.lang.StringUtils;
-import org.json.simple.JSONArray;
+import org.bson.types.ObjectId;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.SseFeature;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
 
 import javax.ws.rs.*;
-import javax.ws.rs.core.Response;
-import java.io.IOException;
-import java.net.URISyntaxException;
-import java.net.URL;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.*;
+import java.io.*;
 import java.net.UnknownHostException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * Controller for handling actions related to the To-do model
@@ -33,46 +45,302 @@ import java.util.List;
 @Path("/") // we operate right at the root path
 public class TodoResource {
 
-    private static final String QUERY_PRESET_PATH = "todo-query-preset.json";
+    private static final String QUERY_STRING_SLOT = "QUERY_STRING";
+
+    /**
+     * The search query presets are compiled once rather than read on every search
+     */
+    private static final QueryTemplateRegistry QUERY_TEMPLATES = QueryTemplateRegistry.getInstance();
+
+    /**
+     * The largest page that can be requested from the list of to-do items
+     */
+    private static final int MAXIMUM_PAGE_SIZE = 1000;
+
+    /**
+     * Whether search results are built from the fields stored in the index rather than hydrated from MongoDB
+     */
+    private static final boolean SEARCH_RESULTS_FROM_INDEX = Configuration.getBoolean("SEARCH_RESULTS_FROM_INDEX", false);
 
     /**
      * Function to be called when no further parameters are provided
+     * Without a limit, the whole collection is streamed straight from the database cursor to the response. With a limit,
+     * one page is returned, and a Link header points to the next one.
      *
-     * @return JSON string representing the list of all to-do items
+     * @param after          The opaque cursor of the previous page (null to start at the beginning)
+     * @param limitString    The maximum number of items per page (null to stream all of them)
+     * @param isDoneString   Whether to list only the done (true) or the open (false) items (null for both)
+     * @param subscribedBy   The phone number the listed items must have been subscribed to by (null for any item)
+     * @param fieldsString   The comma separated fields of the items to return, e. g. id,title (null for every field)
+     * @param sortString     The order of the items, which is created (oldest first) or -created (newest first)
+     * @param uriInfo        The URI of the request, from which the link to the next page is built
+     * @param ifNoneMatch    The entity tag of the list the client has already seen (null if there is none)
+     * @param asyncResponse  The suspended response, which is resumed with a JSON string representing the list of items,
+     *                       or with 304 Not Modified if no item has changed since
      */
     @GET
     @Produces("application/json")
-    public String listTodoItems() {
+    public void listTodoItems(@QueryParam("after") final String after, @QueryParam("limit") final String limitString, @QueryParam("done") final String isDoneString, @QueryParam("subscribed_by") final String subscribedBy, @QueryParam("fields") final String fieldsString, @QueryParam("sort") final String sortString, @Context final UriInfo uriInfo, @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch, @Suspended final AsyncResponse asyncResponse) {
+
+        // the request scoped UriInfo must not be used from the backend pool
+        final UriBuilder requestURI = uriInfo.getRequestUriBuilder();
+
+        BackendExecutor.resume(asyncResponse, new Callable<Response>() {
+            @Override
+            public Response call() {
+                return buildTodoItemList(after, limitString, buildTodoItemQuery(isDoneString, subscribedBy, fieldsString, sortString), requestURI, ifNoneMatch);
+            }
+        });
+
+    }
+
+    /**
+     * Translate the filter, projection, and sort parameters of the list into a query
+     *
+     * @return The query, or the default one if none of the parameters are given
+     */
+    private static TodoItemQuery buildTodoItemQuery(final String isDoneString, final String subscribedBy, final String fieldsString, final String sortString) {
+
+        if (isDoneString == null && subscribedBy == null && fieldsString == null && sortString == null) {
+            return TodoItemQuery.ALL;
+        }
+
+        Boolean isDone = null;
+
+        if (isDoneString != null) {
+
+            final TodoItemState.DoneState doneState = TodoItemState.DoneState.fromString(isDoneString);
+
+            if (!doneState.isModifier()) {
+                RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "The done filter must be true or false");
+            }
+
+            isDone = doneState.isDone();
+
+        }
+
+        String subscriber = null;
+
+        if (subscribedBy != null) {
+            subscriber = PhoneNumberNormalizer.normalizePhoneNumber(subscribedBy);
+        }
+
+        Set<String> fields = null;
+
+        if (fieldsString != null) {
+
+            fields = new HashSet<>();
+
+            for (String field : fieldsString.split(",")) {
+
+                final String trimmedField = field.trim();
+
+                if (!TodoItemQuery.FIELDS.contains(trimmedField)) {
+                    RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "Unknown field \"" + trimmedField + "\", the fields are " + TodoItemQuery.FIELDS);
+                }
+
+                fields.add(trimmedField);
+
+            }
+
+        }
+
+        boolean isNewestFirst = false;
+
+        if (sortString != null) {
+
+            if (sortString.equals("-created")) {
+                isNewestFirst = true;
+            } else if (!sortString.equals("created")) {
+                RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "The sort order must be created or -created");
+            }
+
+        }
+
+        return new TodoItemQuery(isDone, subscriber, isNewestFirst, fields);
+
+    }
+
+    /**
+     * The part of listTodoItems() that runs on the backend pool
+     */
+    private Response buildTodoItemList(final String after, final String limitString, final TodoItemQuery itemQuery, final UriBuilder requestURI, final String ifNoneMatch) {
 
-        JSONArray json = new JSONArray();
-        List<TodoItem> allTodoItems = null;
+        if (after != null && !ObjectId.isValid(after)) {
+            RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "Invalid cursor");
+        }
 
+        // the version is read before the items, so a write in between can only make the tag older than the list
+        EntityTag entityTag = null;
         try {
-            allTodoItems = TodoItem.fetchAllTodoItems();
+            entityTag = new EntityTag("list-" + TodoCollectionMetadata.getInstance().getVersion());
         } catch (UnknownHostException | MongoException e) {
             RestAPIExceptionHandler.handleExternalServiceException(e);
         }
 
-        for (TodoItem currentItem : allTodoItems) {
+        final Response notModified = ConditionalRequests.evaluateIfNoneMatch(ifNoneMatch, entityTag);
+
+        if (notModified != null) {
+            return notModified;
+        }
+
+        if (limitString == null) {
+            return streamTodoItems(itemQuery, after, entityTag);
+        }
+
+        int limit = 0;
+        try {
+            limit = Integer.parseInt(limitString);
+        } catch (NumberFormatException e) {
+            // the check below takes care of it
+        }
+
+        if (limit < 1 || limit > MAXIMUM_PAGE_SIZE) {
+            RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "The limit must be between 1 and " + MAXIMUM_PAGE_SIZE);
+        }
+
+        final List<TodoItem> items = new ArrayList<>(limit);
+        String lastIdentifier = null;
+
+        // we read one item more than requested in order to know whether there is a next page at all
+        try (TodoItemCursor cursor = TodoItem.openTodoItemCursor(itemQuery, after, limit + 1)) {
+
+            while (cursor.hasNext() && items.size() < limit) {
+                final TodoItem currentItem = cursor.next();
+                items.add(currentItem);
+                lastIdentifier = currentItem.getID();
+            }
+
+            if (!cursor.hasNext()) {
+                lastIdentifier = null;
+            }
+
+        } catch (UnknownHostException | MongoException e) {
+            RestAPIExceptionHandler.handleExternalServiceException(e);
+        }
+
+        // the element type has to be kept for the JSON provider to pick up the list
+        final Response.ResponseBuilder response = Response.ok(new GenericEntity<List<TodoItem>>(items) {}).tag(entityTag);
+
+        if (lastIdentifier != null) {
+            response.link(requestURI.replaceQueryParam("after", lastIdentifier).build(), "next");
+        }
+
+        return response.build();
+
+    }
 
-            json.add(currentItem.toJSONObject(false));
+    /**
+     * Stream every to-do item after the cursor without holding the list in memory
+     *
+     * @param itemQuery The filters, the projection, and the order of the items
+     * @param after     The ID after which to start (null to start at the beginning)
+     * @param entityTag The entity tag of the list
+     * @return A response whose entity writes the items as they are read from the database
+     */
+    private Response streamTodoItems(final TodoItemQuery itemQuery, final String after, final EntityTag entityTag) {
 
+        TodoItemCursor openedCursor = null;
+        try {
+            openedCursor = TodoItem.openTodoItemCursor(itemQuery, after, 0);
+        } catch (UnknownHostException | MongoException e) {
+            RestAPIExceptionHandler.handleExternalServiceException(e);
         }
 
-        return json.toString();
+        // the JSON provider writes the items as they are read and closes the cursor afterwards, and should the request
+        // have timed out in the meantime, the backend pool closes it instead
+        return Response.ok(openedCursor).tag(entityTag).build();
 
     }
 
     /**
      * Show one particular to-do item
      *
-     * @param identifier The ID of the item
-     * @return JSON string representing the tiem
+     * @param identifier    The ID of the item
+     * @param ifNoneMatch   The entity tag of the item the client has already seen (null if there is none)
+     * @param asyncResponse The suspended response, which is resumed with a JSON string representing the tiem, or with
+     *                      304 Not Modified if it has not changed since
      */
     @GET
     @Path("/{id}")
     @Produces("application/json")
-    public String getTodoItem(@PathParam("id") final String identifier) {
+    public void getTodoItem(@PathParam("id") final String identifier, @HeaderParam(HttpHeaders.IF_NONE_MATCH) final String ifNoneMatch, @Suspended final AsyncResponse asyncResponse) {
+
+        BackendExecutor.resume(asyncResponse, new Callable<Response>() {
+            @Override
+            public Response call() {
+                return readTodoItem(identifier, ifNoneMatch);
+            }
+        });
+
+    }
+
+    /**
+     * The part of getTodoItem() that runs on the backend pool
+     */
+    private Response readTodoItem(final String identifier, final String ifNoneMatch) {
+
+        TodoItem todoItem = null;
+        try {
+            todoItem = TodoItem.fetchTodoItemByID(identifier);
+        } catch (UnknownHostException | MongoException e) {
+            RestAPIExceptionHandler.handleExternalServiceException(e);
+        }
+
+        // the item with that ID does no exist
+        if (todoItem == null) {
+            RestAPIExceptionHandler.handleException(Response.Status.NOT_FOUND, "Invalid item ID");
+        }
+
+        final EntityTag entityTag = buildEntityTag(todoItem);
+        final Response notModified = ConditionalRequests.evaluateIfNoneMatch(ifNoneMatch, entityTag);
+
+        if (notModified != null) {
+            return notModified;
+        }
+
+        return Response.ok(todoItem).tag(entityTag).build();
+
+    }
+
+    /**
+     * Watch all to-do items
+     *
+     * @return A stream of Server-Sent Events, i. e. created and updated events carrying the item, and removed events
+     * carrying its ID
+     */
+    @GET
+    @Path("/events")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public EventOutput watchTodoItems() {
+        return openEventStream(null);
+    }
+
+    /**
+     * Watch one particular to-do item
+     *
+     * @param identifier    The ID of the item
+     * @param asyncResponse The suspended response, which is resumed with a stream of Server-Sent Events, i. e. updated
+     *                      events carrying the item and a removed event carrying its ID
+     */
+    @GET
+    @Path("/{id}/events")
+    @Produces(SseFeature.SERVER_SENT_EVENTS)
+    public void watchTodoItem(@PathParam("id") final String identifier, @Suspended final AsyncResponse asyncResponse) {
+
+        BackendExecutor.resume(asyncResponse, new Callable<EventOutput>() {
+            @Override
+            public EventOutput call() {
+                return openTodoItemEventStream(identifier);
+            }
+        });
+
+    }
+
+    /**
+     * The part of watchTodoItem() that runs on the backend pool
+     */
+    private EventOutput openTodoItemEventStream(final String identifier) {
 
         TodoItem todoItem = null;
         try {
@@ -86,38 +354,56 @@ public class TodoResource {
             RestAPIExceptionHandler.handleException(Response.Status.NOT_FOUND, "Invalid item ID");
         }
 
-        return todoItem.toJSONObject(false).toString();
+        return openEventStream(identifier);
+
+    }
+
+    private static EventOutput openEventStream(final String identifier) {
+
+        final EventOutput eventOutput = ItemEventBroadcaster.getInstance().subscribe(identifier);
+
+        if (eventOutput == null) {
+            RestAPIExceptionHandler.handleException(Response.Status.SERVICE_UNAVAILABLE, "Too many clients are watching the items, please try again later");
+        }
+
+        return eventOutput;
 
     }
 
     /**
      * Create a new to-do item
      *
-     * @param title The title of the new item
-     * @param body  Its body or description text
-     * @return JSON string representing the new item, including the modification token necessary to modify or remove it
+     * @param title         The title of the new item
+     * @param body          Its body or description text
+     * @param asyncResponse The suspended response, which is resumed with a JSON string representing the new item, including its modification token
      */
     @POST
     @Produces("application/json")
-    public String createTodoItem(@FormParam("title") final String title, @FormParam("body") final String body) {
+    public void createTodoItem(@FormParam("title") final String title, @FormParam("body") final String body, @Suspended final AsyncResponse asyncResponse) {
+
+        BackendExecutor.resume(asyncResponse, new Callable<StreamingOutput>() {
+            @Override
+            public StreamingOutput call() {
+                return insertTodoItem(title, body);
+            }
+        });
+
+    }
+
+    /**
+     * The part of createTodoItem() that runs on the backend pool
+     */
+    private StreamingOutput insertTodoItem(final String title, final String body) {
 
         if (title == null || title.isEmpty()) {
             RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "The title must not be empty");
         }
 
-        TodoItem todoItem;
+        final TodoItem todoItem;
 
         try {
-
-            todoItem = TodoItem.create();
-
-            todoItem.setTitle(title);
-            todoItem.setBody(body);
-            todoItem.setDone(false);
-
-            todoItem.save();
-
-        } catch (JestException | UnknownHostException | MongoException e) {
+            todoItem = TodoItem.create(title, body);
+        } catch (UnknownHostException | MongoException e) {
 
             RestAPIExceptionHandler.handleExternalServiceException(e);
 
@@ -126,21 +412,43 @@ public class TodoResource {
 
         }
 
-        return todoItem.toJSONObject(true).toString();
+        // the JSON provider never writes the modification token, so the item is written here
+        return new StreamingOutput() {
+            @Override
+            public void write(final OutputStream outputStream) throws IOException {
+                try (JSONStreamWriter writer = JSONStreamWriter.open(outputStream)) {
+                    todoItem.writeJSON(writer, true);
+                }
+            }
+        };
 
     }
 
     /**
      * Subscribe to the done status changes of a to-do item
      *
-     * @param identifier  The ID of the item
-     * @param phoneNumber Your phone number
-     * @return A success message
+     * @param identifier    The ID of the item
+     * @param phoneNumber   Your phone number
+     * @param asyncResponse The suspended response, which is resumed with a success message
      */
     @GET
     @Path("/{id}/subscribe/{phone: ([+]|%2[bB])?[0-9]+}") // it starts with a +, a %2b (case-insensitive), or a number
     @Produces("text/json")
-    public String subscribeToChangesOfTodoItem(@PathParam("id") final String identifier, @PathParam("phone") final String phoneNumber) {
+    public void subscribeToChangesOfTodoItem(@PathParam("id") final String identifier, @PathParam("phone") final String phoneNumber, @Suspended final AsyncResponse asyncResponse) {
+
+        BackendExecutor.resume(asyncResponse, new Callable<String>() {
+            @Override
+            public String call() {
+                return addSubscriber(identifier, phoneNumber);
+            }
+        });
+
+    }
+
+    /**
+     * The part of subscribeToChangesOfTodoItem() that runs on the backend pool
+     */
+    private String addSubscriber(final String identifier, final String phoneNumber) {
 
         // let's check if the item exists
         TodoItem todoItem = null;
@@ -171,8 +479,10 @@ public class TodoResource {
                 todoItem.addSubscriber(normalizedPhoneNumber);
                 todoItem.save();
 
-            } catch (TwilioRestException | JestException | UnknownHostException | MongoException e) {
+            } catch (TwilioRestException | UnknownHostException | MongoException | BackendUnavailableException e) {
                 RestAPIExceptionHandler.handleExternalServiceException(e);
+            } catch (VersionConflictException e) {
+                RestAPIExceptionHandler.handleException(Response.Status.CONFLICT, e.getMessage());
             }
 
         }
@@ -192,12 +502,27 @@ public class TodoResource {
      * @param title             Its new title (null if it is to remain unchanged)
      * @param body              Its new body (null if it is to remain unchanged)
      * @param isDoneString      true, false, 1 or 0 (case-insensitive, null if it is to remain unchanged)
-     * @return JSON string representing the item in its new form
+     * @param ifMatch           The entity tag of the item the modifications are based on (null to modify it regardless)
+     * @param asyncResponse     The suspended response, which is resumed with a JSON string representing the item in its new form
      */
     @PUT
     @Path("/{id}")
     @Produces("application/json")
-    public String updateTodoItem(@PathParam("id") final String identifier, @FormParam("modification_token") final String modificationToken, @FormParam("title") final String title, @FormParam("body") final String body, @FormParam("done") final String isDoneString) {
+    public void updateTodoItem(@PathParam("id") final String identifier, @FormParam("modification_token") final String modificationToken, @FormParam("title") final String title, @FormParam("body") final String body, @FormParam("done") final String isDoneString, @HeaderParam(HttpHeaders.IF_MATCH) final String ifMatch, @Suspended final AsyncResponse asyncResponse) {
+
+        BackendExecutor.resume(asyncResponse, new Callable<Response>() {
+            @Override
+            public Response call() {
+                return modifyTodoItem(identifier, modificationToken, title, body, isDoneString, ifMatch);
+            }
+        });
+
+    }
+
+    /**
+     * The part of updateTodoItem() that runs on the backend pool
+     */
+    private Response modifyTodoItem(final String identifier, final String modificationToken, final String title, final String body, final String isDoneString, final String ifMatch) {
 
         final TodoItem todoItem;
 
@@ -211,10 +536,13 @@ public class TodoResource {
             }
 
             // alas, Jersey does not support HTTP Basic Authentication, which I would have used otherwise
-            if (!todoItem.getModificationToken().equals(modificationToken)) {
+            if (!todoItem.matchesModificationToken(modificationToken)) {
                 RestAPIExceptionHandler.handleException(Response.Status.UNAUTHORIZED, "Invalid modification token");
             }
 
+            // the save below only succeeds if the version is still the one of the tag
+            ConditionalRequests.checkIfMatch(ifMatch, buildEntityTag(todoItem));
+
             if (title != null && !title.isEmpty()) {
                 todoItem.setTitle(title);
             }
@@ -236,17 +564,22 @@ public class TodoResource {
             // after persistence is guaranteed, we notify the Twilio subscribers about the change
             notifySubscribers(todoItem, doneState);
 
-        } catch (UnknownHostException | JestException | MongoException e) {
+        } catch (UnknownHostException | MongoException e) {
 
             RestAPIExceptionHandler.handleExternalServiceException(e);
 
             // this will never be called because the handler throws an error
             return null;
 
+        } catch (VersionConflictException e) {
+
+            // the item has been modified since we read it, so our changes would have been based on stale data
+            RestAPIExceptionHandler.handleException(Response.Status.CONFLICT, e.getMessage());
+            return null;
+
         }
 
-        final JSONObject json = todoItem.toJSONObject(false);
-        return json.toString();
+        return Response.ok(todoItem).tag(buildEntityTag(todoItem)).build();
 
     }
 
@@ -255,12 +588,27 @@ public class TodoResource {
      *
      * @param identifier        The ID of the item
      * @param modificationToken The modification token necessary to modify or remove it
-     * @return A success message
+     * @param ifMatch           The entity tag of the item the client has seen (null to remove it regardless)
+     * @param asyncResponse     The suspended response, which is resumed with a success message
      */
     @DELETE
     @Path("/{id}")
     @Produces("application/json")
-    public Response removeTodoItem(@PathParam("id") final String identifier, @QueryParam("modification_token") final String modificationToken) {
+    public void removeTodoItem(@PathParam("id") final String identifier, @QueryParam("modification_token") final String modificationToken, @HeaderParam(HttpHeaders.IF_MATCH) final String ifMatch, @Suspended final AsyncResponse asyncResponse) {
+
+        BackendExecutor.resume(asyncResponse, new Callable<Response>() {
+            @Override
+            public Response call() {
+                return deleteTodoItem(identifier, modificationToken, ifMatch);
+            }
+        });
+
+    }
+
+    /**
+     * The part of removeTodoItem() that runs on the backend pool
+     */
+    private Response deleteTodoItem(final String identifier, final String modificationToken, final String ifMatch) {
 
         TodoItem todoItem = null;
         try {
@@ -274,21 +622,16 @@ public class TodoResource {
             RestAPIExceptionHandler.handleException(Response.Status.NOT_FOUND, "Invalid item ID");
         }
 
-        if (!todoItem.getModificationToken().equals(modificationToken)) {
+        if (!todoItem.matchesModificationToken(modificationToken)) {
             RestAPIExceptionHandler.handleException(Response.Status.UNAUTHORIZED, "Invalid modification token");
         }
 
+        ConditionalRequests.checkIfMatch(ifMatch, buildEntityTag(todoItem));
+
         try {
             todoItem.remove();
         } catch (UnknownHostException | MongoException e) {
             RestAPIExceptionHandler.handleExternalServiceException(e);
-        } catch (JestException e) {
-
-            // even if the index has failed to be removed, the item no longer exists
-
-            // stderr directs the output to Heroku's logger
-            e.printStackTrace();
-
         }
 
         return Response.status(Response.Status.NO_CONTENT).build();
@@ -298,108 +641,138 @@ public class TodoResource {
     /**
      * Search existing to-do items
      *
-     * @param queryString The query string (includes support for wildcards)
-     * @return JSON string representing the matches in decreasing order of relevance
+     * @param queryString   The query string (includes support for wildcards)
+     * @param presetName    The name of the query preset to use, e. g. fuzzy, prefix, or phrase (null for the default)
+     * @param asyncResponse The suspended response, which is resumed with a JSON string representing the matches by decreasing relevance
      */
     @GET
     @Path("/search/{query}")
     @Produces("application/json")
-    public String searchTodoItems(@PathParam("query") final String queryString) {
+    public void searchTodoItems(@PathParam("query") final String queryString, @QueryParam("preset") final String presetName, @Suspended final AsyncResponse asyncResponse) {
 
-        String elasticSearchQuery = null;
-
-        // this clause should always succeed. There are no external factors able to contribute to failure, so if it
-        // fails, it's due to erroneous configuration, and no specific messages should leave the server
-        try {
-            // this should never be zero
-            final URL queryPresetURL = SearchlyConnector.class.getClassLoader().getResource(QUERY_PRESET_PATH);
+        BackendExecutor.resume(asyncResponse, new Callable<Response>() {
+            @Override
+            public Response call() {
+                return findTodoItems(queryString, presetName);
+            }
+        });
 
-            final String queryPreset = new String(Files.readAllBytes(Paths.get(queryPresetURL.toURI())));
+    }
 
-            // we need to sanitize the input to be a properly formatted JSON string in order to prevent search injection
-            final String sanitizedQueryString = JSONObject.escape(queryString);
+    /**
+     * The part of searchTodoItems() that runs on the backend pool
+     */
+    private Response findTodoItems(final String queryString, final String presetName) {
 
-            elasticSearchQuery = StringUtils.replace(queryPreset, "{QUERY_STRING}", sanitizedQueryString);
+        final QueryTemplate queryTemplate = QUERY_TEMPLATES.getTemplate(presetName == null ? QueryTemplateRegistry.DEFAULT_PRESET : presetName);
 
-        } catch (IOException | URISyntaxException e) {
-            e.printStackTrace();
-            RestAPIExceptionHandler.handleException(Response.Status.INTERNAL_SERVER_ERROR, null);
+        if (queryTemplate == null) {
+            RestAPIExceptionHandler.handleException(Response.Status.BAD_REQUEST, "Unknown search preset, use one of " + QUERY_TEMPLATES.getPresetNames());
         }
 
-        final Search search = new Search.Builder(elasticSearchQuery).addIndex(TodoItem.JEST_INDEX).addType(TodoItem.JEST_TYPE).build();
-        final JestClient client = SearchlyConnector.getJestClient();
+        // the template escapes the input to be a properly formatted JSON string in order to prevent search injection
+        final String elasticSearchQuery = queryTemplate.render(Collections.singletonMap(QUERY_STRING_SLOT, queryString));
 
-        final SearchResult result;
+        final List<SearchHit> foundItems;
 
         try {
-            result = client.execute(search);
-        } catch (Exception e) {
+            foundItems = SearchBackendFactory.getSearchBackend().search(elasticSearchQuery);
+        } catch (SearchException e) {
 
-            RestAPIExceptionHandler.handleExternalServiceException(new JestException(e));
+            RestAPIExceptionHandler.handleExternalServiceException(e);
 
             // this will never be called because the handler throws an error
             return null;
 
         }
 
-        final JSONArray output = new JSONArray();
-        String errorMessage = result.getErrorMessage();
+        final List<TodoItem> output = new ArrayList<>();
+
+        final List<String> hitIdentifiers = new ArrayList<>(foundItems.size());
+        final List<TodoItem> hits = new ArrayList<>(foundItems.size());
+
+        for (SearchHit currentFind : foundItems) {
+
+            final String currentIdentifier = currentFind.getIdentifier();
 
-        // if there was an error message, i. e. a parse error, sent from Searchly, it's none of the user's business
-        // we just say nothing was found
-        if (errorMessage == null) {
+            hitIdentifiers.add(currentIdentifier);
 
-            final JSONObject foundItemDetails = (JSONObject) JSONValue.parse(result.getJsonString());
-            final JSONObject outerHits = (JSONObject) foundItemDetails.get("hits");
-            final JSONArray foundItems = (JSONArray) outerHits.get("hits");
+            if (SEARCH_RESULTS_FROM_INDEX) {
+                hits.add(TodoItem.fromElasticSearchSource(currentIdentifier, currentFind.getSource()));
+            } else {
+                hits.add(null);
+            }
+
+        }
 
+        // whatever could not be taken from the index is hydrated from MongoDB with a single query
+        final List<String> missingIdentifiers = new ArrayList<>();
+        for (int i = 0; i < hits.size(); i++) {
+            if (hits.get(i) == null) {
+                missingIdentifiers.add(hitIdentifiers.get(i));
+            }
+        }
 
-            for (Object currentFindObject : foundItems) {
+        final Map<String, TodoItem> hydratedItems = new HashMap<>();
 
-                JSONObject currentFind = (JSONObject) currentFindObject;
-                String currentIdentifier = (String) currentFind.get("_id");
+        if (!missingIdentifiers.isEmpty()) {
 
-                TodoItem currentItem = null;
-                try {
-                    currentItem = TodoItem.fetchTodoItemByID(currentIdentifier);
-                } catch (UnknownHostException | MongoException e) {
-                    RestAPIExceptionHandler.handleExternalServiceException(e);
+            try {
+                for (TodoItem currentItem : TodoItem.fetchTodoItemsByIDs(missingIdentifiers)) {
+                    hydratedItems.put(currentItem.getID(), currentItem);
                 }
+            } catch (UnknownHostException | MongoException e) {
+                RestAPIExceptionHandler.handleExternalServiceException(e);
+            }
+
+        }
 
-                // occasionally, an item will have been removed from MongoDB but an index removal error could have occurred thereafter
-                if (currentItem == null) { continue; }
+        // the hits are already in decreasing order of relevance
+        for (int i = 0; i < hits.size(); i++) {
 
-                output.add(currentItem.toJSONObject(false));
+            TodoItem currentItem = hits.get(i);
 
+            if (currentItem == null) {
+                currentItem = hydratedItems.get(hitIdentifiers.get(i));
             }
 
+            // occasionally, an item will have been removed from MongoDB but an index removal error could have occurred thereafter
+            if (currentItem == null) { continue; }
+
+            output.add(currentItem);
+
         }
 
-        return output.toString();
+        return Response.ok(new GenericEntity<List<TodoItem>>(output) {}).build();
+
+    }
 
+    /**
+     * Build the strong entity tag of an item, which changes whenever its title, body, or done state do
+     *
+     * @param todoItem The item
+     * @return The tag made up of the ID and the version of the item
+     */
+    private static EntityTag buildEntityTag(final TodoItem todoItem) {
+        return new EntityTag(todoItem.getID() + "-" + todoItem.getVersion());
     }
 
     /**
      * Notify subscribers about done status changes
+     * The messages are only queued here, so the request does not wait for Twilio
      *
      * @param todoItem  The to-do item whose subscribers are to be notified
      * @param doneState The done state indicating whether or not they should be notified at all
      */
-    private void notifySubscribers(final TodoItem todoItem, final TodoItemState.DoneState doneState) {
+    static void notifySubscribers(final TodoItem todoItem, final TodoItemState.DoneState doneState) {
 
         if (doneState.isModifier()) {
 
-            for (String phoneNumber : todoItem.getSubscribers()) {
-
-                try {
-                    TwilioConnector.sendSMS(phoneNumber, "\"" + todoItem.getTitle() + "\" task has been marked as " + doneState.getStateMessage() + ".");
-                } catch (TwilioRestException e) {
-
-                    // we suppress these errors from propagation
-                    e.printStackTrace();
-
-                }
+            final NotificationDispatcher dispatcher = NotificationDispatcher.getInstance();
+            final String message = "\"" + todoItem.getTitle() + "\" task has been marked as " + doneState.getStateMessage() + ".";
 
+            for (String phoneNumber : todoItem.getSubscribers()) {
+                dispatcher.dispatch(phoneNumber, message);
             }
 
         }
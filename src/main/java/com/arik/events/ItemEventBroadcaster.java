@@ -0,0 +1,375 @@
+package com.arik.events;
+
+import com.arik.Configuration;
+import com.arik.json.JSONStreamWriter;
+import com.arik.models.TodoItem;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams the creations, modifications, and removals of to-do items to the clients connected to the event endpoints
+ * Every connection has a bounded buffer, which publishing only ever appends to, so a write request never waits for a
+ * client. The buffers are written out by a small pool, and a connection whose buffer overflows is closed, since a client
+ * that cannot keep up would otherwise hold on to an ever growing backlog; it may reconnect and read the list again.
+ * Only the writes of this process are published.
+ */
+public class ItemEventBroadcaster {
+
+    public static final String CREATED_EVENT = "created";
+    public static final String UPDATED_EVENT = "updated";
+    public static final String REMOVED_EVENT = "removed";
+    public static final String HEARTBEAT_EVENT = "heartbeat";
+
+    private static ItemEventBroadcaster itemEventBroadcaster;
+
+    private final int writerThreadCount = Configuration.getInt("EVENTS_WRITER_THREADS", 8);
+    private final int bufferSize = Configuration.getInt("EVENTS_BUFFER_SIZE", 100);
+    private final int maximumConnections = Configuration.getInt("EVENTS_MAX_CONNECTIONS", 10000);
+    private final long heartbeatInterval = Configuration.getLong("EVENTS_HEARTBEAT_INTERVAL_MS", 15000);
+
+    /**
+     * The connections interested in every item
+     */
+    private final Set<Subscriber> allItemSubscribers = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+
+    /**
+     * The connections interested in a single item, by item ID
+     */
+    private final ConcurrentHashMap<String, Set<Subscriber>> itemSubscribers = new ConcurrentHashMap<>();
+
+    private final ExecutorService writers;
+    private final ScheduledExecutorService heartbeat;
+
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private ItemEventBroadcaster() {
+
+        final ThreadFactory threadFactory = new ThreadFactory() {
+
+            private int threadNumber = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+
+                final Thread thread = new Thread(runnable, "item-event-writer-" + this.threadNumber++);
+                thread.setDaemon(true);
+                return thread;
+
+            }
+
+        };
+
+        // every connection is queued at most once at a time, so the queue is bounded by the number of connections
+        this.writers = Executors.newFixedThreadPool(this.writerThreadCount, threadFactory);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+        // Heroku's router closes connections that have been idle for 55 seconds, and writing is how we notice that a
+        // client has gone away
+        this.heartbeat.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                ItemEventBroadcaster.this.sendHeartbeat();
+            }
+        }, this.heartbeatInterval, this.heartbeatInterval, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Get the singleton broadcaster
+     *
+     * @return The broadcaster instance
+     */
+    public static synchronized ItemEventBroadcaster getInstance() {
+
+        if (itemEventBroadcaster == null) {
+            itemEventBroadcaster = new ItemEventBroadcaster();
+        }
+
+        return itemEventBroadcaster;
+
+    }
+
+    /**
+     * Open a stream of events
+     *
+     * @param identifier The ID of the item to stream the events of (null for the events of all items)
+     * @return The stream to be returned by the resource, or null if there are too many connections already
+     */
+    public EventOutput subscribe(final String identifier) {
+
+        if (this.connectionCount.incrementAndGet() > this.maximumConnections) {
+            this.connectionCount.decrementAndGet();
+            return null;
+        }
+
+        final Subscriber subscriber = new Subscriber(identifier, new EventOutput(), this.bufferSize);
+
+        if (identifier == null) {
+            this.allItemSubscribers.add(subscriber);
+        } else {
+
+            synchronized (this.itemSubscribers) {
+
+                Set<Subscriber> subscribers = this.itemSubscribers.get(identifier);
+
+                if (subscribers == null) {
+                    subscribers = Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+                    this.itemSubscribers.put(identifier, subscribers);
+                }
+
+                subscribers.add(subscriber);
+
+            }
+
+        }
+
+        return subscriber.output;
+
+    }
+
+    /**
+     * Publish the creation or modification of an item
+     *
+     * @param eventName The name of the event, i. e. created or updated
+     * @param todoItem  The item as it is now
+     */
+    public void publish(final String eventName, final TodoItem todoItem) {
+
+        final Set<Subscriber> subscribers = this.itemSubscribers.get(todoItem.getID());
+
+        // the item is only serialized if somebody is listening
+        if (this.allItemSubscribers.isEmpty() && subscribers == null) {
+            return;
+        }
+
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+
+        try (JSONStreamWriter writer = JSONStreamWriter.open(json)) {
+            todoItem.writeJSON(writer, false);
+        } catch (IOException e) {
+
+            // writing to memory does not fail
+            throw new IllegalStateException(e);
+
+        }
+
+        this.broadcast(todoItem.getID(), buildEvent(eventName, todoItem.getID() + "-" + todoItem.getVersion(), new String(json.toByteArray(), StandardCharsets.UTF_8)));
+
+    }
+
+    /**
+     * Publish the removal of an item
+     *
+     * @param identifier The ID of the removed item
+     */
+    public void publishRemoval(final String identifier) {
+
+        if (this.allItemSubscribers.isEmpty() && this.itemSubscribers.get(identifier) == null) {
+            return;
+        }
+
+        final StringBuilder json = new StringBuilder("{\"id\":\"");
+        JSONStreamWriter.appendEscaped(json, identifier);
+        json.append("\"}");
+
+        this.broadcast(identifier, buildEvent(REMOVED_EVENT, identifier + "-removed", json.toString()));
+
+    }
+
+    public long getConnectionCount() {
+        return this.connectionCount.get();
+    }
+
+    public long getPublishedCount() {
+        return this.publishedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    private static OutboundEvent buildEvent(final String eventName, final String eventID, final String json) {
+        return new OutboundEvent.Builder().name(eventName).id(eventID).mediaType(MediaType.APPLICATION_JSON_TYPE).data(String.class, json).build();
+    }
+
+    private void broadcast(final String identifier, final OutboundEvent event) {
+
+        this.publishedCount.incrementAndGet();
+
+        for (Subscriber subscriber : this.allItemSubscribers) {
+            this.offer(subscriber, event);
+        }
+
+        final Set<Subscriber> subscribers = this.itemSubscribers.get(identifier);
+
+        if (subscribers != null) {
+            for (Subscriber subscriber : subscribers) {
+                this.offer(subscriber, event);
+            }
+        }
+
+    }
+
+    private void sendHeartbeat() {
+
+        // Jersey cannot write events without data, i. e. plain comments, and EventSource clients ignore named events
+        // they do not listen to
+        final OutboundEvent heartbeatEvent = new OutboundEvent.Builder().name(HEARTBEAT_EVENT).data(String.class, "{}").build();
+
+        for (Subscriber subscriber : this.allItemSubscribers) {
+            this.offer(subscriber, heartbeatEvent);
+        }
+
+        for (Set<Subscriber> subscribers : this.itemSubscribers.values()) {
+            for (Subscriber subscriber : subscribers) {
+                this.offer(subscriber, heartbeatEvent);
+            }
+        }
+
+    }
+
+    /**
+     * Append an event to the buffer of a connection and make sure that a writer takes care of it
+     */
+    private void offer(final Subscriber subscriber, final OutboundEvent event) {
+
+        if (subscriber.isDropped) {
+            return;
+        }
+
+        if (!subscriber.buffer.offer(event)) {
+
+            // the client cannot keep up, so the writer closes the connection instead of writing the backlog
+            subscriber.isDropped = true;
+            subscriber.buffer.clear();
+            this.droppedCount.incrementAndGet();
+
+        }
+
+        this.schedule(subscriber);
+
+    }
+
+    private void schedule(final Subscriber subscriber) {
+
+        if (subscriber.isScheduled.compareAndSet(false, true)) {
+            this.writers.execute(subscriber);
+        }
+
+    }
+
+    private void unsubscribe(final Subscriber subscriber) {
+
+        if (subscriber.identifier == null) {
+
+            if (this.allItemSubscribers.remove(subscriber)) {
+                this.connectionCount.decrementAndGet();
+            }
+
+            return;
+
+        }
+
+        synchronized (this.itemSubscribers) {
+
+            final Set<Subscriber> subscribers = this.itemSubscribers.get(subscriber.identifier);
+
+            if (subscribers != null && subscribers.remove(subscriber)) {
+
+                this.connectionCount.decrementAndGet();
+
+                if (subscribers.isEmpty()) {
+                    this.itemSubscribers.remove(subscriber.identifier);
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * A connection along with its buffer, which writes the buffered events whenever it is run by a writer
+     */
+    private class Subscriber implements Runnable {
+
+        private final String identifier;
+        private final EventOutput output;
+        private final ArrayBlockingQueue<OutboundEvent> buffer;
+
+        /**
+         * Whether the subscriber is queued for or being run by a writer
+         */
+        private final AtomicBoolean isScheduled = new AtomicBoolean();
+
+        private volatile boolean isDropped;
+
+        private Subscriber(final String identifier, final EventOutput output, final int bufferSize) {
+            this.identifier = identifier;
+            this.output = output;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        @Override
+        public void run() {
+
+            try {
+
+                OutboundEvent event;
+
+                while (!this.isDropped && (event = this.buffer.poll()) != null) {
+                    this.output.write(event);
+                }
+
+                if (this.isDropped) {
+                    this.close();
+                }
+
+            } catch (IOException | IllegalStateException e) {
+
+                // the client has gone away, or the container has closed the stream
+                this.close();
+
+            } finally {
+
+                this.isScheduled.set(false);
+
+                // an event may have been offered after the buffer was found empty, but before we were done
+                if (!this.buffer.isEmpty() && !this.output.isClosed()) {
+                    ItemEventBroadcaster.this.schedule(this);
+                }
+
+            }
+
+        }
+
+        private void close() {
+
+            ItemEventBroadcaster.this.unsubscribe(this);
+            this.buffer.clear();
+
+            try {
+                this.output.close();
+            } catch (IOException e) {
+
+                // the connection is gone either way
+
+            }
+
+        }
+
+    }
+
+}
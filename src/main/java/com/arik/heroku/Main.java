@@ -1,11 +1,23 @@
 package com.arik.heroku;
 
+import com.arik.Configuration;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlets.GzipFilter;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 
+import javax.servlet.DispatcherType;
+import java.util.EnumSet;
+
 /**
  * This class launches the web application in an embedded Jetty container. This is the entry point to your application. The Java
  * command that is used for launching should fire this main method.
+ * The thread pool, the connector, and the response compression are configured from the environment, such that they can
+ * be tuned to the size of the dyno.
  */
 public class Main {
 
@@ -17,7 +29,40 @@ public class Main {
             webPort = "8080";
         }
 
-        final Server server = new Server(Integer.valueOf(webPort));
+        final Server server = start(Integer.valueOf(webPort));
+        server.join();
+    }
+
+    /**
+     * Start the application in a new Jetty server, which is also what the load test does in-process
+     *
+     * @param port The port to listen on (0 for any free port)
+     * @return The running server, which has to be stopped by the caller
+     * @throws Exception Thrown if the server cannot be started, e. g. because the port is taken
+     */
+    public static Server start(final int port) throws Exception {
+
+        // the requests are handed to the backend pool right away, so Jetty's threads are only busy with I/O
+        final QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setName("jetty");
+        threadPool.setMaxThreads(Configuration.getInt("JETTY_MAX_THREADS", 200));
+        threadPool.setMinThreads(Configuration.getInt("JETTY_MIN_THREADS", 8));
+        threadPool.setIdleTimeout(Configuration.getInt("JETTY_THREAD_IDLE_TIMEOUT_MS", 60000));
+
+        final Server server = new Server(threadPool);
+
+        final HttpConfiguration httpConfiguration = new HttpConfiguration();
+        httpConfiguration.setSendServerVersion(false);
+        httpConfiguration.setOutputBufferSize(Configuration.getInt("JETTY_OUTPUT_BUFFER_SIZE", 32768));
+
+        // -1 lets Jetty derive the number of acceptors and selectors from the number of cores, and null keeps the
+        // server's thread pool, scheduler, and buffer pool
+        final ServerConnector connector = new ServerConnector(server, null, null, null, Configuration.getInt("JETTY_ACCEPTORS", -1), Configuration.getInt("JETTY_SELECTORS", -1), new HttpConnectionFactory(httpConfiguration));
+        connector.setPort(port);
+        connector.setIdleTimeout(Configuration.getLong("JETTY_IDLE_TIMEOUT_MS", 30000));
+        connector.setAcceptQueueSize(Configuration.getInt("JETTY_ACCEPT_QUEUE_SIZE", 0));
+        server.addConnector(connector);
+
         final WebAppContext root = new WebAppContext();
 
         root.setContextPath("/");
@@ -28,13 +73,32 @@ public class Main {
         // Read more here: http://wiki.eclipse.org/Jetty/Reference/Jetty_Classloading
         root.setParentLoaderPriority(true);
 
-        final String webappDirLocation = "src/main/webapp/";
+        // relative to the working directory, which is the project root both on Heroku and in the load test
+        final String webappDirLocation = Configuration.getString("WEBAPP_DIR", "src/main/webapp/");
         root.setDescriptor(webappDirLocation + "/WEB-INF/web.xml");
         root.setResourceBase(webappDirLocation);
 
+        if (Configuration.getBoolean("GZIP_ENABLED", true)) {
+
+            final FilterHolder gzipFilter = new FilterHolder(GzipFilter.class);
+
+            // small responses, e. g. single items, are not worth the CPU time
+            gzipFilter.setInitParameter("minGzipSize", Integer.toString(Configuration.getInt("GZIP_MIN_SIZE", 1024)));
+            gzipFilter.setInitParameter("mimeTypes", "application/json,text/json");
+            gzipFilter.setInitParameter("methods", "GET,POST");
+
+            // the responses are written once the backend pool resumes the suspended requests
+            gzipFilter.setAsyncSupported(true);
+
+            root.addFilter(gzipFilter, "/*", EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC));
+
+        }
+
         server.setHandler(root);
 
         server.start();
-        server.join();
+        return server;
+
     }
+
 }
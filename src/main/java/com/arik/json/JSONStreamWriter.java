@@ -0,0 +1,426 @@
+package com.arik.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON straight to an output stream, encoding it as UTF-8 into a buffer that is reused by every response written
+ * on the same thread
+ * Unlike JSONObject and JSONArray of json-simple, it neither builds a map per object nor the whole document as a string,
+ * so the garbage produced by a response does not depend on its size. Strings are escaped just like json-simple does.
+ */
+public class JSONStreamWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Objects and arrays nested any deeper than this are never written by the API
+     */
+    private static final int MAXIMUM_DEPTH = 32;
+
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<JSONStreamWriter> THREAD_WRITER = new ThreadLocal<JSONStreamWriter>() {
+        @Override
+        protected JSONStreamWriter initialValue() {
+            return new JSONStreamWriter();
+        }
+    };
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition;
+
+    /**
+     * Room for the digits of any long
+     */
+    private final byte[] digits = new byte[20];
+
+    /**
+     * Whether the object or array at each level has any elements yet, i. e. whether the next one needs a comma
+     */
+    private final boolean[] hasElements = new boolean[MAXIMUM_DEPTH + 1];
+    private int depth;
+
+    /**
+     * Whether a name has just been written, i. e. whether the next value belongs to it
+     */
+    private boolean isAfterName;
+
+    private OutputStream outputStream;
+
+    private JSONStreamWriter() {
+    }
+
+    /**
+     * Start writing JSON to a stream
+     * The writer must be closed once the document is complete, which flushes it without closing the stream itself.
+     *
+     * @param outputStream The stream to write to
+     * @return The writer of the current thread, or a new one if it is busy already
+     */
+    public static JSONStreamWriter open(final OutputStream outputStream) {
+
+        JSONStreamWriter writer = THREAD_WRITER.get();
+
+        if (writer.outputStream != null) {
+            writer = new JSONStreamWriter();
+        }
+
+        writer.outputStream = outputStream;
+        writer.bufferPosition = 0;
+        writer.depth = 0;
+        writer.hasElements[0] = false;
+        writer.isAfterName = false;
+
+        return writer;
+
+    }
+
+    public JSONStreamWriter beginObject() throws IOException {
+        return this.begin('{');
+    }
+
+    public JSONStreamWriter endObject() throws IOException {
+        return this.end('}');
+    }
+
+    public JSONStreamWriter beginArray() throws IOException {
+        return this.begin('[');
+    }
+
+    public JSONStreamWriter endArray() throws IOException {
+        return this.end(']');
+    }
+
+    /**
+     * Write the name of the next value of an object
+     *
+     * @param name The name
+     * @return This writer
+     * @throws IOException Thrown if the stream cannot be written to
+     */
+    public JSONStreamWriter name(final String name) throws IOException {
+
+        this.beforeValue();
+
+        this.writeString(name);
+        this.writeByte(':');
+
+        this.isAfterName = true;
+
+        return this;
+
+    }
+
+    public JSONStreamWriter value(final String value) throws IOException {
+
+        this.beforeValue();
+
+        if (value == null) {
+            this.writeBytes(NULL);
+        } else {
+            this.writeString(value);
+        }
+
+        return this;
+
+    }
+
+    public JSONStreamWriter value(final boolean value) throws IOException {
+
+        this.beforeValue();
+        this.writeBytes(value ? TRUE : FALSE);
+
+        return this;
+
+    }
+
+    public JSONStreamWriter value(final long value) throws IOException {
+
+        this.beforeValue();
+
+        // the one value whose negation does not fit into a long
+        if (value == Long.MIN_VALUE) {
+            this.writeASCII(Long.toString(value));
+            return this;
+        }
+
+        long remainder = Math.abs(value);
+        int digitCount = 0;
+
+        do {
+            this.digits[digitCount++] = (byte) ('0' + remainder % 10);
+            remainder /= 10;
+        } while (remainder > 0);
+
+        if (value < 0) {
+            this.writeByte('-');
+        }
+
+        while (digitCount > 0) {
+            this.writeByte(this.digits[--digitCount]);
+        }
+
+        return this;
+
+    }
+
+    public JSONStreamWriter value(final double value) throws IOException {
+
+        this.beforeValue();
+
+        // JSON knows neither NaN nor infinity, which json-simple writes as is
+        this.writeASCII(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+
+        return this;
+
+    }
+
+    public JSONStreamWriter nullValue() throws IOException {
+
+        this.beforeValue();
+        this.writeBytes(NULL);
+
+        return this;
+
+    }
+
+    /**
+     * Write out the buffered output and release the writer, without closing the underlying stream
+     *
+     * @throws IOException Thrown if the stream cannot be written to
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (this.outputStream == null) {
+            return;
+        }
+
+        try {
+            this.flushBuffer();
+            this.outputStream.flush();
+        } finally {
+            this.outputStream = null;
+        }
+
+    }
+
+    /**
+     * Escape a value the way JSONObject.escape() does, but without building an intermediate string
+     *
+     * @param output The builder to append to
+     * @param value  The value to escape (null appends nothing)
+     */
+    public static void appendEscaped(final StringBuilder output, final String value) {
+
+        if (value == null) {
+            return;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+
+            final char character = value.charAt(i);
+            final String escapeSequence = getEscapeSequence(character);
+
+            if (escapeSequence != null) {
+                output.append(escapeSequence);
+            } else if (isUnicodeEscaped(character)) {
+
+                output.append("\\u");
+                output.append((char) HEX_DIGITS[(character >> 12) & 0xF]);
+                output.append((char) HEX_DIGITS[(character >> 8) & 0xF]);
+                output.append((char) HEX_DIGITS[(character >> 4) & 0xF]);
+                output.append((char) HEX_DIGITS[character & 0xF]);
+
+            } else {
+                output.append(character);
+            }
+
+        }
+
+    }
+
+    private static String getEscapeSequence(final char character) {
+
+        switch (character) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '/':
+                return "\\/";
+            case '\b':
+                return "\\b";
+            case '\f':
+                return "\\f";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\t':
+                return "\\t";
+            default:
+                return null;
+        }
+
+    }
+
+    private static boolean isUnicodeEscaped(final char character) {
+        return character <= '\u001F' || (character >= '\u007F' && character <= '\u009F') || (character >= '\u2000' && character <= '\u20FF');
+    }
+
+    private JSONStreamWriter begin(final char bracket) throws IOException {
+
+        this.beforeValue();
+
+        if (this.depth == MAXIMUM_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply");
+        }
+
+        this.writeByte(bracket);
+
+        this.depth++;
+        this.hasElements[this.depth] = false;
+
+        return this;
+
+    }
+
+    private JSONStreamWriter end(final char bracket) throws IOException {
+
+        if (this.depth == 0) {
+            throw new IllegalStateException("There is no object or array to end");
+        }
+
+        this.writeByte(bracket);
+        this.depth--;
+
+        return this;
+
+    }
+
+    /**
+     * Separate the next value or name from the previous one, unless it is the value of a name
+     */
+    private void beforeValue() throws IOException {
+
+        if (this.isAfterName) {
+            this.isAfterName = false;
+            return;
+        }
+
+        if (this.hasElements[this.depth]) {
+            this.writeByte(',');
+        }
+
+        this.hasElements[this.depth] = true;
+
+    }
+
+    private void writeString(final String value) throws IOException {
+
+        this.writeByte('"');
+
+        for (int i = 0; i < value.length(); i++) {
+
+            final char character = value.charAt(i);
+
+            if (character < 0x80) {
+
+                final String escapeSequence = getEscapeSequence(character);
+
+                if (escapeSequence != null) {
+                    this.writeASCII(escapeSequence);
+                } else if (isUnicodeEscaped(character)) {
+                    this.writeUnicodeEscape(character);
+                } else {
+                    this.writeByte(character);
+                }
+
+            } else if (isUnicodeEscaped(character)) {
+                this.writeUnicodeEscape(character);
+            } else if (character < 0x800) {
+
+                this.writeByte(0xC0 | (character >> 6));
+                this.writeByte(0x80 | (character & 0x3F));
+
+            } else if (Character.isHighSurrogate(character) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+
+                final int codePoint = Character.toCodePoint(character, value.charAt(++i));
+
+                this.writeByte(0xF0 | (codePoint >> 18));
+                this.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                this.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                this.writeByte(0x80 | (codePoint & 0x3F));
+
+            } else if (Character.isSurrogate(character)) {
+
+                // an unpaired surrogate cannot be encoded, which is what String.getBytes() does as well
+                this.writeByte('?');
+
+            } else {
+
+                this.writeByte(0xE0 | (character >> 12));
+                this.writeByte(0x80 | ((character >> 6) & 0x3F));
+                this.writeByte(0x80 | (character & 0x3F));
+
+            }
+
+        }
+
+        this.writeByte('"');
+
+    }
+
+    private void writeUnicodeEscape(final char character) throws IOException {
+
+        this.writeByte('\\');
+        this.writeByte('u');
+        this.writeByte(HEX_DIGITS[(character >> 12) & 0xF]);
+        this.writeByte(HEX_DIGITS[(character >> 8) & 0xF]);
+        this.writeByte(HEX_DIGITS[(character >> 4) & 0xF]);
+        this.writeByte(HEX_DIGITS[character & 0xF]);
+
+    }
+
+    private void writeASCII(final String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            this.writeByte(value.charAt(i));
+        }
+    }
+
+    private void writeBytes(final byte[] bytes) throws IOException {
+        for (byte currentByte : bytes) {
+            this.writeByte(currentByte);
+        }
+    }
+
+    private void writeByte(final int value) throws IOException {
+
+        if (this.bufferPosition == BUFFER_SIZE) {
+            this.flushBuffer();
+        }
+
+        this.buffer[this.bufferPosition++] = (byte) value;
+
+    }
+
+    private void flushBuffer() throws IOException {
+
+        if (this.outputStream == null) {
+            throw new IllegalStateException("The writer has been closed");
+        }
+
+        this.outputStream.write(this.buffer, 0, this.bufferPosition);
+        this.bufferPosition = 0;
+
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.arik.json;
+
+import com.arik.models.TodoItem;
+import com.arik.models.TodoItemCursor;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * Writes to-do items, collections of them, and cursors over them as JSON straight to the response
+ * Collections must be returned wrapped in a GenericEntity, since their element type is lost otherwise. The modification
+ * token is never written, so responses that have to include it write the item themselves.
+ */
+@Provider
+@Produces("application/json")
+public class TodoItemJSONProvider implements MessageBodyWriter<Object> {
+
+    @Override
+    public boolean isWriteable(final Class<?> type, final Type genericType, final Annotation[] annotations, final MediaType mediaType) {
+
+        if (TodoItem.class.isAssignableFrom(type) || TodoItemCursor.class.isAssignableFrom(type)) {
+            return true;
+        }
+
+        if (!Iterable.class.isAssignableFrom(type) || !(genericType instanceof ParameterizedType)) {
+            return false;
+        }
+
+        final Type[] typeArguments = ((ParameterizedType) genericType).getActualTypeArguments();
+        return typeArguments.length == 1 && typeArguments[0] instanceof Class && TodoItem.class.isAssignableFrom((Class<?>) typeArguments[0]);
+
+    }
+
+    @Override
+    public long getSize(final Object entity, final Class<?> type, final Type genericType, final Annotation[] annotations, final MediaType mediaType) {
+
+        // deprecated in JAX-RS 2.0, the length is determined by the container
+        return -1;
+
+    }
+
+    @Override
+    public void writeTo(final Object entity, final Class<?> type, final Type genericType, final Annotation[] annotations, final MediaType mediaType, final MultivaluedMap<String, Object> httpHeaders, final OutputStream entityStream) throws IOException {
+
+        try (JSONStreamWriter writer = JSONStreamWriter.open(entityStream)) {
+
+            if (entity instanceof TodoItem) {
+                ((TodoItem) entity).writeJSON(writer, false);
+            } else if (entity instanceof TodoItemCursor) {
+
+                // the items are written as they are read, so only the current one is held in memory
+                try (TodoItemCursor cursor = (TodoItemCursor) entity) {
+
+                    writer.beginArray();
+                    while (cursor.hasNext()) {
+                        cursor.next().writeJSON(writer, false);
+                    }
+                    writer.endArray();
+
+                }
+
+            } else {
+
+                writer.beginArray();
+                for (Object todoItem : (Iterable<?>) entity) {
+                    ((TodoItem) todoItem).writeJSON(writer, false);
+                }
+                writer.endArray();
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,10 @@
+package com.arik.metrics;
+
+/**
+ * A value that is read whenever the metrics are scraped, e. g. a queue depth or a counter kept by a component itself
+ */
+public interface Gauge {
+
+    double getValue();
+
+}
@@ -0,0 +1,126 @@
+package com.arik.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in microseconds, with buckets laid out like HdrHistogram's
+ * Values below 32 have a bucket each. Above that, every power of two is split into 32 equally wide buckets, so a bucket
+ * is never wider than about 3 % of its values, and recording a value is a couple of shifts and an atomic increment.
+ * The histogram covers about 25 days, and larger values are counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest power of two is split into buckets starting at 2^40 microseconds, so the largest value that still falls
+     * into its own bucket is just below 2^41
+     */
+    private static final int MAXIMUM_EXPONENT = 40 - SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAXIMUM_EXPONENT + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicroseconds = new AtomicLong();
+
+    /**
+     * Record a latency
+     *
+     * @param nanoseconds The latency in nanoseconds, as measured with System.nanoTime()
+     */
+    public void record(final long nanoseconds) {
+
+        final long microseconds = Math.max(0, nanoseconds / 1000);
+
+        this.counts.incrementAndGet(getBucketIndex(microseconds));
+        this.totalCount.incrementAndGet();
+        this.totalMicroseconds.addAndGet(microseconds);
+
+    }
+
+    public long getCount() {
+        return this.totalCount.get();
+    }
+
+    public long getTotalMicroseconds() {
+        return this.totalMicroseconds.get();
+    }
+
+    /**
+     * Get a percentile of the recorded latencies
+     *
+     * @param quantile The quantile, e. g. 0.99
+     * @return The latency in microseconds below which the given share of the latencies lies, or 0 if nothing has been
+     * recorded
+     */
+    public long getValueAtQuantile(final double quantile) {
+
+        // the buckets are read one by one while values are being recorded, so the total is taken from them as well
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += this.counts.get(i);
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seenCount = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+
+            seenCount += this.counts.get(i);
+
+            if (seenCount >= rank) {
+                return (getLowestValue(i) + getHighestValue(i)) / 2;
+            }
+
+        }
+
+        return getHighestValue(BUCKET_COUNT - 1);
+
+    }
+
+    static int getBucketIndex(final long value) {
+
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        // the position of the highest bit decides the power of two, the next SUB_BUCKET_BITS bits the bucket within it
+        final int exponent = Math.min(MAXIMUM_EXPONENT, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        final long mantissa = Math.min(2 * SUB_BUCKET_COUNT - 1, value >> exponent);
+
+        return SUB_BUCKET_COUNT + exponent * SUB_BUCKET_COUNT + (int) (mantissa - SUB_BUCKET_COUNT);
+
+    }
+
+    static long getLowestValue(final int bucketIndex) {
+
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+
+        final int exponent = (bucketIndex - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        final long mantissa = (bucketIndex - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+
+        return mantissa << exponent;
+
+    }
+
+    static long getHighestValue(final int bucketIndex) {
+
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+
+        final int exponent = (bucketIndex - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        return getLowestValue(bucketIndex) + (1L << exponent) - 1;
+
+    }
+
+}
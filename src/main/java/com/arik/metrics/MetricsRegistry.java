@@ -0,0 +1,243 @@
+package com.arik.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the latency histograms and gauges of the application and renders them in Prometheus' text format
+ * A metric is identified by its name and a label set such as backend="mongodb",operation="insert". The label sets are
+ * built by the callers from a few constant values, so the number of histograms stays small.
+ */
+public class MetricsRegistry {
+
+    public static final String REQUEST_DURATION_METRIC = "todo_api_request_duration_seconds";
+    public static final String BACKEND_CALL_DURATION_METRIC = "todo_api_backend_call_duration_seconds";
+
+    public static final String MONGODB_BACKEND = "mongodb";
+    public static final String SEARCH_BACKEND = "search";
+    public static final String TWILIO_BACKEND = "twilio";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static MetricsRegistry metricsRegistry;
+
+    /**
+     * The histograms by metric name and label set, sorted such that the output is stable from scrape to scrape
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms = new ConcurrentSkipListMap<>();
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Gauge>> gauges = new ConcurrentSkipListMap<>();
+
+    private final Map<String, String> helpTexts = new ConcurrentHashMap<>();
+    private final Map<String, String> types = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+
+        this.describe(REQUEST_DURATION_METRIC, "summary", "Time spent on the requests, excluding the writing of the response body");
+        this.describe(BACKEND_CALL_DURATION_METRIC, "summary", "Time spent waiting for MongoDB, the search backend, and Twilio");
+
+    }
+
+    /**
+     * Get the singleton registry
+     *
+     * @return The registry instance
+     */
+    public static synchronized MetricsRegistry getInstance() {
+
+        if (metricsRegistry == null) {
+            metricsRegistry = new MetricsRegistry();
+        }
+
+        return metricsRegistry;
+
+    }
+
+    /**
+     * Start timing a call to an external service
+     * The timing is meant for a try-with-resources block, and is recorded when the block is left, even by an exception.
+     *
+     * @param backend   The service, e. g. MONGODB_BACKEND
+     * @param operation The kind of call, e. g. insert
+     * @return The running timing
+     */
+    public Timing timeBackendCall(final String backend, final String operation) {
+        return new Timing(this.getBackendCallHistogram(backend, operation));
+    }
+
+    /**
+     * Record the duration of a call to an external service that has been measured by the caller, e. g. the time spent
+     * fetching the batches of a cursor, which is spread over its iteration
+     *
+     * @param backend     The service, e. g. MONGODB_BACKEND
+     * @param operation   The kind of call, e. g. list
+     * @param nanoseconds The duration as measured with System.nanoTime()
+     */
+    public void recordBackendCall(final String backend, final String operation, final long nanoseconds) {
+        this.getBackendCallHistogram(backend, operation).record(nanoseconds);
+    }
+
+    /**
+     * Record the duration of a request
+     *
+     * @param endpoint    The name of the resource method, e. g. TodoResource.getTodoItem
+     * @param httpMethod  The HTTP method
+     * @param status      The status code of the response
+     * @param nanoseconds The duration as measured with System.nanoTime()
+     */
+    public void recordRequest(final String endpoint, final String httpMethod, final int status, final long nanoseconds) {
+        this.getHistogram(REQUEST_DURATION_METRIC, "endpoint=\"" + endpoint + "\",method=\"" + httpMethod + "\",status=\"" + status + "\"").record(nanoseconds);
+    }
+
+    /**
+     * Register a value that is read on every scrape, replacing the gauge previously registered under the same name and
+     * labels
+     *
+     * @param name     The metric name, which should end in _total for counters
+     * @param type     The Prometheus type, i. e. gauge or counter
+     * @param helpText The description shown by Prometheus
+     * @param labels   The label set, e. g. backend="mongodb", or an empty string
+     * @param gauge    The source of the value
+     */
+    public void registerGauge(final String name, final String type, final String helpText, final String labels, final Gauge gauge) {
+
+        this.describe(name, type, helpText);
+
+        ConcurrentMap<String, Gauge> gaugesByLabels = this.gauges.get(name);
+
+        if (gaugesByLabels == null) {
+            this.gauges.putIfAbsent(name, new ConcurrentSkipListMap<String, Gauge>());
+            gaugesByLabels = this.gauges.get(name);
+        }
+
+        gaugesByLabels.put(labels, gauge);
+
+    }
+
+    /**
+     * Write every metric in Prometheus' text exposition format, version 0.0.4
+     * The histograms are written as summaries over the lifetime of the process, with the quantiles estimated from the
+     * buckets.
+     *
+     * @param writer The destination
+     * @throws IOException If the destination cannot be written to
+     */
+    public void writePrometheusText(final Writer writer) throws IOException {
+
+        for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> metric : this.histograms.entrySet()) {
+
+            final String name = metric.getKey();
+            this.writeHeader(writer, name);
+
+            for (Map.Entry<String, LatencyHistogram> series : metric.getValue().entrySet()) {
+
+                final String labels = series.getKey();
+                final LatencyHistogram histogram = series.getValue();
+
+                // the count is read first, such that the quantiles never cover fewer values than it claims
+                final long count = histogram.getCount();
+                final long totalMicroseconds = histogram.getTotalMicroseconds();
+
+                for (double quantile : QUANTILES) {
+                    writer.write(name + "{" + labels + ",quantile=\"" + quantile + "\"} " + formatSeconds(histogram.getValueAtQuantile(quantile)) + "\n");
+                }
+
+                writer.write(name + "_sum{" + labels + "} " + formatSeconds(totalMicroseconds) + "\n");
+                writer.write(name + "_count{" + labels + "} " + count + "\n");
+
+            }
+
+        }
+
+        for (Map.Entry<String, ConcurrentMap<String, Gauge>> metric : this.gauges.entrySet()) {
+
+            final String name = metric.getKey();
+            this.writeHeader(writer, name);
+
+            for (Map.Entry<String, Gauge> series : metric.getValue().entrySet()) {
+
+                final String labels = series.getKey().isEmpty() ? "" : "{" + series.getKey() + "}";
+                writer.write(name + labels + " " + formatValue(series.getValue().getValue()) + "\n");
+
+            }
+
+        }
+
+    }
+
+    private LatencyHistogram getBackendCallHistogram(final String backend, final String operation) {
+        return this.getHistogram(BACKEND_CALL_DURATION_METRIC, "backend=\"" + backend + "\",operation=\"" + operation + "\"");
+    }
+
+    private LatencyHistogram getHistogram(final String name, final String labels) {
+
+        ConcurrentMap<String, LatencyHistogram> histogramsByLabels = this.histograms.get(name);
+
+        if (histogramsByLabels == null) {
+            this.histograms.putIfAbsent(name, new ConcurrentSkipListMap<String, LatencyHistogram>());
+            histogramsByLabels = this.histograms.get(name);
+        }
+
+        LatencyHistogram histogram = histogramsByLabels.get(labels);
+
+        if (histogram == null) {
+
+            // two threads may create the first histogram of a series at the same time, and only one of them is kept
+            histogramsByLabels.putIfAbsent(labels, new LatencyHistogram());
+            histogram = histogramsByLabels.get(labels);
+
+        }
+
+        return histogram;
+
+    }
+
+    private void describe(final String name, final String type, final String helpText) {
+        this.types.put(name, type);
+        this.helpTexts.put(name, helpText);
+    }
+
+    private void writeHeader(final Writer writer, final String name) throws IOException {
+        writer.write("# HELP " + name + " " + this.helpTexts.get(name) + "\n");
+        writer.write("# TYPE " + name + " " + this.types.get(name) + "\n");
+    }
+
+    private static String formatSeconds(final long microseconds) {
+        return String.format(Locale.ROOT, "%.6f", microseconds / 1e6);
+    }
+
+    private static String formatValue(final double value) {
+
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+
+        return String.format(Locale.ROOT, "%f", value);
+
+    }
+
+    /**
+     * A running measurement, which records its duration when it is closed
+     */
+    public static class Timing implements AutoCloseable {
+
+        private final LatencyHistogram histogram;
+        private final long startTime = System.nanoTime();
+
+        private Timing(final LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public void close() {
+            this.histogram.record(System.nanoTime() - this.startTime);
+        }
+
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.arik.metrics;
+
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Measures every request from the moment it reaches Jersey, i. e. before it is matched to a resource method, until the
+ * response headers are ready
+ * The body is written after the response filters have run, so streamed lists and event streams are not measured for as
+ * long as the client takes to read them. Requests that do not match a resource method are counted as unmatched.
+ */
+@Provider
+@PreMatching
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final String START_TIME_PROPERTY = RequestMetricsFilter.class.getName() + ".startTime";
+    private static final String UNMATCHED_ENDPOINT = "unmatched";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(final ContainerRequestContext requestContext) throws IOException {
+        requestContext.setProperty(START_TIME_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(final ContainerRequestContext requestContext, final ContainerResponseContext responseContext) throws IOException {
+
+        final Object startTime = requestContext.getProperty(START_TIME_PROPERTY);
+
+        // the request filter is skipped if an earlier pre-matching filter aborts the request
+        if (!(startTime instanceof Long)) {
+            return;
+        }
+
+        final Method resourceMethod = this.resourceInfo.getResourceMethod();
+        final String endpoint = resourceMethod == null ? UNMATCHED_ENDPOINT : resourceMethod.getDeclaringClass().getSimpleName() + "." + resourceMethod.getName();
+
+        MetricsRegistry.getInstance().recordRequest(endpoint, requestContext.getMethod(), responseContext.getStatus(), System.nanoTime() - (Long) startTime);
+
+    }
+
+}
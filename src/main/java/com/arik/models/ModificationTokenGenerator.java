@@ -0,0 +1,157 @@
+package com.arik.models;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Generates and checks the modification tokens of the to-do items
+ * Every thread has its own generator and buffer of random bytes, so creating items concurrently does not contend for a
+ * single SecureRandom. The generators are seeded from the platform's non-blocking source once per thread, and never
+ * wait for entropy afterwards. A token is 128 random bits written as 26 characters of base 32 (0-9 and a-v), which is
+ * what BigInteger.toString(32) produced for the tokens issued before, only padded with zeros to a fixed length.
+ */
+public class ModificationTokenGenerator {
+
+    private static final int TOKEN_LENGTH = 26;
+    private static final int TOKEN_BYTES = 16;
+
+    /**
+     * The number of tokens the random bytes of a single refill suffice for
+     */
+    private static final int TOKENS_PER_REFILL = 64;
+
+    private static final char[] ALPHABET = "0123456789abcdefghijklmnopqrstuv".toCharArray();
+
+    /**
+     * Only used for seeding the generators of the threads, which does not block on Linux, unlike generateSeed()
+     */
+    private static final SecureRandom SEED_SOURCE = new SecureRandom();
+
+    private static final ThreadLocal<ThreadState> THREAD_STATE = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+
+    /**
+     * Generate a new modification token
+     *
+     * @return A random token of 26 characters
+     */
+    public static String generate() {
+
+        final ThreadState state = THREAD_STATE.get();
+
+        if (state.position == state.randomBytes.length) {
+            state.random.nextBytes(state.randomBytes);
+            state.position = 0;
+        }
+
+        encode(state.randomBytes, state.position, state.characters);
+        state.position += TOKEN_BYTES;
+
+        return new String(state.characters);
+
+    }
+
+    /**
+     * Write 16 bytes as a token, i. e. as a big-endian number in base 32
+     *
+     * @param bytes      The bytes to encode
+     * @param offset     The offset of the first byte
+     * @param characters The 26 characters to write the token to
+     */
+    static void encode(final byte[] bytes, final int offset, final char[] characters) {
+
+        long high = readLong(bytes, offset);
+        long low = readLong(bytes, offset + 8);
+
+        // shift the 128 bits out five at a time, starting with the last character
+        for (int i = TOKEN_LENGTH - 1; i >= 0; i--) {
+            characters[i] = ALPHABET[(int) (low & 31)];
+            low = (low >>> 5) | (high << 59);
+            high >>>= 5;
+        }
+
+    }
+
+    /**
+     * Check a token sent by a client in constant time, such that the response time does not reveal how many of the
+     * leading characters are right
+     *
+     * @param expected  The token of the item
+     * @param candidate The token sent by the client (null if there is none)
+     * @return True if the tokens are equal
+     */
+    public static boolean matches(final String expected, final String candidate) {
+
+        // the length of a token is no secret
+        if (expected == null || candidate == null || expected.length() != candidate.length()) {
+            return false;
+        }
+
+        int difference = 0;
+
+        for (int i = 0; i < expected.length(); i++) {
+            difference |= expected.charAt(i) ^ candidate.charAt(i);
+        }
+
+        return difference == 0;
+
+    }
+
+    private static long readLong(final byte[] bytes, final int offset) {
+
+        long value = 0;
+
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+
+        return value;
+
+    }
+
+    /**
+     * The generator, the buffered random bytes, and the scratch space of a thread
+     */
+    private static class ThreadState {
+
+        private final SecureRandom random;
+        private final byte[] randomBytes = new byte[TOKEN_BYTES * TOKENS_PER_REFILL];
+        private final char[] characters = new char[TOKEN_LENGTH];
+
+        /**
+         * The offset of the next unused random byte, which starts out at the end, such that the first token fills the buffer
+         */
+        private int position = this.randomBytes.length;
+
+        private ThreadState() {
+
+            final byte[] seed = new byte[32];
+
+            synchronized (SEED_SOURCE) {
+                SEED_SOURCE.nextBytes(seed);
+            }
+
+            SecureRandom threadRandom;
+
+            try {
+                threadRandom = SecureRandom.getInstance("SHA1PRNG");
+            } catch (NoSuchAlgorithmException e) {
+
+                // every Java platform ships SHA1PRNG, but the default generator is just as good, if slower
+                threadRandom = new SecureRandom();
+
+            }
+
+            // seeding before the first use keeps SHA1PRNG from seeding itself from the blocking source
+            threadRandom.setSeed(seed);
+            this.random = threadRandom;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.arik.models;
+
+import com.arik.Configuration;
+import com.arik.persistence.PersistentStorage;
+import com.arik.resilience.Backend;
+import com.arik.resilience.BackendCall;
+import com.arik.resilience.BackendUnavailableException;
+import com.mongodb.*;
+
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps track of a version of the whole to-do item collection, which changes whenever an item is created, modified, or
+ * removed, such that clients can tell whether the list has changed without reading it
+ * The version is stored in a single document, which is updated along with every write. Reads are answered from memory
+ * for a short time, since the version of another node's write only has to become visible eventually. The same document
+ * holds the counters of the collection statistics.
+ */
+public class TodoCollectionMetadata {
+
+    private static final String DB_TABLE = "todo-items-meta";
+
+    /**
+     * The ID of the metadata document of the to-do item collection
+     */
+    static final String DOCUMENT_ID = "todo-items";
+
+    private static TodoCollectionMetadata todoCollectionMetadata;
+
+    private final long timeToLive = Configuration.getLong("TODO_COLLECTION_VERSION_TTL_MS", 1000);
+
+    /**
+     * The last version that has been read or written, along with the time until which it may be used without asking
+     * MongoDB again
+     */
+    private volatile CachedVersion cachedVersion;
+
+    /**
+     * Whether an increment has failed, and is to be made up for by the next read of the version from MongoDB
+     */
+    private final AtomicBoolean isIncrementPending = new AtomicBoolean();
+
+    private TodoCollectionMetadata() {
+    }
+
+    /**
+     * Get the singleton metadata
+     *
+     * @return The metadata instance
+     */
+    public static synchronized TodoCollectionMetadata getInstance() {
+
+        if (todoCollectionMetadata == null) {
+            todoCollectionMetadata = new TodoCollectionMetadata();
+        }
+
+        return todoCollectionMetadata;
+
+    }
+
+    /**
+     * Get the current version of the collection
+     *
+     * @return The version, which is 0 until the first write
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public long getVersion() throws UnknownHostException {
+
+        final CachedVersion currentVersion = this.cachedVersion;
+
+        if (currentVersion != null && currentVersion.expiresAt > System.currentTimeMillis()) {
+            return currentVersion.version;
+        }
+
+        if (this.isIncrementPending.getAndSet(false)) {
+
+            boolean isIncremented = false;
+
+            try {
+                final long version = this.increment(new BasicDBObject());
+                isIncremented = true;
+                return version;
+            } finally {
+
+                if (!isIncremented) {
+                    this.isIncrementPending.set(true);
+                }
+
+            }
+
+        }
+
+        final DBObject document;
+
+        try (BackendCall call = Backend.MONGODB.call("find_version")) {
+            document = getTable().findOne(new BasicDBObject("_id", DOCUMENT_ID), new BasicDBObject("version", 1));
+            call.succeeded();
+        }
+
+        final Number version = document == null ? null : (Number) document.get("version");
+
+        return this.remember(version == null ? 0 : version.longValue());
+
+    }
+
+    /**
+     * Take note of a write to the collection
+     * The write itself has succeeded by the time this is called, so a failure must not fail the request. The version is
+     * then incremented by the next read of it from MongoDB, i. e. once the cached version has expired, and the statistics
+     * are corrected by the next reconciliation.
+     *
+     * @param change The changes of the statistics caused by the write
+     */
+    void incrementVersion(final TodoStatisticsChange change) {
+
+        try {
+            this.increment(change.buildIncrement());
+        } catch (UnknownHostException | MongoException | BackendUnavailableException e) {
+
+            e.printStackTrace();
+            this.isIncrementPending.set(true);
+
+        }
+
+    }
+
+    /**
+     * Increment the version along with the statistics
+     *
+     * @param statisticsIncrement The increments of the statistics, which are kept up to date by the same write, so they
+     *                            cost no additional round trip
+     * @return The new version
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    private long increment(final BasicDBObject statisticsIncrement) throws UnknownHostException {
+
+        final BasicDBObject query = new BasicDBObject("_id", DOCUMENT_ID);
+        final BasicDBObject update = new BasicDBObject("$inc", statisticsIncrement.append("version", 1L));
+
+        final DBObject document;
+
+        try (BackendCall call = Backend.MONGODB.call("increment_version")) {
+            document = getTable().findAndModify(query, new BasicDBObject("version", 1), null, false, update, true, true);
+            call.succeeded();
+        }
+
+        return this.remember(((Number) document.get("version")).longValue());
+
+    }
+
+    private synchronized long remember(final long version) {
+
+        final CachedVersion currentVersion = this.cachedVersion;
+
+        // the version only ever grows, so a read that raced with a write must not take us back
+        final long latestVersion = currentVersion == null ? version : Math.max(version, currentVersion.version);
+
+        this.cachedVersion = new CachedVersion(latestVersion, System.currentTimeMillis() + this.timeToLive);
+        return latestVersion;
+
+    }
+
+    static DBCollection getTable() throws UnknownHostException {
+
+        final DB database = PersistentStorage.getDatabaseConnection();
+        return database.getCollection(DB_TABLE);
+
+    }
+
+    private static class CachedVersion {
+
+        private final long version;
+        private final long expiresAt;
+
+        private CachedVersion(final long version, final long expiresAt) {
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
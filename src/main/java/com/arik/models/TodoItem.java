@@ -1,21 +1,18 @@
 package com.arik.models;
 
+import com.arik.events.ItemEventBroadcaster;
+import com.arik.json.JSONStreamWriter;
 import com.arik.persistence.PersistentStorage;
-import com.arik.search.JestException;
-import com.arik.search.SearchlyConnector;
+import com.arik.resilience.Backend;
+import com.arik.resilience.BackendCall;
+import com.arik.search.SearchIndexer;
 import com.mongodb.*;
 import io.searchbox.annotations.JestId;
-import io.searchbox.client.JestClient;
-import io.searchbox.core.Delete;
-import io.searchbox.core.Index;
 import org.bson.types.ObjectId;
-import org.json.simple.JSONObject;
 
+import java.io.IOException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * Model of a to-do item
@@ -38,6 +35,11 @@ public class TodoItem {
 
     private boolean isDone;
 
+    /**
+     * The done state as it has been read or last saved, which the statistics are changed from
+     */
+    private boolean isDoneAsStored;
+
     /**
      * A list of phone numbers to be notified whenever a change occurs
      * I would have preferred to use a Set, but since MongoDB returns a BasicDBList, which is incompatible with
@@ -52,18 +54,51 @@ public class TodoItem {
      */
     private String modificationToken;
 
+    /**
+     * Incremented with every modification of the title, body, or done state, such that concurrent modifications can be
+     * detected without locking (items that predate versioning are at version 0)
+     */
+    private long version;
+
     /**
      * A MongoDB object row that always reflects the properties of the class for more convenient DB update operations
      */
     private DBObject row;
 
+    /**
+     * The row fields that have been modified since the item was loaded or saved, which are all that save() writes
+     */
+    private final Set<String> modifiedFields = new LinkedHashSet<>();
+
+    /**
+     * The subscribers that have been added since the item was loaded or saved
+     */
+    private final List<String> addedSubscribers = new ArrayList<>();
+
+    /**
+     * The fields written by writeJSON(), which are the ones that have been read if the row was read with a projection
+     * (null for every field)
+     */
+    private final Set<String> fields;
+
     /**
      * In order to avoid confusion, we do not allow external calls to the empty constructor such that objects
      * are always created using the create()-method an automatically added to the DB
+     * The constructor is package-private so that cursors can build items straight from the rows they read
      *
      * @param row The MongoDB row to initialize the data from
      */
-    private TodoItem(final DBObject row) {
+    TodoItem(final DBObject row) {
+        this(row, null);
+    }
+
+    /**
+     * Build an item from a row that may have been read with a projection, in which case it must not be saved
+     *
+     * @param row    The MongoDB row to initialize the data from
+     * @param fields The fields of the JSON representation the row has been read for (null for every field)
+     */
+    TodoItem(final DBObject row, final Set<String> fields) {
 
         final ObjectId identifier = (ObjectId) row.get("_id");
 
@@ -72,7 +107,9 @@ public class TodoItem {
         this.identifier = identifier.toString();
         this.title = (String) row.get("title");
         this.body = (String) row.get("body");
-        this.isDone = (Boolean) row.get("is_done");
+        this.isDone = Boolean.TRUE.equals(row.get("is_done"));
+        this.isDoneAsStored = this.isDone;
+        this.fields = fields;
 
         this.subscribers = (List<String>) row.get("subscribers");
         if (this.subscribers == null) {
@@ -81,43 +118,36 @@ public class TodoItem {
 
         this.modificationToken = (String) row.get("modification_token");
 
+        final Number version = (Number) row.get("version");
+        this.version = version == null ? 0 : version.longValue();
+
     }
 
     /**
-     * Create a new to-do item by storing it in a database and creating an index referencing it
+     * Create a new to-do item by storing it in a database and scheduling it to be indexed
+     * The item is built in memory with a client-side ID, so it takes a single insert and need not be read back.
      *
+     * @param title The title of the item
+     * @param body  The body of the item
      * @return An instance of the new item
-     * @throws com.arik.search.JestException Thrown if there was an issue with Searchly
      * @throws java.net.UnknownHostException Thrown if there was an issue with MongoDB
      */
-    public static TodoItem create() throws JestException, UnknownHostException {
+    public static TodoItem create(final String title, final String body) throws UnknownHostException {
 
         final DB database = PersistentStorage.getDatabaseConnection();
         final DBCollection table = database.getCollection(DB_TABLE);
 
-        final DBObject row = new TodoItemDBObject();
-        table.insert(row);
-
-        // after the object has been added to the DB, the _id field is filled with an ObjectId
-        // MongoDB guarantees that the _id field is safe to cast
-        final ObjectId insertionID = (ObjectId) row.get("_id");
-
-        final TodoItem todoItem = fetchTodoItemByID(insertionID.toString());
-
-        // create the search index
-        try {
-
-            final JestClient jestClient = SearchlyConnector.getJestClient();
-            final Index index = new Index.Builder(todoItem.toElasticSearchMap()).index(JEST_INDEX).type(JEST_TYPE).id(todoItem.getID()).build();
-            jestClient.execute(index);
+        final TodoItem todoItem = build(title, body);
+        try (BackendCall call = Backend.MONGODB.call("insert")) {
+            table.insert(todoItem.getRow());
+            call.succeeded();
+        }
 
-        } catch (Exception e) {
+        todoItem.markCreated();
 
-            // if we have failed to index this item, it's unsearchable, and thus, useless
-            todoItem.remove();
-            throw new JestException(e);
-
-        }
+        final TodoStatisticsChange statisticsChange = new TodoStatisticsChange();
+        statisticsChange.itemCreated(todoItem);
+        TodoCollectionMetadata.getInstance().incrementVersion(statisticsChange);
 
         return todoItem;
 
@@ -132,20 +162,149 @@ public class TodoItem {
      */
     public static TodoItem fetchTodoItemByID(final String identifier) throws UnknownHostException {
 
+        final ObjectId objectID = new ObjectId(identifier);
+
+        final TodoItemCache cache = TodoItemCache.getInstance();
+        final DBObject cachedRow = cache.get(objectID);
+
+        if (cachedRow != null) {
+            return new TodoItem(cachedRow);
+        }
+
         final DB database = PersistentStorage.getDatabaseConnection();
         final DBCollection table = database.getCollection(DB_TABLE);
 
         final BasicDBObject query = new BasicDBObject();
-        final ObjectId objectID = new ObjectId(identifier);
-
         query.put("_id", objectID);
 
-        final DBObject row = table.findOne(query);
+        final long cacheGeneration = cache.getGeneration();
+        final DBObject row;
+
+        try (BackendCall call = Backend.MONGODB.call("find_by_id")) {
+            row = table.findOne(query);
+            call.succeeded();
+        }
 
         if (row == null) {
             return null;
         }
 
+        cache.put(objectID, row, cacheGeneration);
+
+        return new TodoItem(row);
+
+    }
+
+    /**
+     * Get several existing to-do items with a single query
+     *
+     * @param identifiers The IDs of the to-do items
+     * @return The items in the order of the given IDs, leaving out those that do not exist
+     * @throws UnknownHostException Thrown if there was an issue with MongoDB
+     */
+    public static List<TodoItem> fetchTodoItemsByIDs(final List<String> identifiers) throws UnknownHostException {
+
+        final TodoItemCache cache = TodoItemCache.getInstance();
+
+        final List<ObjectId> objectIDs = new ArrayList<>(identifiers.size());
+        final List<ObjectId> uncachedObjectIDs = new ArrayList<>(identifiers.size());
+
+        // MongoDB does not return the rows in the order of the $in list, so we restore it afterwards
+        final Map<String, TodoItem> itemsByID = new HashMap<>();
+
+        for (String identifier : identifiers) {
+
+            if (!ObjectId.isValid(identifier)) {
+                continue;
+            }
+
+            final ObjectId objectID = new ObjectId(identifier);
+            final DBObject cachedRow = cache.get(objectID);
+
+            objectIDs.add(objectID);
+
+            // the caller's string may be in upper case, but the items are looked up by the canonical form below
+            if (cachedRow != null) {
+                itemsByID.put(objectID.toString(), new TodoItem(cachedRow));
+            } else {
+                uncachedObjectIDs.add(objectID);
+            }
+
+        }
+
+        final List<TodoItem> items = new ArrayList<>(objectIDs.size());
+
+        if (!uncachedObjectIDs.isEmpty()) {
+
+            final DB database = PersistentStorage.getDatabaseConnection();
+            final DBCollection table = database.getCollection(DB_TABLE);
+
+            final BasicDBObject query = new BasicDBObject("_id", new BasicDBObject("$in", uncachedObjectIDs));
+            final long cacheGeneration = cache.getGeneration();
+            final boolean isCacheable = PersistentStorage.isBulkReadFromPrimary();
+
+            try (BackendCall call = Backend.MONGODB.call("find_by_ids");
+                 DBCursor cursor = table.find(query)) {
+
+                cursor.setReadPreference(PersistentStorage.getBulkReadPreference());
+
+                while (cursor.hasNext()) {
+
+                    final DBObject row = cursor.next();
+                    // a secondary may not have seen a save whose invalidation has already passed, so the generation
+                    // check cannot tell its rows apart from current ones
+                    if (isCacheable) {
+                        cache.put((ObjectId) row.get("_id"), row, cacheGeneration);
+                    }
+
+                    final TodoItem currentItem = new TodoItem(row);
+                    itemsByID.put(currentItem.getID(), currentItem);
+
+                }
+
+                call.succeeded();
+
+            }
+
+        }
+
+        for (ObjectId objectID : objectIDs) {
+
+            final TodoItem currentItem = itemsByID.get(objectID.toString());
+
+            if (currentItem != null) {
+                items.add(currentItem);
+            }
+
+        }
+
+        return items;
+
+    }
+
+    /**
+     * Build a to-do item from the source stored in the search index, without querying MongoDB
+     * Since the index holds neither the subscribers nor the modification token, the item is only good for being shown
+     *
+     * @param identifier The ID of the item
+     * @param source     The _source of the search hit
+     * @return The item, or null if the source lacks some of the fields (e. g. because it was indexed by an older version)
+     */
+    public static TodoItem fromElasticSearchSource(final String identifier, final Map<?, ?> source) {
+
+        if (source == null || !ObjectId.isValid(identifier)) {
+            return null;
+        }
+
+        if (!(source.get("title") instanceof String) || !source.containsKey("body") || !(source.get("done") instanceof Boolean)) {
+            return null;
+        }
+
+        final BasicDBObject row = new BasicDBObject("_id", new ObjectId(identifier));
+        row.append("title", source.get("title"));
+        row.append("body", source.get("body"));
+        row.append("is_done", source.get("done"));
+
         return new TodoItem(row);
 
     }
@@ -157,112 +316,446 @@ public class TodoItem {
      * @throws UnknownHostException Thrown if there is an issue with MongoDB
      */
     public static List<TodoItem> fetchAllTodoItems() throws UnknownHostException, MongoException {
+        return fetchTodoItems(null, 0);
+    }
 
-        final DB database = PersistentStorage.getDatabaseConnection();
-        final DBCollection table = database.getCollection(DB_TABLE);
+    /**
+     * Get one page of to-do items in the order of their IDs
+     *
+     * @param after The ID of the last item of the previous page (null to start at the beginning)
+     * @param limit The maximum number of items on the page (0 for no limit)
+     * @return A List containing the items of the page
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public static List<TodoItem> fetchTodoItems(final String after, final int limit) throws UnknownHostException, MongoException {
 
-        final List<TodoItem> allItems = new ArrayList<>();
+        final List<TodoItem> items = new ArrayList<>();
 
         // using try with automatic resource management
         // finally is not required because cursor.close() is called automatically
-        try (DBCursor cursor = table.find()) {
+        try (TodoItemCursor cursor = openTodoItemCursor(after, limit)) {
 
-            String currentIdentifier;
             while (cursor.hasNext()) {
-                currentIdentifier = cursor.next().get("_id").toString();
-                allItems.add(fetchTodoItemByID(currentIdentifier));
+                items.add(cursor.next());
             }
 
-        } catch (MongoTimeoutException e) {
+        }
+
+        return items;
 
-            throw e;
+    }
+
+    /**
+     * Open a cursor over the to-do items in the order of their IDs
+     * The items are built from the rows as they are read, so there is only a single query, and the cursor must be closed
+     * by the caller
+     *
+     * @param after The ID of the item after which to start (null to start at the beginning)
+     * @param limit The maximum number of items to read (0 for no limit)
+     * @return A cursor over the items
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public static TodoItemCursor openTodoItemCursor(final String after, final int limit) throws UnknownHostException {
+        return openTodoItemCursor(TodoItemQuery.ALL, after, limit);
+    }
+
+    /**
+     * Open a cursor over the to-do items that match a query, in the order of the query
+     * If the query selects fields, the items only contain those, and must not be saved.
+     *
+     * @param itemQuery The filters, the projection, and the order of the items
+     * @param after     The ID of the item after which to start in the order of the query (null to start at the beginning)
+     * @param limit     The maximum number of items to read (0 for no limit)
+     * @return A cursor over the items
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public static TodoItemCursor openTodoItemCursor(final TodoItemQuery itemQuery, final String after, final int limit) throws UnknownHostException {
 
+        final DB database = PersistentStorage.getDatabaseConnection();
+        final DBCollection table = database.getCollection(DB_TABLE);
+
+        final DBCursor cursor = table.find(itemQuery.buildQuery(after), itemQuery.buildProjection()).sort(itemQuery.buildSort()).limit(limit);
+        cursor.setReadPreference(PersistentStorage.getBulkReadPreference());
+
+        return new TodoItemCursor(cursor, "list", itemQuery.getFields());
+
+    }
+
+    /**
+     * Create the indexes the filters of the list rely on unless they exist already
+     * The indexes are built in the background, so the collection stays available while a new index is built.
+     *
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public static void createIndexes() throws UnknownHostException {
+
+        final DB database = PersistentStorage.getDatabaseConnection();
+        final DBCollection table = database.getCollection(DB_TABLE);
+
+        for (DBObject keys : TodoItemQuery.INDEXES) {
+            try (BackendCall call = Backend.MONGODB.call("create_index")) {
+                table.createIndex(keys, new BasicDBObject("background", true));
+                call.succeeded();
+            }
+        }
+
+    }
+
+    /**
+     * Open a cursor over the to-do items whose IDs fall into a range, in the order of their IDs
+     * Since ObjectIds start with their creation time, ranges of IDs split the collection into chunks that can be read in
+     * parallel.
+     *
+     * @param from The smallest ID of the range (null for no lower bound)
+     * @param to   The ID after the largest ID of the range (null for no upper bound)
+     * @return A cursor over the items, which must be closed by the caller
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public static TodoItemCursor openTodoItemRangeCursor(final ObjectId from, final ObjectId to) throws UnknownHostException {
+
+        final DB database = PersistentStorage.getDatabaseConnection();
+        final DBCollection table = database.getCollection(DB_TABLE);
+
+        final BasicDBObject range = new BasicDBObject();
+
+        if (from != null) {
+            range.put("$gte", from);
         }
 
-        return allItems;
+        if (to != null) {
+            range.put("$lt", to);
+        }
+
+        final BasicDBObject query = range.isEmpty() ? new BasicDBObject() : new BasicDBObject("_id", range);
+
+        final DBCursor cursor = table.find(query).sort(new BasicDBObject("_id", 1));
+        cursor.setReadPreference(PersistentStorage.getBulkReadPreference());
+
+        return new TodoItemCursor(cursor, "find_range");
 
     }
 
     /**
-     * Save a modified object to the database
+     * Open a cursor over the current state of several to-do items, read from the primary and bypassing the cache, such
+     * that the items are at least as recent as any write that has been observed elsewhere
      *
+     * @param identifiers The IDs of the to-do items
+     * @return A cursor over the items that exist, in no particular order, which must be closed by the caller
      * @throws UnknownHostException Thrown if there is an issue with MongoDB
-     * @throws JestException        Thrown if there is an issue with Searchly
      */
-    public void save() throws UnknownHostException, JestException {
+    public static TodoItemCursor openCurrentTodoItemCursor(final Collection<String> identifiers) throws UnknownHostException {
 
         final DB database = PersistentStorage.getDatabaseConnection();
         final DBCollection table = database.getCollection(DB_TABLE);
 
-        final BasicDBObject query = new BasicDBObject();
-        query.append("_id", new ObjectId(identifier));
+        final List<ObjectId> objectIDs = new ArrayList<>(identifiers.size());
+
+        for (String identifier : identifiers) {
+            if (ObjectId.isValid(identifier)) {
+                objectIDs.add(new ObjectId(identifier));
+            }
+        }
 
-        table.update(query, this.row);
+        final DBCursor cursor = table.find(new BasicDBObject("_id", new BasicDBObject("$in", objectIDs)));
+        cursor.setReadPreference(ReadPreference.primary());
 
-        // update the search index
-        final JestClient jestClient = SearchlyConnector.getJestClient();
-        final Index update = new Index.Builder(this.toElasticSearchMap()).index(JEST_INDEX).type(JEST_TYPE).id(this.getID()).build();
+        return new TodoItemCursor(cursor, "find_current");
 
-        try {
-            jestClient.execute(update);
-        } catch (Exception e) {
-            throw new JestException(e);
+    }
+
+    /**
+     * Build a new to-do item in memory, with a client-side ID, such that it can be inserted with a single write
+     *
+     * @param title The title of the item
+     * @param body  The body of the item
+     * @return The item, which is not stored yet
+     */
+    static TodoItem build(final String title, final String body) {
+
+        final DBObject row = new TodoItemDBObject();
+        row.put("_id", new ObjectId());
+        row.put("title", title);
+        row.put("body", body);
+
+        return new TodoItem(row);
+
+    }
+
+    /**
+     * Save a modified object to the database and schedule the search index to be updated
+     * Only the modified fields are written. If the title, body, or done state have been modified, the write only succeeds
+     * if nobody else has modified them since the item was loaded. Added subscribers never conflict with anything.
+     *
+     * @throws UnknownHostException     Thrown if there is an issue with MongoDB
+     * @throws VersionConflictException Thrown if the item has been modified or removed in the meantime
+     */
+    public void save() throws UnknownHostException, VersionConflictException {
+
+        if (!this.isModified()) {
+            return;
         }
 
+        final DB database = PersistentStorage.getDatabaseConnection();
+        final DBCollection table = database.getCollection(DB_TABLE);
+
+        final WriteResult result;
+
+        try (BackendCall call = Backend.MONGODB.call("update")) {
+            result = table.update(this.buildSaveQuery(), this.buildSaveUpdate());
+            call.succeeded();
+        }
+
+        TodoItemCache.getInstance().invalidate(new ObjectId(identifier));
+
+        // with an unacknowledged write concern, we have no way of telling, and the last write wins
+        if (this.isVersionChecked() && result.getLastConcern().callGetLastError() && result.getN() == 0) {
+            throw new VersionConflictException(this.getID());
+        }
+
+        final TodoStatisticsChange statisticsChange = new TodoStatisticsChange();
+        statisticsChange.itemSaved(this);
+
+        this.markSaved();
+
+        // added subscribers change the list as well, since it can be filtered by subscriber
+        TodoCollectionMetadata.getInstance().incrementVersion(statisticsChange);
+
     }
 
     /**
-     * Remove an object from the database
+     * Remove an object from the database and schedule its removal from the search index
      *
      * @throws UnknownHostException Thrown if there is an issue with MongoDB
-     * @throws JestException Thrown if there is an issue with Searchly
      */
-    public void remove() throws UnknownHostException, JestException {
+    public void remove() throws UnknownHostException {
 
         final DB database = PersistentStorage.getDatabaseConnection();
         final DBCollection table = database.getCollection(DB_TABLE);
 
+        final WriteResult result;
+
+        try (BackendCall call = Backend.MONGODB.call("remove")) {
+            result = table.remove(this.buildRemoveQuery());
+            call.succeeded();
+        }
+
+        this.markRemoved();
+
+        // an item that somebody else has removed in the meantime has been counted already
+        final TodoStatisticsChange statisticsChange = new TodoStatisticsChange();
+        if (!result.getLastConcern().callGetLastError() || result.getN() > 0) {
+            statisticsChange.itemRemoved(this);
+        }
+
+        TodoCollectionMetadata.getInstance().incrementVersion(statisticsChange);
+
+    }
+
+    /**
+     * Whether there is anything for save() to write
+     *
+     * @return True if a field has been modified or a subscriber has been added
+     */
+    boolean isModified() {
+        return !this.modifiedFields.isEmpty() || !this.addedSubscribers.isEmpty();
+    }
+
+    /**
+     * Whether save() only succeeds if the item has not been modified in the meantime, which is the case unless merely
+     * subscribers have been added
+     *
+     * @return True if the title, body, or done state have been modified
+     */
+    boolean isVersionChecked() {
+        return !this.modifiedFields.isEmpty();
+    }
+
+    /**
+     * Build the query matching the row to be updated by save()
+     *
+     * @return The query, which includes the version read if the write is version checked
+     */
+    BasicDBObject buildSaveQuery() {
+
         final BasicDBObject query = new BasicDBObject();
         query.append("_id", new ObjectId(identifier));
 
-        table.remove(query);
+        if (this.isVersionChecked()) {
 
+            // a missing version field (i. e. null) counts as version 0
+            if (this.version == 0) {
+                query.append("version", new BasicDBObject("$in", Arrays.asList(0L, null)));
+            } else {
+                query.append("version", this.version);
+            }
 
-        // remove the search index
-        final JestClient jestClient = SearchlyConnector.getJestClient();
-        final Delete delete = new Delete.Builder(this.getID()).index(JEST_INDEX).type(JEST_TYPE).build();
+        }
+
+        return query;
+
+    }
+
+    /**
+     * Build the update writing only the modified fields and the added subscribers
+     *
+     * @return The update for the row matched by buildSaveQuery()
+     */
+    BasicDBObject buildSaveUpdate() {
+
+        final BasicDBObject update = new BasicDBObject();
+
+        if (this.isVersionChecked()) {
+
+            final BasicDBObject modifiedValues = new BasicDBObject();
+            for (String field : this.modifiedFields) {
+                modifiedValues.append(field, this.row.get(field));
+            }
+
+            update.append("$set", modifiedValues);
+            update.append("$inc", new BasicDBObject("version", 1L));
+
+        }
+
+        if (!this.addedSubscribers.isEmpty()) {
+            update.append("$addToSet", new BasicDBObject("subscribers", new BasicDBObject("$each", new ArrayList<>(this.addedSubscribers))));
+        }
+
+        return update;
+
+    }
+
+    /**
+     * Check whether a row read after a version checked save reflects this item's write
+     * Should another write of the same values have won the race instead, that is indistinguishable and just as good.
+     *
+     * @param currentRow The row as it is stored now
+     * @return True if the row has the version and the values this item has written
+     */
+    boolean isSavedAs(final DBObject currentRow) {
 
-        try {
-            jestClient.execute(delete);
-        } catch (Exception e) {
-            throw new JestException(e);
+        final Number currentVersion = (Number) currentRow.get("version");
+
+        if (currentVersion == null || currentVersion.longValue() != this.version + 1) {
+            return false;
+        }
+
+        for (String field : this.modifiedFields) {
+
+            final Object value = this.row.get(field);
+
+            if (value == null ? currentRow.get(field) != null : !value.equals(currentRow.get(field))) {
+                return false;
+            }
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Take note of a successful save() and schedule the search index to be updated
+     */
+    void markSaved() {
+
+        this.isDoneAsStored = this.isDone;
+
+        if (this.isVersionChecked()) {
+            this.version++;
+            this.row.put("version", this.version);
+        }
+
+        final boolean isIndexModified = this.modifiedFields.contains("title") || this.modifiedFields.contains("body") || this.modifiedFields.contains("is_done");
+
+        this.modifiedFields.clear();
+        this.addedSubscribers.clear();
+
+        // update the search index, which does not contain the subscribers, and neither do the events
+        if (isIndexModified) {
+            SearchIndexer.getInstance().index(this.getID(), this.toElasticSearchMap());
+            ItemEventBroadcaster.getInstance().publish(ItemEventBroadcaster.UPDATED_EVENT, this);
         }
 
     }
 
     /**
-     * Get a JSON object reflecting the relevant values of the object
+     * Take note of an insertion, schedule the item to be indexed, and tell the clients watching all items
+     */
+    void markCreated() {
+
+        // the search index is updated in the background; should that fail, the indexer retries on its own
+        SearchIndexer.getInstance().index(this.getID(), this.toElasticSearchMap());
+
+        ItemEventBroadcaster.getInstance().publish(ItemEventBroadcaster.CREATED_EVENT, this);
+
+    }
+
+    BasicDBObject buildRemoveQuery() {
+        return new BasicDBObject("_id", new ObjectId(identifier));
+    }
+
+    /**
+     * Take note of a removal, schedule the search index to be updated, and tell the clients watching the item
+     */
+    void markRemoved() {
+
+        TodoItemCache.getInstance().invalidate(new ObjectId(identifier));
+
+        // remove the search index
+        SearchIndexer.getInstance().delete(this.getID());
+
+        ItemEventBroadcaster.getInstance().publishRemoval(this.getID());
+
+    }
+
+    /**
+     * Get the MongoDB row of the item, e. g. in order to insert it
      *
+     * @return The row, which must not be modified
+     */
+    DBObject getRow() {
+        return this.row;
+    }
+
+    /**
+     * Write a JSON object reflecting the relevant values of the object straight to a JSON stream
+     *
+     * @param writer                   The writer to write the JSON object to
      * @param includeModificationToken Whether or not the modification token should be included in the JSON object
-     * @return The JSON object containing the values
+     * @throws IOException Thrown if the stream cannot be written to
      */
-    public JSONObject toJSONObject(final boolean includeModificationToken) {
+    public void writeJSON(final JSONStreamWriter writer, final boolean includeModificationToken) throws IOException {
+
+        writer.beginObject();
 
-        // alas, JSONObject does not support Generics and therefore produces unchecked call
-        final JSONObject json = new JSONObject();
-        json.put("id", this.getID());
-        json.put("title", this.getTitle());
-        json.put("body", this.getBody());
-        json.put("done", this.isDone());
+        if (this.isFieldWritten("id")) {
+            writer.name("id").value(this.getID());
+        }
+
+        if (this.isFieldWritten("title")) {
+            writer.name("title").value(this.getTitle());
+        }
+
+        if (this.isFieldWritten("body")) {
+            writer.name("body").value(this.getBody());
+        }
+
+        if (this.isFieldWritten("done")) {
+            writer.name("done").value(this.isDone());
+        }
 
         if (includeModificationToken) {
-            json.put("modification_token", this.getModificationToken());
+            writer.name("modification_token").value(this.getModificationToken());
         }
 
-        return json;
+        writer.endObject();
 
     }
 
+    private boolean isFieldWritten(final String field) {
+        return this.fields == null || this.fields.contains(field);
+    }
+
     public String getID() {
         return this.identifier;
     }
@@ -273,7 +766,7 @@ public class TodoItem {
 
     public void setTitle(final String title) {
         this.title = title;
-        this.row.put("title", title);
+        this.setRowField("title", title);
     }
 
     public String getBody() {
@@ -282,26 +775,51 @@ public class TodoItem {
 
     public void setBody(final String body) {
         this.body = body;
-        this.row.put("body", body);
+        this.setRowField("body", body);
     }
 
     public boolean isDone() {
         return isDone;
     }
 
+    boolean isDoneAsStored() {
+        return this.isDoneAsStored;
+    }
+
     public void setDone(final boolean isDone) {
         this.isDone = isDone;
-        this.row.put("is_done", isDone);
+        this.setRowField("is_done", isDone);
+    }
+
+    public long getVersion() {
+        return this.version;
     }
 
     public String getModificationToken() {
         return this.modificationToken;
     }
 
+    /**
+     * Check the modification token sent by a client without revealing through the response time how much of it is right
+     *
+     * @param candidate The token sent by the client (null if there is none)
+     * @return True if it is the token of this item
+     */
+    public boolean matchesModificationToken(final String candidate) {
+        return ModificationTokenGenerator.matches(this.modificationToken, candidate);
+    }
+
     public List<String> getSubscribers() {
         return this.subscribers;
     }
 
+    /**
+     * @return The number of subscribers that have been added since the item was loaded or saved
+     */
+    int getAddedSubscriberCount() {
+        return this.addedSubscribers.size();
+    }
+
     /**
      * Add a phone number to the subscribers list
      *
@@ -312,22 +830,45 @@ public class TodoItem {
         // this check would not have been necessary had the container been a Set
         if (!this.subscribers.contains(phoneNumber)) {
             this.subscribers.add(phoneNumber);
+            this.addedSubscribers.add(phoneNumber);
             this.row.put("subscribers", this.subscribers);
         }
 
     }
 
     /**
-     * Internal function for the indexation on Searchly
+     * Update a field of the row and remember to write it on the next save, unless its value is unchanged
+     *
+     * @param field The name of the field
+     * @param value Its new value
+     */
+    private void setRowField(final String field, final Object value) {
+
+        final Object previousValue = this.row.get(field);
+
+        if (value == null ? previousValue == null && this.row.containsField(field) : value.equals(previousValue)) {
+            return;
+        }
+
+        this.row.put(field, value);
+        this.modifiedFields.add(field);
+
+    }
+
+    /**
+     * Get the fields to be indexed on Searchly
      *
      * @return A map used for the indexation on Searchly
      */
-    private Map<String, String> toElasticSearchMap() {
+    public Map<String, Object> toElasticSearchMap() {
 
-        final LinkedHashMap<String, String> map = new LinkedHashMap<>();
+        final LinkedHashMap<String, Object> map = new LinkedHashMap<>();
         map.put("title", this.getTitle());
         map.put("body", this.getBody());
 
+        // stored in the _source as well, so that search results can be shown without hydrating them from MongoDB
+        map.put("done", this.isDone());
+
         return map;
 
     }
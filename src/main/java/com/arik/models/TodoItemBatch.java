@@ -0,0 +1,269 @@
+package com.arik.models;
+
+import com.arik.persistence.PersistentStorage;
+import com.arik.resilience.Backend;
+import com.arik.resilience.BackendCall;
+import com.mongodb.*;
+import org.bson.types.ObjectId;
+
+import java.net.UnknownHostException;
+import java.util.*;
+
+/**
+ * A set of to-do item creations, modifications, and removals that are written to MongoDB with a single bulk write
+ * The writes are unordered and independent of each other, so one failing write does not prevent any of the others. An
+ * item may only be part of a batch once, since the order in which its writes were applied would be undefined otherwise.
+ */
+public class TodoItemBatch {
+
+    private static final String DB_TABLE = "todo-items";
+
+    private enum OperationType {
+        CREATE, SAVE, REMOVE
+    }
+
+    private final List<TodoItem> items = new ArrayList<>();
+    private final List<OperationType> operationTypes = new ArrayList<>();
+    private final Set<String> identifiers = new HashSet<>();
+
+    /**
+     * Add the creation of a new to-do item to the batch
+     *
+     * @param title The title of the item
+     * @param body  The body of the item
+     * @return The new item, which is only stored once the batch has been executed
+     */
+    public TodoItem create(final String title, final String body) {
+
+        final TodoItem todoItem = TodoItem.build(title, body);
+        this.add(todoItem, OperationType.CREATE);
+
+        return todoItem;
+
+    }
+
+    /**
+     * Add the modifications of an item to the batch, which are written just like save() would
+     *
+     * @param todoItem The modified item
+     */
+    public void save(final TodoItem todoItem) {
+        this.add(todoItem, OperationType.SAVE);
+    }
+
+    /**
+     * Add the removal of an item to the batch
+     *
+     * @param todoItem The item to be removed
+     */
+    public void remove(final TodoItem todoItem) {
+        this.add(todoItem, OperationType.REMOVE);
+    }
+
+    /**
+     * Check whether an item is part of the batch already
+     *
+     * @param identifier The ID of the item
+     * @return True if the batch contains an operation on the item
+     */
+    public boolean contains(final String identifier) {
+        return this.identifiers.contains(identifier);
+    }
+
+    private void add(final TodoItem todoItem, final OperationType operationType) {
+
+        if (!this.identifiers.add(todoItem.getID())) {
+            throw new IllegalArgumentException("The item " + todoItem.getID() + " is already part of the batch");
+        }
+
+        this.items.add(todoItem);
+        this.operationTypes.add(operationType);
+
+    }
+
+    /**
+     * Write the whole batch with one bulk write and schedule the search index to be updated for the successful writes
+     *
+     * @return The items whose writes have failed, along with the reason, i. e. a VersionConflictException or the
+     * MongoException of the individual write
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public Map<TodoItem, Exception> execute() throws UnknownHostException {
+
+        final Map<TodoItem, Exception> failures = new IdentityHashMap<>();
+
+        // saving items that are not modified would be a no-op, and an empty update would be rejected
+        final List<Integer> writeIndexes = new ArrayList<>(this.items.size());
+        for (int i = 0; i < this.items.size(); i++) {
+            if (this.operationTypes.get(i) != OperationType.SAVE || this.items.get(i).isModified()) {
+                writeIndexes.add(i);
+            }
+        }
+
+        if (writeIndexes.isEmpty()) {
+            return failures;
+        }
+
+        final DB database = PersistentStorage.getDatabaseConnection();
+        final DBCollection table = database.getCollection(DB_TABLE);
+
+        final BulkWriteOperation bulkWrite = table.initializeUnorderedBulkOperation();
+
+        for (int writeIndex : writeIndexes) {
+
+            final TodoItem todoItem = this.items.get(writeIndex);
+
+            switch (this.operationTypes.get(writeIndex)) {
+                case CREATE:
+                    bulkWrite.insert(todoItem.getRow());
+                    break;
+                case SAVE:
+                    bulkWrite.find(todoItem.buildSaveQuery()).updateOne(todoItem.buildSaveUpdate());
+                    break;
+                case REMOVE:
+                    bulkWrite.find(todoItem.buildRemoveQuery()).removeOne();
+                    break;
+            }
+
+        }
+
+        BulkWriteResult result;
+
+        try (BackendCall call = Backend.MONGODB.call("bulk_write")) {
+
+            try {
+                result = bulkWrite.execute();
+            } catch (BulkWriteException e) {
+
+                result = e.getWriteResult();
+
+                // the index of an error refers to the order in which the writes have been added to the bulk write
+                for (BulkWriteError writeError : e.getWriteErrors()) {
+                    final TodoItem todoItem = this.items.get(writeIndexes.get(writeError.getIndex()));
+                    failures.put(todoItem, new MongoException(writeError.getCode(), writeError.getMessage()));
+                }
+
+            }
+
+            // errors of single writes, e. g. duplicate keys, are caused by the writes rather than by MongoDB
+            call.succeeded();
+
+        }
+
+        final List<TodoItem> versionCheckedItems = new ArrayList<>();
+
+        for (int writeIndex : writeIndexes) {
+
+            final TodoItem todoItem = this.items.get(writeIndex);
+
+            if (this.operationTypes.get(writeIndex) != OperationType.CREATE) {
+                TodoItemCache.getInstance().invalidate(new ObjectId(todoItem.getID()));
+            }
+
+            if (this.operationTypes.get(writeIndex) == OperationType.SAVE && todoItem.isVersionChecked() && !failures.containsKey(todoItem)) {
+                versionCheckedItems.add(todoItem);
+            }
+
+        }
+
+        // with an unacknowledged write concern, we have no way of telling, and the last write wins
+        if (result.isAcknowledged() && result.getMatchedCount() < this.countSaves(writeIndexes, failures)) {
+            this.findVersionConflicts(table, versionCheckedItems, failures);
+        }
+
+        final TodoStatisticsChange statisticsChange = new TodoStatisticsChange();
+
+        for (int writeIndex : writeIndexes) {
+
+            final TodoItem todoItem = this.items.get(writeIndex);
+
+            if (failures.containsKey(todoItem)) {
+                continue;
+            }
+
+            switch (this.operationTypes.get(writeIndex)) {
+                case CREATE:
+                    statisticsChange.itemCreated(todoItem);
+                    todoItem.markCreated();
+                    break;
+                case SAVE:
+                    statisticsChange.itemSaved(todoItem);
+                    todoItem.markSaved();
+                    break;
+                case REMOVE:
+                    // the bulk write does not tell us which removals have matched, which the reconciliation makes up for
+                    statisticsChange.itemRemoved(todoItem);
+                    todoItem.markRemoved();
+                    break;
+            }
+
+        }
+
+        // the whole batch counts as a single change of the collection
+        if (failures.size() < writeIndexes.size()) {
+            TodoCollectionMetadata.getInstance().incrementVersion(statisticsChange);
+        }
+
+        return failures;
+
+    }
+
+    private int countSaves(final List<Integer> writeIndexes, final Map<TodoItem, Exception> failures) {
+
+        int saveCount = 0;
+
+        for (int writeIndex : writeIndexes) {
+            if (this.operationTypes.get(writeIndex) == OperationType.SAVE && !failures.containsKey(this.items.get(writeIndex))) {
+                saveCount++;
+            }
+        }
+
+        return saveCount;
+
+    }
+
+    /**
+     * The bulk write only tells us how many updates have matched, not which ones, so the rows are read again in order to
+     * find out which items have been modified by somebody else in the meantime
+     */
+    private void findVersionConflicts(final DBCollection table, final List<TodoItem> versionCheckedItems, final Map<TodoItem, Exception> failures) {
+
+        if (versionCheckedItems.isEmpty()) {
+            return;
+        }
+
+        final List<ObjectId> objectIDs = new ArrayList<>(versionCheckedItems.size());
+        for (TodoItem todoItem : versionCheckedItems) {
+            objectIDs.add(new ObjectId(todoItem.getID()));
+        }
+
+        final Map<String, DBObject> currentRows = new HashMap<>();
+
+        // the secondaries might not have seen the writes yet
+        try (BackendCall call = Backend.MONGODB.call("find_conflicts");
+             DBCursor cursor = table.find(new BasicDBObject("_id", new BasicDBObject("$in", objectIDs)))) {
+
+            cursor.setReadPreference(ReadPreference.primary());
+
+            while (cursor.hasNext()) {
+                final DBObject row = cursor.next();
+                currentRows.put(row.get("_id").toString(), row);
+            }
+
+            call.succeeded();
+
+        }
+
+        for (TodoItem todoItem : versionCheckedItems) {
+
+            final DBObject currentRow = currentRows.get(todoItem.getID());
+
+            if (currentRow == null || !todoItem.isSavedAs(currentRow)) {
+                failures.put(todoItem, new VersionConflictException(todoItem.getID()));
+            }
+
+        }
+
+    }
+
+}
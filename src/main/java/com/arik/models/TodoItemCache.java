@@ -0,0 +1,339 @@
+package com.arik.models;
+
+import com.arik.Configuration;
+import com.arik.persistence.PersistentStorage;
+import com.mongodb.*;
+import org.bson.types.ObjectId;
+
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-process cache of to-do item rows in front of MongoDB
+ * Entries are evicted in least-recently-used order once the cache is full and expire after a fixed time to live. Saving
+ * or removing an item invalidates its entry locally and, for multi-node deployments, publishes the invalidation to a
+ * capped collection which every node tails.
+ */
+public class TodoItemCache {
+
+    private static final String INVALIDATION_TABLE = "todo-item-invalidations";
+
+    /**
+     * The capped collection only needs to hold the invalidations that the other nodes have not read yet
+     */
+    private static final long INVALIDATION_TABLE_SIZE = 1024 * 1024;
+
+    private static TodoItemCache todoItemCache;
+
+    private final int capacity = Configuration.getInt("TODO_ITEM_CACHE_SIZE", 10000);
+    private final long timeToLive = Configuration.getLong("TODO_ITEM_CACHE_TTL_MS", 60000);
+    private final boolean isDistributed = Configuration.getBoolean("TODO_ITEM_CACHE_DISTRIBUTED_INVALIDATION", false);
+
+    /**
+     * Identifies this node in the invalidation collection, so that it does not process its own invalidations twice
+     */
+    private final String nodeIdentifier = new ObjectId().toString();
+
+    private final LinkedHashMap<ObjectId, CachedRow> entries;
+
+    /**
+     * Incremented on every invalidation, such that a row that was read before an invalidation is not cached after it
+     */
+    private long generation = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private TodoItemCache() {
+
+        // access order makes the map iterate from the least recently used entry
+        this.entries = new LinkedHashMap<ObjectId, CachedRow>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ObjectId, CachedRow> eldest) {
+
+                if (this.size() > TodoItemCache.this.capacity) {
+                    TodoItemCache.this.evictions.incrementAndGet();
+                    return true;
+                }
+
+                return false;
+
+            }
+
+        };
+
+    }
+
+    /**
+     * Get the singleton cache, starting to tail the invalidation collection if distributed invalidation is enabled
+     *
+     * @return The cache instance
+     */
+    public static synchronized TodoItemCache getInstance() {
+
+        if (todoItemCache != null) {
+            return todoItemCache;
+        }
+
+        todoItemCache = new TodoItemCache();
+
+        if (todoItemCache.isDistributed) {
+
+            final Thread tailer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    todoItemCache.tailInvalidations();
+                }
+            }, "todo-item-cache-invalidations");
+
+            tailer.setDaemon(true);
+            tailer.start();
+
+        }
+
+        return todoItemCache;
+
+    }
+
+    /**
+     * Look up the row of an item
+     *
+     * @param identifier The ID of the item
+     * @return A private copy of the cached row, or null if it is not cached
+     */
+    public DBObject get(final ObjectId identifier) {
+
+        if (this.capacity <= 0) {
+            return null;
+        }
+
+        final CachedRow cachedRow;
+
+        synchronized (this.entries) {
+
+            cachedRow = this.entries.get(identifier);
+
+            if (cachedRow != null && cachedRow.expiresAt <= System.currentTimeMillis()) {
+                this.entries.remove(identifier);
+                this.expirations.incrementAndGet();
+                this.misses.incrementAndGet();
+                return null;
+            }
+
+        }
+
+        if (cachedRow == null) {
+            this.misses.incrementAndGet();
+            return null;
+        }
+
+        this.hits.incrementAndGet();
+
+        // the items modify their rows, so every item gets a copy of its own
+        return (DBObject) cachedRow.row.copy();
+
+    }
+
+    /**
+     * Get the current generation, which is to be read before a row is loaded from MongoDB and passed on to put()
+     *
+     * @return The current generation
+     */
+    public long getGeneration() {
+
+        synchronized (this.entries) {
+            return this.generation;
+        }
+
+    }
+
+    /**
+     * Cache the row of an item
+     *
+     * @param identifier The ID of the item
+     * @param row        The row as it has been read from MongoDB
+     * @param generation The generation before the row was read
+     */
+    public void put(final ObjectId identifier, final DBObject row, final long generation) {
+
+        if (this.capacity <= 0 || !(row instanceof BasicDBObject)) {
+            return;
+        }
+
+        final CachedRow cachedRow = new CachedRow((BasicDBObject) ((BasicDBObject) row).copy(), System.currentTimeMillis() + this.timeToLive);
+
+        synchronized (this.entries) {
+
+            // an invalidation may have happened while the row was being read, so it may already be stale
+            if (generation == this.generation) {
+                this.entries.put(identifier, cachedRow);
+            }
+
+        }
+
+    }
+
+    /**
+     * Drop the entry of an item on this node and on all others
+     *
+     * @param identifier The ID of the item that has been modified or removed
+     */
+    public void invalidate(final ObjectId identifier) {
+
+        this.invalidateLocally(identifier);
+
+        if (!this.isDistributed) {
+            return;
+        }
+
+        try {
+
+            final BasicDBObject invalidation = new BasicDBObject("item", identifier).append("origin", this.nodeIdentifier);
+            getInvalidationTable().insert(invalidation);
+
+        } catch (UnknownHostException | MongoException e) {
+
+            // the other nodes will still drop the entry once it has expired
+            e.printStackTrace();
+
+        }
+
+    }
+
+    private void invalidateLocally(final ObjectId identifier) {
+
+        synchronized (this.entries) {
+            this.generation++;
+            this.entries.remove(identifier);
+        }
+
+        this.invalidations.incrementAndGet();
+
+    }
+
+    /**
+     * Apply the invalidations published by other nodes as they are inserted into the capped collection
+     */
+    private void tailInvalidations() {
+
+        // invalidations from before our start are irrelevant because the cache was empty back then
+        ObjectId lastSeen = new ObjectId();
+
+        while (true) {
+
+            try {
+
+                final DBCollection table = getInvalidationTable();
+                final BasicDBObject query = new BasicDBObject("_id", new BasicDBObject("$gt", lastSeen));
+
+                try (DBCursor cursor = table.find(query).addOption(Bytes.QUERYOPTION_TAILABLE).addOption(Bytes.QUERYOPTION_AWAITDATA)) {
+
+                    while (cursor.hasNext()) {
+
+                        final DBObject invalidation = cursor.next();
+                        lastSeen = (ObjectId) invalidation.get("_id");
+
+                        if (!this.nodeIdentifier.equals(invalidation.get("origin"))) {
+                            this.invalidateLocally((ObjectId) invalidation.get("item"));
+                        }
+
+                    }
+
+                }
+
+            } catch (Exception e) {
+
+                // stderr directs the output to Heroku's logger
+                e.printStackTrace();
+
+            }
+
+            // a tailable cursor dies when the collection is empty or MongoDB is unavailable, so we back off and reopen it
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+        }
+
+    }
+
+    /**
+     * Get the capped invalidation collection, creating it if necessary
+     *
+     * @return The collection
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    private static DBCollection getInvalidationTable() throws UnknownHostException {
+
+        final DB database = PersistentStorage.getDatabaseConnection();
+
+        if (!database.collectionExists(INVALIDATION_TABLE)) {
+
+            try {
+                database.createCollection(INVALIDATION_TABLE, new BasicDBObject("capped", true).append("size", INVALIDATION_TABLE_SIZE));
+            } catch (CommandFailureException e) {
+                // another node has created it in the meantime
+            }
+
+        }
+
+        return database.getCollection(INVALIDATION_TABLE);
+
+    }
+
+    public int getSize() {
+
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public long getExpirations() {
+        return this.expirations.get();
+    }
+
+    public long getInvalidations() {
+        return this.invalidations.get();
+    }
+
+    /**
+     * A cached row along with the time it expires at
+     */
+    private static class CachedRow {
+
+        private final BasicDBObject row;
+        private final long expiresAt;
+
+        private CachedRow(final BasicDBObject row, final long expiresAt) {
+            this.row = row;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
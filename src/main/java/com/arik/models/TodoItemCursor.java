@@ -0,0 +1,135 @@
+package com.arik.models;
+
+import com.arik.metrics.MetricsRegistry;
+import com.arik.resilience.Backend;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Iterates over to-do items straight from a MongoDB cursor, such that only the current item is held in memory
+ * The time spent waiting for MongoDB is summed up while iterating and recorded as a single backend call when the cursor
+ * is closed, such that the time the caller spends on every item, e. g. writing it to the client, is left out.
+ * Cursors fail fast while the circuit of MongoDB is open, but since they are read for as long as the caller takes, they
+ * are not limited by its bulkhead.
+ */
+public class TodoItemCursor implements Iterator<TodoItem>, Closeable {
+
+    private final DBCursor cursor;
+    private final String operation;
+    private final Set<String> fields;
+
+    private long fetchNanoseconds;
+    private boolean isFailed;
+    private boolean isClosed;
+
+    /**
+     * The ID of the last item returned by next(), used as the starting point of the next page
+     */
+    private String lastIdentifier;
+
+    /**
+     * @param cursor    The MongoDB cursor
+     * @param operation The name under which the time spent fetching is recorded
+     */
+    TodoItemCursor(final DBCursor cursor, final String operation) {
+        this(cursor, operation, null);
+    }
+
+    /**
+     * @param cursor    The MongoDB cursor
+     * @param operation The name under which the time spent fetching is recorded
+     * @param fields    The fields the rows have been projected to (null for every field)
+     */
+    TodoItemCursor(final DBCursor cursor, final String operation, final Set<String> fields) {
+
+        // the query is only sent once the cursor is read, so nothing has to be cleaned up if the circuit is open
+        Backend.MONGODB.checkAvailable();
+
+        this.cursor = cursor;
+        this.operation = operation;
+        this.fields = fields;
+
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        // the batches are fetched by hasNext(), and next() only has to fetch if hasNext() has not been called
+        final long startTime = System.nanoTime();
+        final boolean hasNext;
+
+        try {
+            hasNext = this.cursor.hasNext();
+        } catch (MongoException e) {
+            this.isFailed = true;
+            throw e;
+        }
+
+        this.fetchNanoseconds += System.nanoTime() - startTime;
+
+        return hasNext;
+
+    }
+
+    @Override
+    public TodoItem next() {
+
+        final long startTime = System.nanoTime();
+        final DBObject row;
+
+        try {
+            row = this.cursor.next();
+        } catch (MongoException e) {
+            this.isFailed = true;
+            throw e;
+        }
+
+        this.fetchNanoseconds += System.nanoTime() - startTime;
+
+        final TodoItem todoItem = new TodoItem(row, this.fields);
+        this.lastIdentifier = todoItem.getID();
+
+        return todoItem;
+
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("To-do items cannot be removed through a cursor");
+    }
+
+    /**
+     * Get the ID of the last item that has been read, which can be passed as the after parameter of the next page
+     *
+     * @return The ID of the last item, or null if no item has been read yet
+     */
+    public String getLastID() {
+        return this.lastIdentifier;
+    }
+
+    @Override
+    public void close() {
+
+        this.cursor.close();
+
+        if (this.isClosed) {
+            return;
+        }
+
+        this.isClosed = true;
+        MetricsRegistry.getInstance().recordBackendCall(MetricsRegistry.MONGODB_BACKEND, this.operation, this.fetchNanoseconds);
+
+        if (this.isFailed) {
+            Backend.MONGODB.recordFailure();
+        } else {
+            Backend.MONGODB.recordSuccess();
+        }
+
+    }
+
+}
@@ -2,8 +2,6 @@ package com.arik.models;
 
 import com.mongodb.BasicDBObject;
 
-import java.math.BigInteger;
-import java.security.SecureRandom;
 import java.util.ArrayList;
 
 /**
@@ -11,18 +9,17 @@ import java.util.ArrayList;
  */
 public class TodoItemDBObject extends BasicDBObject {
 
-    private static SecureRandom secureRandom = new SecureRandom();
-
     public TodoItemDBObject() {
 
         // we want the modification token to be fairly random
-        final String modificationToken = new BigInteger(128, secureRandom).toString(32);
+        final String modificationToken = ModificationTokenGenerator.generate();
 
         this.append("title", null);
         this.append("body", null);
         this.append("is_done", false);
         this.append("subscribers", new ArrayList<String>());
         this.append("modification_token", modificationToken);
+        this.append("version", 0L);
 
     }
 
@@ -0,0 +1,132 @@
+package com.arik.models;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.types.ObjectId;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The filters, the projection, and the order of a list of to-do items, which are translated into a single MongoDB query
+ * Every filter is backed by an index on the filtered field and the ID, such that MongoDB can seek to the start of a page
+ * and read it in order, rather than scanning and sorting the collection.
+ */
+public class TodoItemQuery {
+
+    /**
+     * Every item with every field, in the order of creation
+     */
+    public static final TodoItemQuery ALL = new TodoItemQuery(null, null, false, null);
+
+    /**
+     * The fields of the JSON representation of an item, and the columns they are read from
+     */
+    private static final Map<String, String> FIELD_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        FIELD_COLUMNS.put("id", "_id");
+        FIELD_COLUMNS.put("title", "title");
+        FIELD_COLUMNS.put("body", "body");
+        FIELD_COLUMNS.put("done", "is_done");
+    }
+
+    /**
+     * The fields that can be selected, in the order in which they are written
+     */
+    public static final Set<String> FIELDS = Collections.unmodifiableSet(FIELD_COLUMNS.keySet());
+
+    /**
+     * The compound indexes the filters rely on, which are created at startup
+     */
+    static final List<DBObject> INDEXES = Arrays.<DBObject>asList(
+            new BasicDBObject("is_done", 1).append("_id", 1),
+            new BasicDBObject("subscribers", 1).append("_id", 1)
+    );
+
+    private final Boolean isDone;
+    private final String subscriber;
+    private final boolean isNewestFirst;
+    private final Set<String> fields;
+
+    /**
+     * @param isDone        The done state of the items (null for both)
+     * @param subscriber    The normalized phone number the items must have been subscribed to by (null for any item)
+     * @param isNewestFirst Whether the most recently created items come first
+     * @param fields        The fields to read and write, out of FIELDS (null for every field)
+     */
+    public TodoItemQuery(final Boolean isDone, final String subscriber, final boolean isNewestFirst, final Set<String> fields) {
+
+        this.isDone = isDone;
+        this.subscriber = subscriber;
+        this.isNewestFirst = isNewestFirst;
+        this.fields = fields;
+
+    }
+
+    /**
+     * Build the MongoDB query for one page
+     *
+     * @param after The ID of the last item of the previous page (null to start at the beginning)
+     * @return The query, in which the filters come first, so that the ID range is the suffix of the index
+     */
+    DBObject buildQuery(final String after) {
+
+        final BasicDBObject query = new BasicDBObject();
+
+        if (this.isDone != null) {
+            query.put("is_done", this.isDone);
+        }
+
+        // a subscribers index entry exists for every phone number in the array, so this is a plain equality on the index
+        if (this.subscriber != null) {
+            query.put("subscribers", this.subscriber);
+        }
+
+        // keyset pagination: ObjectIds are monotonic, so the index lets us seek directly to the next page either way
+        if (after != null) {
+            query.put("_id", new BasicDBObject(this.isNewestFirst ? "$lt" : "$gt", new ObjectId(after)));
+        }
+
+        return query;
+
+    }
+
+    DBObject buildSort() {
+        return new BasicDBObject("_id", this.isNewestFirst ? -1 : 1);
+    }
+
+    /**
+     * Build the MongoDB projection, such that unselected fields, above all the body, are not even sent over the network
+     *
+     * @return The projection, or null if every field is read
+     */
+    DBObject buildProjection() {
+
+        if (this.fields == null) {
+            return null;
+        }
+
+        // the ID is always returned by MongoDB, and the items cannot be built without it
+        final BasicDBObject projection = new BasicDBObject("_id", 1);
+
+        for (String field : this.fields) {
+            projection.put(FIELD_COLUMNS.get(field), 1);
+        }
+
+        return projection;
+
+    }
+
+    /**
+     * @return The fields to write (null for every field)
+     */
+    Set<String> getFields() {
+        return this.fields;
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.arik.models;
+
+import com.arik.Configuration;
+import com.arik.resilience.Backend;
+import com.arik.resilience.BackendCall;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The counters of the to-do item collection, i. e. the number of items, of done items, of subscriptions, and of items
+ * created per hour
+ * The counters are kept in the metadata document of the collection, and incremented along with its version by every
+ * write, so reading them takes a single lookup no matter how large the collection is.
+ */
+public class TodoStatistics {
+
+    static final String STATISTICS_FIELD = "statistics";
+    static final String ITEM_COUNT_FIELD = "items";
+    static final String DONE_COUNT_FIELD = "done";
+    static final String SUBSCRIPTION_COUNT_FIELD = "subscriptions";
+    static final String CREATED_COUNTS_FIELD = "created_per_hour";
+    static final String RECONCILED_AT_FIELD = "reconciled_at";
+
+    /**
+     * The number of hours for which the items created per hour are kept
+     */
+    static final int RETENTION_HOURS = Configuration.getInt("STATS_RETENTION_HOURS", 48);
+
+    private final long itemCount;
+    private final long doneCount;
+    private final long subscriptionCount;
+    private final SortedMap<Long, Long> createdCounts;
+    private final Date reconciledAt;
+
+    private TodoStatistics(final long itemCount, final long doneCount, final long subscriptionCount, final SortedMap<Long, Long> createdCounts, final Date reconciledAt) {
+
+        this.itemCount = itemCount;
+        this.doneCount = doneCount;
+        this.subscriptionCount = subscriptionCount;
+        this.createdCounts = createdCounts;
+        this.reconciledAt = reconciledAt;
+
+    }
+
+    /**
+     * Read the current counters
+     *
+     * @return The counters, which are all 0 until the first write or reconciliation
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public static TodoStatistics fetch() throws UnknownHostException {
+
+        final DBObject document;
+
+        try (BackendCall call = Backend.MONGODB.call("find_statistics")) {
+            document = TodoCollectionMetadata.getTable().findOne(new BasicDBObject("_id", TodoCollectionMetadata.DOCUMENT_ID), new BasicDBObject(STATISTICS_FIELD, 1));
+            call.succeeded();
+        }
+
+        final DBObject statistics = document == null ? null : (DBObject) document.get(STATISTICS_FIELD);
+
+        if (statistics == null) {
+            return new TodoStatistics(0, 0, 0, new TreeMap<Long, Long>(), null);
+        }
+
+        final SortedMap<Long, Long> createdCounts = new TreeMap<>();
+        final DBObject storedCreatedCounts = (DBObject) statistics.get(CREATED_COUNTS_FIELD);
+
+        // the buckets older than the retention period are only dropped by the next reconciliation
+        if (storedCreatedCounts != null) {
+
+            final long oldestHour = getHour(System.currentTimeMillis()) - RETENTION_HOURS + 1;
+
+            for (String hourKey : storedCreatedCounts.keySet()) {
+
+                final long hour = Long.parseLong(hourKey);
+                final long createdCount = getCount(storedCreatedCounts, hourKey);
+
+                if (hour >= oldestHour && createdCount > 0) {
+                    createdCounts.put(hour, createdCount);
+                }
+
+            }
+
+        }
+
+        return new TodoStatistics(getCount(statistics, ITEM_COUNT_FIELD), getCount(statistics, DONE_COUNT_FIELD), getCount(statistics, SUBSCRIPTION_COUNT_FIELD), createdCounts, (Date) statistics.get(RECONCILED_AT_FIELD));
+
+    }
+
+    /**
+     * Get the bucket of a point in time
+     *
+     * @param time The time in milliseconds since the epoch
+     * @return The number of whole hours since the epoch
+     */
+    static long getHour(final long time) {
+        return time / TimeUnit.HOURS.toMillis(1);
+    }
+
+    static long getCount(final DBObject counters, final String field) {
+
+        final Number count = (Number) counters.get(field);
+        return count == null ? 0 : count.longValue();
+
+    }
+
+    public long getItemCount() {
+        return this.itemCount;
+    }
+
+    public long getDoneCount() {
+        return this.doneCount;
+    }
+
+    public long getOpenCount() {
+        return this.itemCount - this.doneCount;
+    }
+
+    public long getSubscriptionCount() {
+        return this.subscriptionCount;
+    }
+
+    /**
+     * Get the number of items created per hour within the retention period that have not been removed since
+     *
+     * @return The counts by the start of the hour, in milliseconds since the epoch, leaving out the empty hours
+     */
+    public SortedMap<Long, Long> getCreatedCounts() {
+
+        final SortedMap<Long, Long> createdCounts = new TreeMap<>();
+
+        for (Map.Entry<Long, Long> createdCount : this.createdCounts.entrySet()) {
+            createdCounts.put(TimeUnit.HOURS.toMillis(createdCount.getKey()), createdCount.getValue());
+        }
+
+        return createdCounts;
+
+    }
+
+    /**
+     * @return The time of the last reconciliation (null if there has not been one)
+     */
+    public Date getReconciledAt() {
+        return this.reconciledAt;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.arik.models;
+
+import com.mongodb.BasicDBObject;
+import org.bson.types.ObjectId;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The changes of the collection statistics caused by a set of writes, which are applied with the same update that
+ * increments the version of the collection
+ * The changes are derived from the items as they have been read, which is exact for the version checked writes. Added
+ * subscribers and removals are not version checked, so a concurrent write may make them count twice, until the next
+ * reconciliation corrects it.
+ */
+class TodoStatisticsChange {
+
+    private long itemCount;
+    private long doneCount;
+    private long subscriptionCount;
+
+    /**
+     * The changes of the number of items created per hour, by hours since the epoch
+     */
+    private final Map<Long, Long> createdCounts = new HashMap<>();
+
+    /**
+     * Take note of an inserted item, which is never done and has no subscribers yet
+     */
+    void itemCreated(final TodoItem todoItem) {
+
+        this.itemCount++;
+        this.countCreation(todoItem, 1);
+
+    }
+
+    /**
+     * Take note of a saved item, which has to happen before the item takes note of the save itself
+     */
+    void itemSaved(final TodoItem todoItem) {
+
+        if (todoItem.isDone() != todoItem.isDoneAsStored()) {
+            this.doneCount += todoItem.isDone() ? 1 : -1;
+        }
+
+        this.subscriptionCount += todoItem.getAddedSubscriberCount();
+
+    }
+
+    /**
+     * Take note of a removed item
+     */
+    void itemRemoved(final TodoItem todoItem) {
+
+        this.itemCount--;
+
+        if (todoItem.isDoneAsStored()) {
+            this.doneCount--;
+        }
+
+        this.subscriptionCount -= todoItem.getSubscribers().size();
+
+        // the buckets count the items created in an hour that still exist, which is what the reconciliation can count
+        this.countCreation(todoItem, -1);
+
+    }
+
+    /**
+     * Build the fields of the $inc operator applying the changes to the metadata document
+     *
+     * @return The increments, leaving out the counters that do not change
+     */
+    BasicDBObject buildIncrement() {
+
+        final BasicDBObject increment = new BasicDBObject();
+
+        if (this.itemCount != 0) {
+            increment.append(TodoStatistics.STATISTICS_FIELD + "." + TodoStatistics.ITEM_COUNT_FIELD, this.itemCount);
+        }
+
+        if (this.doneCount != 0) {
+            increment.append(TodoStatistics.STATISTICS_FIELD + "." + TodoStatistics.DONE_COUNT_FIELD, this.doneCount);
+        }
+
+        if (this.subscriptionCount != 0) {
+            increment.append(TodoStatistics.STATISTICS_FIELD + "." + TodoStatistics.SUBSCRIPTION_COUNT_FIELD, this.subscriptionCount);
+        }
+
+        for (Map.Entry<Long, Long> createdCount : this.createdCounts.entrySet()) {
+            if (createdCount.getValue() != 0) {
+                increment.append(TodoStatistics.STATISTICS_FIELD + "." + TodoStatistics.CREATED_COUNTS_FIELD + "." + createdCount.getKey(), createdCount.getValue());
+            }
+        }
+
+        return increment;
+
+    }
+
+    private void countCreation(final TodoItem todoItem, final long delta) {
+
+        // the ID is generated by us when the item is built, so its time is the time of creation
+        final long hour = TodoStatistics.getHour(new ObjectId(todoItem.getID()).getDate().getTime());
+
+        final Long createdCount = this.createdCounts.get(hour);
+        this.createdCounts.put(hour, createdCount == null ? delta : createdCount + delta);
+
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.arik.models;
+
+import com.arik.Configuration;
+import com.arik.persistence.PersistentStorage;
+import com.arik.resilience.Backend;
+import com.arik.resilience.BackendCall;
+import com.arik.resilience.BackendUnavailableException;
+import com.mongodb.*;
+import org.bson.types.ObjectId;
+
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recounts the statistics of the to-do item collection from time to time, and overwrites the incremental counters
+ * The counters drift whenever a write is not reflected exactly, e. g. if the application stops between a write and the
+ * update of the metadata, or if two nodes add the same subscriber at the same time. Writes that happen while the
+ * collection is being recounted may be missed as well, until the next reconciliation.
+ */
+public class TodoStatisticsReconciler {
+
+    private static final String DB_TABLE = "todo-items";
+
+    private static TodoStatisticsReconciler todoStatisticsReconciler;
+
+    private final long interval = Configuration.getLong("STATS_RECONCILE_INTERVAL_MS", TimeUnit.HOURS.toMillis(1));
+
+    private ScheduledExecutorService scheduler;
+
+    private TodoStatisticsReconciler() {
+    }
+
+    /**
+     * Get the singleton reconciler
+     *
+     * @return The reconciler instance
+     */
+    public static synchronized TodoStatisticsReconciler getInstance() {
+
+        if (todoStatisticsReconciler == null) {
+            todoStatisticsReconciler = new TodoStatisticsReconciler();
+        }
+
+        return todoStatisticsReconciler;
+
+    }
+
+    /**
+     * Recount the collection right away, such that a collection that predates the counters gets them, and then every
+     * STATS_RECONCILE_INTERVAL_MS (0 to only count once)
+     */
+    public synchronized void start() {
+
+        if (this.scheduler != null) {
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+
+                final Thread thread = new Thread(runnable, "statistics-reconciler");
+                thread.setDaemon(true);
+                return thread;
+
+            }
+        });
+
+        final Runnable reconciliation = new Runnable() {
+            @Override
+            public void run() {
+
+                try {
+                    TodoStatisticsReconciler.this.reconcile();
+                } catch (UnknownHostException | MongoException | BackendUnavailableException e) {
+
+                    // the counters are still incremented by the writes, and the next run will try again
+                    e.printStackTrace();
+
+                }
+
+            }
+        };
+
+        if (this.interval > 0) {
+            this.scheduler.scheduleWithFixedDelay(reconciliation, 0, this.interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler.execute(reconciliation);
+        }
+
+    }
+
+    /**
+     * Count the items, the done items, and the subscriptions with an aggregation, and the items created per hour within
+     * the retention period by reading their IDs off the ID index, and store the results as the new counters
+     *
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    public void reconcile() throws UnknownHostException {
+
+        final DB database = PersistentStorage.getDatabaseConnection();
+        final DBCollection table = database.getCollection(DB_TABLE);
+
+        final BasicDBObject totals = new BasicDBObject("_id", null)
+                .append(TodoStatistics.ITEM_COUNT_FIELD, new BasicDBObject("$sum", 1))
+                .append(TodoStatistics.DONE_COUNT_FIELD, new BasicDBObject("$sum", new BasicDBObject("$cond", Arrays.asList("$is_done", 1, 0))))
+                .append(TodoStatistics.SUBSCRIPTION_COUNT_FIELD, new BasicDBObject("$sum", new BasicDBObject("$size", new BasicDBObject("$ifNull", Arrays.asList("$subscribers", Arrays.asList())))));
+
+        final Iterator<DBObject> results;
+
+        try (BackendCall call = Backend.MONGODB.call("aggregate_statistics")) {
+            results = table.aggregate(Arrays.<DBObject>asList(new BasicDBObject("$group", totals))).results().iterator();
+            call.succeeded();
+        }
+
+        final BasicDBObject statistics = new BasicDBObject();
+
+        // an empty collection has no group at all
+        final DBObject result = results.hasNext() ? results.next() : new BasicDBObject();
+        statistics.append(TodoStatistics.ITEM_COUNT_FIELD, TodoStatistics.getCount(result, TodoStatistics.ITEM_COUNT_FIELD));
+        statistics.append(TodoStatistics.DONE_COUNT_FIELD, TodoStatistics.getCount(result, TodoStatistics.DONE_COUNT_FIELD));
+        statistics.append(TodoStatistics.SUBSCRIPTION_COUNT_FIELD, TodoStatistics.getCount(result, TodoStatistics.SUBSCRIPTION_COUNT_FIELD));
+        statistics.append(TodoStatistics.CREATED_COUNTS_FIELD, this.countCreatedItems(table));
+        statistics.append(TodoStatistics.RECONCILED_AT_FIELD, new Date());
+
+        try (BackendCall call = Backend.MONGODB.call("reconcile_statistics")) {
+            TodoCollectionMetadata.getTable().update(new BasicDBObject("_id", TodoCollectionMetadata.DOCUMENT_ID), new BasicDBObject("$set", new BasicDBObject(TodoStatistics.STATISTICS_FIELD, statistics)), true, false);
+            call.succeeded();
+        }
+
+    }
+
+    /**
+     * Count the items created per hour within the retention period
+     * ObjectIds start with the time of their creation, so only the IDs of the recent items are read, straight from the
+     * index, rather than the whole collection.
+     */
+    private BasicDBObject countCreatedItems(final DBCollection table) throws UnknownHostException {
+
+        final long oldestHour = TodoStatistics.getHour(System.currentTimeMillis()) - TodoStatistics.RETENTION_HOURS + 1;
+        // an ObjectId starts with the big-endian seconds, and zeros in the remaining 8 bytes make it the smallest one
+        final int oldestSecond = (int) TimeUnit.HOURS.toSeconds(oldestHour);
+        final ObjectId oldestID = new ObjectId(ByteBuffer.allocate(12).putInt(oldestSecond).array());
+
+        final BasicDBObject createdCounts = new BasicDBObject();
+
+        try (BackendCall call = Backend.MONGODB.call("count_created")) {
+
+            try (DBCursor cursor = table.find(new BasicDBObject("_id", new BasicDBObject("$gte", oldestID)), new BasicDBObject("_id", 1))) {
+
+                while (cursor.hasNext()) {
+
+                    final String hourKey = Long.toString(TodoStatistics.getHour(((ObjectId) cursor.next().get("_id")).getDate().getTime()));
+                    createdCounts.put(hourKey, TodoStatistics.getCount(createdCounts, hourKey) + 1);
+
+                }
+
+            }
+
+            call.succeeded();
+
+        }
+
+        return createdCounts;
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.arik.models;
+
+/**
+ * Thrown when a to-do item cannot be saved because it has been modified or removed since it was loaded
+ */
+public class VersionConflictException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param identifier The ID of the item that could not be saved
+     */
+    public VersionConflictException(final String identifier) {
+        super("The item " + identifier + " has been modified or removed in the meantime");
+    }
+
+}
@@ -1,16 +1,23 @@
 package com.arik.persistence;
 
-import com.mongodb.MongoClient;
-import com.mongodb.MongoClientURI;
+import com.arik.Configuration;
+import com.mongodb.*;
 
 import java.net.UnknownHostException;
 
 /**
  * A class that deals with the database stuff in order to make the rest implementation-agnostic
+ * The connection pool is set up once at startup and then read without any locking. Its size, timeouts, read preferences,
+ * and write concern are taken from the configuration (options given in the MONGOLAB_URI take precedence).
  */
 public class PersistentStorage {
 
-    private static com.mongodb.DB databaseConnection;
+    private static volatile com.mongodb.DB databaseConnection;
+
+    /**
+     * The read preference for reads that may lag behind a little, i. e. listing items and hydrating search results
+     */
+    private static final ReadPreference BULK_READ_PREFERENCE = parseReadPreference("MONGO_BULK_READ_PREFERENCE", ReadPreference.primary());
 
     /**
      * A method to establish (if necessary) a connection to the database.
@@ -18,13 +25,42 @@ public class PersistentStorage {
      * @return An instance of a writable MongoDB database wrapper object
      * @throws UnknownHostException Thrown if no MongoDB server is available
      */
-    public static synchronized com.mongodb.DB getDatabaseConnection() throws UnknownHostException { // DB is so short and
-        // ambiguous
+    public static com.mongodb.DB getDatabaseConnection() throws UnknownHostException { // DB is so short and ambiguous
+
+        final com.mongodb.DB connection = databaseConnection;
+
+        if (connection != null) {
+            return connection;
+        }
+
+        return initialize();
+
+    }
+
+    /**
+     * Set up the connection pool unless that has already happened
+     * This is called at startup, such that the first request does not have to wait for it
+     *
+     * @return An instance of a writable MongoDB database wrapper object
+     * @throws UnknownHostException Thrown if no MongoDB server is available
+     */
+    public static synchronized com.mongodb.DB initialize() throws UnknownHostException {
 
         if (databaseConnection != null) {
             return databaseConnection;
         }
 
+        final MongoClientOptions.Builder options = MongoClientOptions.builder()
+                .description("jersey-todo-api")
+                .connectionsPerHost(Configuration.getInt("MONGO_CONNECTIONS_PER_HOST", 100))
+                .threadsAllowedToBlockForConnectionMultiplier(Configuration.getInt("MONGO_WAIT_QUEUE_MULTIPLIER", 5))
+                .maxWaitTime(Configuration.getInt("MONGO_MAX_WAIT_TIME_MS", 10000))
+                .connectTimeout(Configuration.getInt("MONGO_CONNECT_TIMEOUT_MS", 10000))
+                .socketTimeout(Configuration.getInt("MONGO_SOCKET_TIMEOUT_MS", 30000))
+                .socketKeepAlive(true)
+                .readPreference(parseReadPreference("MONGO_READ_PREFERENCE", ReadPreference.primary()))
+                .writeConcern(parseWriteConcern("MONGO_WRITE_CONCERN", WriteConcern.ACKNOWLEDGED));
+
         MongoClient mongoClient;
         String database;
 
@@ -33,7 +69,7 @@ public class PersistentStorage {
         // if the environment tells us the mongosoup DB url, we use that one. Otherwise, we revert/default to local
         if (mongoSoupHost != null && mongoSoupHost.length() > 0) {
 
-            MongoClientURI mongoURI = new MongoClientURI(mongoSoupHost);
+            MongoClientURI mongoURI = new MongoClientURI(mongoSoupHost, options);
             mongoClient = new MongoClient(mongoURI);
 
             // the mongosoup instance only permits one database, which is given in the environment config
@@ -42,7 +78,7 @@ public class PersistentStorage {
         } else {
 
             // just the default local configuration and an appropriate database name
-            mongoClient = new MongoClient("localhost", 27017);
+            mongoClient = new MongoClient(new ServerAddress("localhost", 27017), options.build());
             database = "todo-api-db"; // our default database
 
         }
@@ -52,4 +88,76 @@ public class PersistentStorage {
 
     }
 
+    /**
+     * Use a database that has been set up elsewhere instead of connecting to the configured one, e. g. the in-memory
+     * stand-in of the load test
+     * This has to happen before the application starts, since the connection is never replaced once it is in use.
+     *
+     * @param database The database to read from and write to
+     */
+    public static synchronized void useDatabase(final com.mongodb.DB database) {
+
+        if (databaseConnection != null) {
+            throw new IllegalStateException("The database connection has already been set up");
+        }
+
+        databaseConnection = database;
+
+    }
+
+    /**
+     * Get the read preference for reads that need not see the latest writes
+     *
+     * @return The read preference configured in MONGO_BULK_READ_PREFERENCE, e. g. secondaryPreferred
+     */
+    public static ReadPreference getBulkReadPreference() {
+        return BULK_READ_PREFERENCE;
+    }
+
+    /**
+     * Check whether the reads that need not see the latest writes are still answered by the primary
+     *
+     * @return False if they may be answered by a lagging secondary, in which case their results must not be cached
+     */
+    public static boolean isBulkReadFromPrimary() {
+        return BULK_READ_PREFERENCE.getName().equals(ReadPreference.primary().getName());
+    }
+
+    private static ReadPreference parseReadPreference(final String settingName, final ReadPreference defaultValue) {
+
+        final String name = Configuration.getString(settingName, null);
+
+        if (name == null) {
+            return defaultValue;
+        }
+
+        try {
+            return ReadPreference.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring unknown read preference " + settingName + "=" + name);
+            return defaultValue;
+        }
+
+    }
+
+    private static WriteConcern parseWriteConcern(final String settingName, final WriteConcern defaultValue) {
+
+        final String name = Configuration.getString(settingName, null);
+
+        if (name == null) {
+            return defaultValue;
+        }
+
+        // e. g. ACKNOWLEDGED, JOURNALED, or MAJORITY
+        final WriteConcern writeConcern = WriteConcern.valueOf(name.toUpperCase());
+
+        if (writeConcern == null) {
+            System.err.println("Ignoring unknown write concern " + settingName + "=" + name);
+            return defaultValue;
+        }
+
+        return writeConcern;
+
+    }
+
 }
@@ -0,0 +1,139 @@
+package com.arik.resilience;
+
+import com.arik.Configuration;
+import com.arik.metrics.Gauge;
+import com.arik.metrics.MetricsRegistry;
+
+/**
+ * The external services the application depends on, each with its own circuit breaker and bulkhead
+ * The settings are read with the prefix of the backend, e. g. MONGO_BREAKER_FAILURE_THRESHOLD, and the state of both is
+ * exposed on /_metrics.
+ */
+public enum Backend {
+
+    MONGODB(MetricsRegistry.MONGODB_BACKEND, "MongoDB", "MONGO", 48),
+    SEARCH(MetricsRegistry.SEARCH_BACKEND, "Searchly", "SEARCH", 16),
+    TWILIO(MetricsRegistry.TWILIO_BACKEND, "Twilio", "TWILIO", 16);
+
+    private final String metricName;
+    private final String displayName;
+
+    private final CircuitBreaker circuitBreaker;
+    private final Bulkhead bulkhead;
+
+    Backend(final String metricName, final String displayName, final String settingPrefix, final int defaultConcurrentCalls) {
+
+        this.metricName = metricName;
+        this.displayName = displayName;
+
+        this.circuitBreaker = new CircuitBreaker(Configuration.getInt(settingPrefix + "_BREAKER_FAILURE_THRESHOLD", 10), Configuration.getLong(settingPrefix + "_BREAKER_OPEN_MS", 10000));
+        this.bulkhead = new Bulkhead(Configuration.getInt(settingPrefix + "_MAX_CONCURRENT_CALLS", defaultConcurrentCalls), Configuration.getLong(settingPrefix + "_BULKHEAD_WAIT_MS", 100));
+
+        this.registerGauges();
+
+    }
+
+    /**
+     * Start a call to the backend, meant for a try-with-resources block around the call
+     * The call counts as failed unless succeeded() is called before the block is left.
+     *
+     * @param operation The kind of call, under which its latency is recorded, e. g. insert
+     * @return The running call
+     * @throws BackendUnavailableException Thrown if the circuit is open or too many calls are running already
+     */
+    public BackendCall call(final String operation) {
+
+        if (!this.bulkhead.tryAcquire()) {
+            throw new BackendUnavailableException(this.displayName + " is busy, please try again later");
+        }
+
+        if (!this.circuitBreaker.tryAcquire()) {
+            this.bulkhead.release();
+            throw new BackendUnavailableException(this.displayName + " is unavailable, please try again later");
+        }
+
+        return new BackendCall(this, MetricsRegistry.getInstance().timeBackendCall(this.metricName, operation));
+
+    }
+
+    /**
+     * Make sure that the circuit is not open before starting a call whose duration is not bounded by the caller, e. g.
+     * reading a cursor, which is left out of the bulkhead
+     * The outcome has to be reported with recordSuccess() or recordFailure().
+     *
+     * @throws BackendUnavailableException Thrown if the circuit is open
+     */
+    public void checkAvailable() {
+
+        if (!this.circuitBreaker.tryAcquire()) {
+            throw new BackendUnavailableException(this.displayName + " is unavailable, please try again later");
+        }
+
+    }
+
+    public void recordSuccess() {
+        this.circuitBreaker.recordSuccess();
+    }
+
+    public void recordFailure() {
+        this.circuitBreaker.recordFailure();
+    }
+
+    /**
+     * Give back the place of a call and record its outcome
+     */
+    void finishCall(final boolean isSucceeded) {
+
+        this.bulkhead.release();
+
+        if (isSucceeded) {
+            this.circuitBreaker.recordSuccess();
+        } else {
+            this.circuitBreaker.recordFailure();
+        }
+
+    }
+
+    private void registerGauges() {
+
+        final MetricsRegistry registry = MetricsRegistry.getInstance();
+        final String labels = "backend=\"" + this.metricName + "\"";
+
+        registry.registerGauge("todo_api_circuit_breaker_state", "gauge", "State of the circuit breaker (0 closed, 1 half-open, 2 open)", labels, new Gauge() {
+            @Override
+            public double getValue() {
+                return Backend.this.circuitBreaker.getState().getValue();
+            }
+        });
+
+        registry.registerGauge("todo_api_circuit_breaker_rejected_total", "counter", "Calls failed fast because the circuit was open", labels, new Gauge() {
+            @Override
+            public double getValue() {
+                return Backend.this.circuitBreaker.getRejectedCount();
+            }
+        });
+
+        registry.registerGauge("todo_api_bulkhead_concurrent_calls", "gauge", "Calls to the backend running right now", labels, new Gauge() {
+            @Override
+            public double getValue() {
+                return Backend.this.bulkhead.getConcurrentCalls();
+            }
+        });
+
+        registry.registerGauge("todo_api_bulkhead_max_concurrent_calls", "gauge", "Calls to the backend that may run at the same time", labels, new Gauge() {
+            @Override
+            public double getValue() {
+                return Backend.this.bulkhead.getMaximumConcurrentCalls();
+            }
+        });
+
+        registry.registerGauge("todo_api_bulkhead_rejected_total", "counter", "Calls failed fast because too many calls were running", labels, new Gauge() {
+            @Override
+            public double getValue() {
+                return Backend.this.bulkhead.getRejectedCount();
+            }
+        });
+
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.arik.resilience;
+
+import com.arik.metrics.MetricsRegistry;
+
+/**
+ * A running call to a backend, which gives back its place in the bulkhead, reports its outcome to the circuit breaker,
+ * and records its latency when it is closed
+ */
+public class BackendCall implements AutoCloseable {
+
+    private final Backend backend;
+    private final MetricsRegistry.Timing timing;
+
+    private boolean isSucceeded;
+    private boolean isClosed;
+
+    BackendCall(final Backend backend, final MetricsRegistry.Timing timing) {
+        this.backend = backend;
+        this.timing = timing;
+    }
+
+    /**
+     * Mark the call as successful, i. e. the backend has answered, even if the answer is an error caused by the request
+     */
+    public void succeeded() {
+        this.isSucceeded = true;
+    }
+
+    @Override
+    public void close() {
+
+        if (this.isClosed) {
+            return;
+        }
+
+        this.isClosed = true;
+        this.timing.close();
+        this.backend.finishCall(this.isSucceeded);
+
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.arik.resilience;
+
+/**
+ * Thrown instead of calling a backend that is known to be failing, or that is already busy with as many calls as it is
+ * allowed to have, such that the request fails right away instead of tying up a thread of the backend pool
+ */
+public class BackendUnavailableException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BackendUnavailableException(final String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.arik.resilience;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrent calls to a backend, such that a slow backend can only tie up that many threads of
+ * the backend pool, while the others keep serving the requests that do not need it
+ */
+public class Bulkhead {
+
+    private final int maximumConcurrentCalls;
+    private final long maximumWait;
+    private final Semaphore permits;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param maximumConcurrentCalls The number of calls that may be made at the same time
+     * @param maximumWait            How long a call waits for one of the others to finish, in milliseconds
+     */
+    public Bulkhead(final int maximumConcurrentCalls, final long maximumWait) {
+        this.maximumConcurrentCalls = maximumConcurrentCalls;
+        this.maximumWait = maximumWait;
+        this.permits = new Semaphore(maximumConcurrentCalls);
+    }
+
+    /**
+     * Take a place for a call, which has to be given back with release()
+     *
+     * @return True if there is a place, false if the maximum number of calls has been busy for the entire wait
+     */
+    public boolean tryAcquire() {
+
+        try {
+
+            if (this.permits.tryAcquire(this.maximumWait, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+
+        } catch (InterruptedException e) {
+
+            // the request has been given up on, e. g. because it has timed out
+            Thread.currentThread().interrupt();
+
+        }
+
+        this.rejectedCount.incrementAndGet();
+        return false;
+
+    }
+
+    public void release() {
+        this.permits.release();
+    }
+
+    public int getConcurrentCalls() {
+        return this.maximumConcurrentCalls - this.permits.availablePermits();
+    }
+
+    public int getMaximumConcurrentCalls() {
+        return this.maximumConcurrentCalls;
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.arik.resilience;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling a backend after a number of consecutive failures, and lets a single trial call through once a while has
+ * passed, which closes the circuit again if it succeeds
+ * While the circuit is closed, calls and successes only read a volatile field, so a healthy backend is not slowed down
+ * by a lock.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+
+        CLOSED(0), HALF_OPEN(1), OPEN(2);
+
+        private final int value;
+
+        State(final int value) {
+            this.value = value;
+        }
+
+        /**
+         * The state as a number, which is how it is exposed as a metric
+         */
+        public int getValue() {
+            return this.value;
+        }
+
+    }
+
+    private final int failureThreshold;
+    private final long openDuration;
+
+    private volatile State state = State.CLOSED;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private long openedAt;
+    private boolean isTrialRunning;
+    private long trialStartedAt;
+
+    /**
+     * @param failureThreshold The number of consecutive failures that open the circuit
+     * @param openDuration     How long the circuit stays open before a trial call is let through, in milliseconds
+     */
+    public CircuitBreaker(final int failureThreshold, final long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Ask whether a call may be made, which has to be followed by recordSuccess() or recordFailure() if it may
+     *
+     * @return True if the circuit is closed, or if this is the trial call of a half-open circuit
+     */
+    public boolean tryAcquire() {
+
+        if (this.state == State.CLOSED) {
+            return true;
+        }
+
+        synchronized (this) {
+
+            if (this.state == State.CLOSED) {
+                return true;
+            }
+
+            if (this.state == State.OPEN && System.currentTimeMillis() - this.openedAt >= this.openDuration) {
+                this.state = State.HALF_OPEN;
+                this.isTrialRunning = false;
+            }
+
+            // a trial whose outcome is never recorded, e. g. because its cursor is never closed, must not keep the circuit
+            // from closing forever, so it is given up after as long as the circuit stays open
+            if (this.state == State.HALF_OPEN && this.isTrialRunning && System.currentTimeMillis() - this.trialStartedAt >= this.openDuration) {
+                this.isTrialRunning = false;
+            }
+
+            if (this.state == State.HALF_OPEN && !this.isTrialRunning) {
+                this.isTrialRunning = true;
+                this.trialStartedAt = System.currentTimeMillis();
+                return true;
+            }
+
+        }
+
+        this.rejectedCount.incrementAndGet();
+        return false;
+
+    }
+
+    public void recordSuccess() {
+
+        if (this.state == State.CLOSED) {
+
+            // avoid writing to a field every call keeps reading if nothing has failed
+            if (this.consecutiveFailures.get() != 0) {
+                this.consecutiveFailures.set(0);
+            }
+
+            return;
+
+        }
+
+        synchronized (this) {
+            this.consecutiveFailures.set(0);
+            this.state = State.CLOSED;
+            this.isTrialRunning = false;
+        }
+
+    }
+
+    public void recordFailure() {
+
+        final int failures = this.consecutiveFailures.incrementAndGet();
+
+        if (this.state == State.CLOSED && failures < this.failureThreshold) {
+            return;
+        }
+
+        synchronized (this) {
+
+            // a failed trial call opens the circuit again, and so does a call that was started before it opened
+            this.state = State.OPEN;
+            this.openedAt = System.currentTimeMillis();
+            this.isTrialRunning = false;
+
+        }
+
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+}
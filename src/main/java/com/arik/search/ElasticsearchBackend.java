@@ -0,0 +1,167 @@
+package com.arik.search;
+
+import com.arik.models.TodoItem;
+import com.arik.resilience.Backend;
+import com.arik.resilience.BackendCall;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.util.*;
+
+/**
+ * The search backend hosted by Searchly, which is talked to using Jest
+ */
+public class ElasticsearchBackend implements SearchBackend {
+
+    @Override
+    public Set<String> apply(final List<IndexMutation> mutations) throws SearchException {
+
+        final Bulk.Builder bulk = new Bulk.Builder().defaultIndex(TodoItem.JEST_INDEX).defaultType(TodoItem.JEST_TYPE);
+
+        for (IndexMutation mutation : mutations) {
+
+            if (mutation.isDeletion()) {
+                bulk.addAction(new Delete.Builder(mutation.getIdentifier()).index(TodoItem.JEST_INDEX).type(TodoItem.JEST_TYPE).build());
+            } else {
+                bulk.addAction(new Index.Builder(mutation.getSource()).index(TodoItem.JEST_INDEX).type(TodoItem.JEST_TYPE).id(mutation.getIdentifier()).build());
+            }
+
+        }
+
+        final JestResult result;
+
+        try (BackendCall call = Backend.SEARCH.call("bulk")) {
+
+            result = SearchlyConnector.getJestClient().execute(bulk.build());
+
+            if (!isServerError(result)) {
+                call.succeeded();
+            }
+
+        } catch (Exception e) {
+            throw new JestException(e);
+        }
+
+        final Set<String> failedIdentifiers = findFailedIdentifiers(result);
+
+        if (!result.isSucceeded() && failedIdentifiers.isEmpty()) {
+
+            // without per-item details, we have to assume that the entire batch failed
+            throw new SearchException(result.getErrorMessage() != null ? result.getErrorMessage() : "Searchly rejected the batch");
+
+        }
+
+        return failedIdentifiers;
+
+    }
+
+    @Override
+    public List<SearchHit> search(final String query) throws SearchException {
+
+        final Search search = new Search.Builder(query).addIndex(TodoItem.JEST_INDEX).addType(TodoItem.JEST_TYPE).build();
+
+        final SearchResult result;
+
+        try (BackendCall call = Backend.SEARCH.call("search")) {
+
+            result = SearchlyConnector.getJestClient().execute(search);
+
+            if (!isServerError(result)) {
+                call.succeeded();
+            }
+
+        } catch (Exception e) {
+            throw new JestException(e);
+        }
+
+        final List<SearchHit> hits = new ArrayList<>();
+
+        // if there was an error message, i. e. a parse error, sent from Searchly, it's none of the user's business
+        // we just say nothing was found
+        if (result.getErrorMessage() != null) {
+            return hits;
+        }
+
+        final JSONObject foundItemDetails = (JSONObject) JSONValue.parse(result.getJsonString());
+        final JSONObject outerHits = (JSONObject) foundItemDetails.get("hits");
+        final JSONArray foundItems = (JSONArray) outerHits.get("hits");
+
+        for (Object currentFindObject : foundItems) {
+            final JSONObject currentFind = (JSONObject) currentFindObject;
+            hits.add(new SearchHit((String) currentFind.get("_id"), (JSONObject) currentFind.get("_source")));
+        }
+
+        return hits;
+
+    }
+
+    /**
+     * Check whether Searchly has failed to handle a request, as opposed to having rejected it, e. g. because of a
+     * malformed query
+     *
+     * @param result The response
+     * @return True if the status in the response body is a 5xx one
+     */
+    private static boolean isServerError(final JestResult result) {
+
+        final JsonObject response = result.getJsonObject();
+
+        if (result.isSucceeded() || response == null || !response.has("status")) {
+            return false;
+        }
+
+        return response.get("status").getAsInt() >= 500;
+
+    }
+
+    /**
+     * Find the items of a _bulk response that have not been applied
+     *
+     * @param result The _bulk response
+     * @return The IDs of the failed items
+     */
+    private static Set<String> findFailedIdentifiers(final JestResult result) {
+
+        final Set<String> failedIdentifiers = new HashSet<>();
+        final JsonObject response = result.getJsonObject();
+
+        if (response == null || !response.has("items")) {
+            return failedIdentifiers;
+        }
+
+        final JsonArray items = response.getAsJsonArray("items");
+
+        for (JsonElement itemElement : items) {
+
+            // every item is an object with a single key naming the action, e. g. {"index": {"_id": ..., "status": 201}}
+            for (Map.Entry<String, JsonElement> action : itemElement.getAsJsonObject().entrySet()) {
+
+                final JsonObject details = action.getValue().getAsJsonObject();
+                final int status = details.has("status") ? details.get("status").getAsInt() : 200;
+
+                // deleting an item that has never been indexed is not an error
+                final boolean isMissingDeletion = action.getKey().equals("delete") && status == 404;
+
+                if ((details.has("error") || status >= 300) && !isMissingDeletion) {
+                    failedIdentifiers.add(details.get("_id").getAsString());
+                }
+
+            }
+
+        }
+
+        return failedIdentifiers;
+
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.arik.search;
+
+import java.util.Map;
+
+/**
+ * A pending change to the search index: either the new source of an item or its removal
+ */
+public class IndexMutation {
+
+    private final String identifier;
+
+    /**
+     * The fields to index, or null if the item is to be removed from the index
+     */
+    private final Map<String, Object> source;
+
+    /**
+     * Whether the item is to be indexed in whatever state it is in when the mutation is applied, rather than in the
+     * state of the source
+     */
+    private final boolean isRefresh;
+
+    public IndexMutation(final String identifier, final Map<String, Object> source) {
+        this(identifier, source, false);
+    }
+
+    private IndexMutation(final String identifier, final Map<String, Object> source, final boolean isRefresh) {
+        this.identifier = identifier;
+        this.source = source;
+        this.isRefresh = isRefresh;
+    }
+
+    /**
+     * Build a placeholder that the SearchIndexer replaces with the current state of the item right before it is sent,
+     * such that the indexed state cannot be older than a save that has been queued in the meantime
+     *
+     * @param identifier The ID of the item
+     * @return The placeholder, which search backends do not accept
+     */
+    public static IndexMutation refresh(final String identifier) {
+        return new IndexMutation(identifier, null, true);
+    }
+
+    public String getIdentifier() {
+        return this.identifier;
+    }
+
+    public Map<String, Object> getSource() {
+        return this.source;
+    }
+
+    public boolean isDeletion() {
+        return this.source == null && !this.isRefresh;
+    }
+
+    public boolean isRefresh() {
+        return this.isRefresh;
+    }
+
+}
@@ -0,0 +1,706 @@
+package com.arik.search;
+
+import com.arik.Configuration;
+import com.arik.models.TodoItem;
+import com.arik.models.TodoItemCursor;
+import com.arik.persistence.PersistentStorage;
+import com.mongodb.*;
+import org.bson.types.BSONTimestamp;
+import org.bson.types.ObjectId;
+
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Keeps the search index in sync with MongoDB by tailing the oplog of the to-do item collection, independently of the
+ * requests that write to it
+ * The IDs of the changed items are collected from the oplog and the current state of the items is applied to the search
+ * backend in batches. The timestamp of the last applied oplog entry is stored in MongoDB, so the synchronizer resumes
+ * where it left off after a restart. If there is no such timestamp yet, or the oplog no longer reaches back to it, the
+ * whole collection is reindexed first.
+ * The oplog is only available on replica sets, and reading it requires access to the local database.
+ * Run this class on its own (e. g. as a worker dyno) to synchronize an external index, optionally with --reindex to
+ * reindex the whole collection once and exit.
+ */
+public class IndexSynchronizer {
+
+    private static final String DB_TABLE = "todo-items";
+    private static final String CHECKPOINT_TABLE = "search-index-sync";
+    private static final String CHECKPOINT_ID = "todo-items";
+
+    private static final String REINDEX_ARGUMENT = "--reindex";
+
+    /**
+     * The collection is split into more chunks than there are threads, since the items are not spread evenly over time
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static IndexSynchronizer indexSynchronizer;
+
+    private final int batchSize = Configuration.getInt("SEARCH_INDEX_BATCH_SIZE", 500);
+    private final int queueCapacity = Configuration.getInt("SEARCH_INDEX_QUEUE_CAPACITY", 10000);
+    private final long flushInterval = Configuration.getLong("SEARCH_INDEX_FLUSH_INTERVAL_MS", 1000);
+    private final long retryInterval = Configuration.getLong("SEARCH_INDEX_RETRY_INTERVAL_MS", 30000);
+    private final int reindexThreads = Configuration.getInt("SEARCH_REINDEX_THREADS", 4);
+    private final int maximumAttempts = Configuration.getInt("SEARCH_INDEX_MAX_ATTEMPTS", 10);
+
+    /**
+     * The IDs of the items that have changed since the last flush
+     */
+    private final LinkedHashSet<String> pendingIdentifiers = new LinkedHashSet<>();
+
+    /**
+     * The IDs of the items that the search backend has rejected, and the time at which they are retried, guarded by the
+     * lock of the pending identifiers
+     */
+    private final LinkedHashMap<String, Long> deferredIdentifiers = new LinkedHashMap<>();
+
+    /**
+     * The number of failed attempts to index the items that have not been indexed since, guarded by the lock of the
+     * pending identifiers
+     */
+    private final Map<String, Integer> failedAttempts = new HashMap<>();
+
+    /**
+     * The timestamp of the newest oplog entry whose item is among the pending ones, or has been applied already
+     */
+    private BSONTimestamp pendingTimestamp;
+
+    private boolean isStarted;
+
+    private IndexSynchronizer() {
+    }
+
+    /**
+     * Get the singleton synchronizer
+     *
+     * @return The synchronizer instance, which does nothing until it is started
+     */
+    public static synchronized IndexSynchronizer getInstance() {
+
+        if (indexSynchronizer == null) {
+            indexSynchronizer = new IndexSynchronizer();
+        }
+
+        return indexSynchronizer;
+
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        // the embedded index belongs to the web process, which synchronizes it itself
+        if (SearchBackendFactory.isEmbedded()) {
+            System.err.println("The embedded search index cannot be written by another process, set SEARCH_INDEX_SYNC=oplog instead");
+            System.exit(1);
+        }
+
+        if (Arrays.asList(args).contains(REINDEX_ARGUMENT)) {
+
+            final int failedCount = getInstance().reindex();
+            System.exit(failedCount == 0 ? 0 : 1);
+
+        }
+
+        getInstance().start(false);
+
+    }
+
+    /**
+     * Start tailing the oplog in the background
+     */
+    public void start() {
+        this.start(true);
+    }
+
+    private synchronized void start(final boolean isDaemon) {
+
+        if (this.isStarted) {
+            return;
+        }
+
+        this.isStarted = true;
+
+        final Thread tailer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                IndexSynchronizer.this.tail();
+            }
+        }, "search-index-sync-tail");
+
+        final Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                IndexSynchronizer.this.flushContinuously();
+            }
+        }, "search-index-sync-flush");
+
+        tailer.setDaemon(isDaemon);
+        flusher.setDaemon(isDaemon);
+
+        tailer.start();
+        flusher.start();
+
+    }
+
+    /**
+     * Follow the oplog forever, starting over whenever the cursor dies or MongoDB cannot be reached
+     */
+    private void tail() {
+
+        while (true) {
+
+            try {
+
+                this.tailOplog();
+
+                // the cursor has died without an error, e. g. because there has not been any entry to wait for
+                Thread.sleep(this.flushInterval);
+
+            } catch (InterruptedException e) {
+
+                return;
+
+            } catch (Exception e) {
+
+                // the tailer must survive anything, otherwise the index would silently stop being updated
+                e.printStackTrace();
+
+                try {
+                    Thread.sleep(this.retryInterval);
+                } catch (InterruptedException interruption) {
+                    return;
+                }
+
+            }
+
+        }
+
+    }
+
+    private void tailOplog() throws UnknownHostException, InterruptedException {
+
+        final DB database = PersistentStorage.getDatabaseConnection();
+        final DBCollection oplog = database.getMongo().getDB("local").getCollection("oplog.rs");
+
+        BSONTimestamp resumeTimestamp;
+
+        synchronized (this.pendingIdentifiers) {
+            resumeTimestamp = this.pendingTimestamp;
+        }
+
+        if (resumeTimestamp == null) {
+            resumeTimestamp = this.readCheckpoint();
+        }
+
+        if (resumeTimestamp == null || isOutOfOplog(oplog, resumeTimestamp)) {
+
+            // whatever happens from now on is caught by the oplog, and whatever happened before by the reindexation
+            resumeTimestamp = findNewestTimestamp(oplog);
+
+            this.reindex();
+            this.writeCheckpoint(resumeTimestamp, Collections.<String>emptyList(), Collections.<String, Integer>emptyMap());
+
+        }
+
+        synchronized (this.pendingIdentifiers) {
+
+            // lets the flusher apply the items restored from the checkpoint before the first entry arrives
+            if (this.pendingTimestamp == null) {
+                this.pendingTimestamp = resumeTimestamp;
+            }
+
+        }
+
+        final BasicDBObject query = new BasicDBObject();
+        query.put("ts", new BasicDBObject("$gt", resumeTimestamp));
+        query.put("ns", database.getName() + "." + DB_TABLE);
+
+        final DBCursor cursor = oplog.find(query)
+                .addOption(Bytes.QUERYOPTION_TAILABLE)
+                .addOption(Bytes.QUERYOPTION_AWAITDATA)
+                .addOption(Bytes.QUERYOPTION_OPLOGREPLAY)
+                .addOption(Bytes.QUERYOPTION_NOTIMEOUT);
+
+        try {
+
+            // blocks until there is another entry, and only returns false once the cursor has died
+            while (cursor.hasNext()) {
+
+                final DBObject entry = cursor.next();
+                final String identifier = getItemIdentifier(entry);
+
+                this.enqueue(identifier, (BSONTimestamp) entry.get("ts"));
+
+            }
+
+        } finally {
+            cursor.close();
+        }
+
+    }
+
+    /**
+     * Take note of a changed item, waiting while the queue is full
+     *
+     * @param identifier The ID of the item, or null if the entry did not concern a single item
+     * @param timestamp  The timestamp of the oplog entry
+     * @throws InterruptedException Thrown if the tailer is being stopped
+     */
+    private void enqueue(final String identifier, final BSONTimestamp timestamp) throws InterruptedException {
+
+        synchronized (this.pendingIdentifiers) {
+
+            // unlike the request path, the tailer can simply fall behind instead of dropping anything
+            while (this.pendingIdentifiers.size() >= this.queueCapacity && !this.pendingIdentifiers.contains(identifier)) {
+                this.pendingIdentifiers.wait(this.flushInterval);
+            }
+
+            if (identifier != null) {
+
+                this.pendingIdentifiers.add(identifier);
+
+                // the item has changed, which may well be what made the search backend reject it
+                this.deferredIdentifiers.remove(identifier);
+                this.failedAttempts.remove(identifier);
+
+            }
+
+            this.pendingTimestamp = timestamp;
+
+            if (this.pendingIdentifiers.size() >= this.batchSize) {
+                this.pendingIdentifiers.notifyAll();
+            }
+
+        }
+
+    }
+
+    private void flushContinuously() {
+
+        try {
+            this.restorePendingIdentifiers();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        while (true) {
+
+            try {
+
+                final List<String> identifiers;
+                final BSONTimestamp timestamp;
+
+                synchronized (this.pendingIdentifiers) {
+
+                    if (this.pendingIdentifiers.size() < this.batchSize) {
+                        this.pendingIdentifiers.wait(this.flushInterval);
+                    }
+
+                    this.resumeDeferredIdentifiers();
+
+                    identifiers = new ArrayList<>(this.pendingIdentifiers);
+                    timestamp = this.pendingTimestamp;
+
+                    this.pendingIdentifiers.clear();
+                    this.pendingIdentifiers.notifyAll();
+
+                }
+
+                if (timestamp != null) {
+                    this.flush(identifiers, timestamp);
+                }
+
+            } catch (InterruptedException e) {
+
+                return;
+
+            } catch (Exception e) {
+
+                // the flusher must survive anything, otherwise the index would silently stop being updated
+                e.printStackTrace();
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Apply the current state of the changed items to the search backend and move the checkpoint forward
+     *
+     * @param identifiers The IDs of the changed items
+     * @param timestamp   The timestamp of the newest oplog entry that is covered by the items
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    private void flush(final List<String> identifiers, final BSONTimestamp timestamp) throws UnknownHostException {
+
+        final List<String> failedIdentifiers = new ArrayList<>();
+
+        for (int batchStart = 0; batchStart < identifiers.size(); batchStart += this.batchSize) {
+
+            final List<String> batchIdentifiers = identifiers.subList(batchStart, Math.min(identifiers.size(), batchStart + this.batchSize));
+
+            // the oplog only tells us that an item has changed, so we index whatever it looks like right now
+            final Map<String, IndexMutation> mutations = new LinkedHashMap<>();
+
+            for (String identifier : batchIdentifiers) {
+                mutations.put(identifier, new IndexMutation(identifier, null));
+            }
+
+            try (TodoItemCursor cursor = TodoItem.openCurrentTodoItemCursor(batchIdentifiers)) {
+
+                while (cursor.hasNext()) {
+                    final TodoItem todoItem = cursor.next();
+                    mutations.put(todoItem.getID(), new IndexMutation(todoItem.getID(), todoItem.toElasticSearchMap()));
+                }
+
+            }
+
+            try {
+                failedIdentifiers.addAll(SearchBackendFactory.getSearchBackend().apply(new ArrayList<>(mutations.values())));
+            } catch (SearchException e) {
+
+                e.printStackTrace();
+                failedIdentifiers.addAll(batchIdentifiers);
+
+            }
+
+        }
+
+        final List<String> retriedIdentifiers;
+        final Map<String, Integer> retriedAttempts;
+
+        synchronized (this.pendingIdentifiers) {
+
+            final Set<String> failedIdentifierSet = new HashSet<>(failedIdentifiers);
+
+            for (String identifier : identifiers) {
+                if (!failedIdentifierSet.contains(identifier)) {
+                    this.failedAttempts.remove(identifier);
+                }
+            }
+
+            for (String identifier : failedIdentifierSet) {
+                this.deferIdentifier(identifier);
+            }
+
+            retriedIdentifiers = new ArrayList<>(this.deferredIdentifiers.keySet());
+            retriedAttempts = new HashMap<>(this.failedAttempts);
+
+        }
+
+        // the items still to be retried are part of the checkpoint, since the oplog entries they stem from are behind it
+        this.writeCheckpoint(timestamp, retriedIdentifiers, retriedAttempts);
+
+    }
+
+    /**
+     * Count a failed attempt to index an item, and schedule the next one, waiting twice as long after every failure, up
+     * to SEARCH_INDEX_RETRY_INTERVAL_MS, or give up on it after SEARCH_INDEX_MAX_ATTEMPTS attempts
+     * Has to be called with the lock of the pending identifiers held.
+     */
+    private void deferIdentifier(final String identifier) {
+
+        final Integer previousAttempts = this.failedAttempts.get(identifier);
+        final int attempts = previousAttempts == null ? 1 : previousAttempts + 1;
+
+        if (attempts >= this.maximumAttempts) {
+
+            // the item is indexed again once it changes, or by the next reindexation
+            System.err.println("Giving up on indexing the item " + identifier + " after " + attempts + " failed attempts");
+
+            this.failedAttempts.remove(identifier);
+            this.deferredIdentifiers.remove(identifier);
+            return;
+
+        }
+
+        final long backoff = Math.min(this.retryInterval, this.flushInterval << Math.min(attempts - 1, 30));
+
+        this.failedAttempts.put(identifier, attempts);
+        this.deferredIdentifiers.put(identifier, System.currentTimeMillis() + backoff);
+
+    }
+
+    /**
+     * Move the rejected items that are due to be retried back into the queue
+     * Has to be called with the lock of the pending identifiers held.
+     */
+    private void resumeDeferredIdentifiers() {
+
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<String, Long>> deferredIterator = this.deferredIdentifiers.entrySet().iterator();
+
+        while (deferredIterator.hasNext()) {
+
+            final Map.Entry<String, Long> deferredIdentifier = deferredIterator.next();
+
+            if (deferredIdentifier.getValue() <= now) {
+                this.pendingIdentifiers.add(deferredIdentifier.getKey());
+                deferredIterator.remove();
+            }
+
+        }
+
+    }
+
+    /**
+     * Index every item stored in MongoDB, reading chunks of the collection in parallel
+     *
+     * @return The number of items that could not be indexed
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     * @throws InterruptedException Thrown if the reindexation is being stopped
+     */
+    public int reindex() throws UnknownHostException, InterruptedException {
+
+        final DBCollection table = PersistentStorage.getDatabaseConnection().getCollection(DB_TABLE);
+
+        final ObjectId firstID = findBoundaryID(table, 1);
+        final ObjectId lastID = findBoundaryID(table, -1);
+
+        if (firstID == null) {
+            return 0;
+        }
+
+        final long startTime = System.currentTimeMillis();
+
+        // ObjectIds start with the second they were created in, so the chunks are ranges of creation time
+        final int firstSecond = firstID.getTimestamp();
+        final int endSecond = lastID.getTimestamp() + 1;
+        final int chunkCount = Math.max(1, this.reindexThreads * CHUNKS_PER_THREAD);
+        final int secondsPerChunk = Math.max(1, (int) Math.ceil((double) (endSecond - firstSecond) / chunkCount));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.reindexThreads));
+        final List<Future<int[]>> chunkResults = new ArrayList<>();
+
+        for (int chunkStart = firstSecond; chunkStart < endSecond; chunkStart += secondsPerChunk) {
+
+            final ObjectId from = chunkStart == firstSecond ? null : buildSmallestID(chunkStart);
+            final ObjectId to = chunkStart + secondsPerChunk >= endSecond ? null : buildSmallestID(chunkStart + secondsPerChunk);
+
+            chunkResults.add(executor.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() throws Exception {
+                    return IndexSynchronizer.this.reindexChunk(from, to);
+                }
+            }));
+
+        }
+
+        executor.shutdown();
+
+        int indexedCount = 0;
+        int failedCount = 0;
+
+        try {
+
+            for (Future<int[]> chunkResult : chunkResults) {
+
+                try {
+
+                    final int[] counts = chunkResult.get();
+                    indexedCount += counts[0];
+                    failedCount += counts[1];
+
+                } catch (ExecutionException e) {
+
+                    // the chunk's items are unaccounted for, so the reindexation as a whole has failed
+                    e.getCause().printStackTrace();
+                    failedCount++;
+
+                }
+
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // stdout directs the output to Heroku's logger
+        System.out.println("Reindexed " + indexedCount + " items in " + chunkResults.size() + " chunks within " + (System.currentTimeMillis() - startTime) + " ms, " + failedCount + " failures");
+
+        return failedCount;
+
+    }
+
+    /**
+     * Index the items of a range of IDs in batches
+     *
+     * @return The number of indexed items and the number of failed items
+     */
+    private int[] reindexChunk(final ObjectId from, final ObjectId to) throws UnknownHostException {
+
+        final SearchBackend searchBackend = SearchBackendFactory.getSearchBackend();
+        final List<IndexMutation> batch = new ArrayList<>(this.batchSize);
+
+        final int[] counts = new int[2];
+
+        try (TodoItemCursor cursor = TodoItem.openTodoItemRangeCursor(from, to)) {
+
+            while (cursor.hasNext()) {
+
+                final TodoItem todoItem = cursor.next();
+                batch.add(new IndexMutation(todoItem.getID(), todoItem.toElasticSearchMap()));
+
+                if (batch.size() >= this.batchSize) {
+                    applyBatch(searchBackend, batch, counts);
+                }
+
+            }
+
+        }
+
+        applyBatch(searchBackend, batch, counts);
+
+        return counts;
+
+    }
+
+    private static void applyBatch(final SearchBackend searchBackend, final List<IndexMutation> batch, final int[] counts) {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Set<String> failedIdentifiers;
+
+        try {
+            failedIdentifiers = searchBackend.apply(batch);
+        } catch (SearchException e) {
+
+            e.printStackTrace();
+
+            failedIdentifiers = new HashSet<>();
+            for (IndexMutation mutation : batch) {
+                failedIdentifiers.add(mutation.getIdentifier());
+            }
+
+        }
+
+        if (!failedIdentifiers.isEmpty()) {
+
+            // stderr directs the output to Heroku's logger
+            System.err.println("Failed to reindex the items " + failedIdentifiers);
+
+        }
+
+        counts[0] += batch.size() - failedIdentifiers.size();
+        counts[1] += failedIdentifiers.size();
+
+        batch.clear();
+
+    }
+
+    /**
+     * Get the ID of the item an oplog entry is about
+     *
+     * @param entry The oplog entry
+     * @return The ID, or null if the entry is not about a single item
+     */
+    private static String getItemIdentifier(final DBObject entry) {
+
+        // inserts and removals carry the ID in the document, updates in the query
+        final Object document = "u".equals(entry.get("op")) ? entry.get("o2") : entry.get("o");
+
+        if (!(document instanceof DBObject)) {
+            return null;
+        }
+
+        final Object identifier = ((DBObject) document).get("_id");
+        return identifier instanceof ObjectId ? identifier.toString() : null;
+
+    }
+
+    private static boolean isOutOfOplog(final DBCollection oplog, final BSONTimestamp timestamp) {
+
+        final BSONTimestamp oldestTimestamp = findBoundaryTimestamp(oplog, 1);
+
+        // entries after the timestamp have already been overwritten, so we cannot tell which items they were about
+        return oldestTimestamp != null && oldestTimestamp.compareTo(timestamp) > 0;
+
+    }
+
+    private static BSONTimestamp findNewestTimestamp(final DBCollection oplog) {
+
+        final BSONTimestamp newestTimestamp = findBoundaryTimestamp(oplog, -1);
+        return newestTimestamp == null ? new BSONTimestamp(0, 0) : newestTimestamp;
+
+    }
+
+    private static BSONTimestamp findBoundaryTimestamp(final DBCollection oplog, final int naturalOrder) {
+
+        try (DBCursor cursor = oplog.find(new BasicDBObject(), new BasicDBObject("ts", 1)).sort(new BasicDBObject("$natural", naturalOrder)).limit(1)) {
+            return cursor.hasNext() ? (BSONTimestamp) cursor.next().get("ts") : null;
+        }
+
+    }
+
+    private static ObjectId findBoundaryID(final DBCollection table, final int order) {
+
+        try (DBCursor cursor = table.find(new BasicDBObject(), new BasicDBObject("_id", 1)).sort(new BasicDBObject("_id", order)).limit(1)) {
+            return cursor.hasNext() ? (ObjectId) cursor.next().get("_id") : null;
+        }
+
+    }
+
+    private static ObjectId buildSmallestID(final int second) {
+
+        // an ObjectId starts with the big-endian seconds, and zeros in the remaining 8 bytes make it the smallest one
+        return new ObjectId(ByteBuffer.allocate(12).putInt(second).array());
+
+    }
+
+    private BSONTimestamp readCheckpoint() throws UnknownHostException {
+
+        final DBObject checkpoint = getCheckpointTable().findOne(new BasicDBObject("_id", CHECKPOINT_ID));
+        return checkpoint == null ? null : (BSONTimestamp) checkpoint.get("ts");
+
+    }
+
+    /**
+     * Put the items whose indexation has failed before the last shutdown back into the queue
+     */
+    private void restorePendingIdentifiers() throws UnknownHostException {
+
+        final DBObject checkpoint = getCheckpointTable().findOne(new BasicDBObject("_id", CHECKPOINT_ID));
+
+        if (checkpoint == null || !(checkpoint.get("pending") instanceof List)) {
+            return;
+        }
+
+        final DBObject attempts = checkpoint.get("attempts") instanceof DBObject ? (DBObject) checkpoint.get("attempts") : new BasicDBObject();
+
+        synchronized (this.pendingIdentifiers) {
+            for (Object identifier : (List<?>) checkpoint.get("pending")) {
+
+                this.pendingIdentifiers.add(identifier.toString());
+
+                // the attempts are carried over, such that restarting does not make an item be retried forever
+                if (attempts.get(identifier.toString()) instanceof Number) {
+                    this.failedAttempts.put(identifier.toString(), ((Number) attempts.get(identifier.toString())).intValue());
+                }
+
+            }
+        }
+
+    }
+
+    private void writeCheckpoint(final BSONTimestamp timestamp, final List<String> failedIdentifiers, final Map<String, Integer> failedAttempts) throws UnknownHostException {
+
+        final BasicDBObject checkpoint = new BasicDBObject();
+        checkpoint.append("ts", timestamp);
+        checkpoint.append("pending", failedIdentifiers);
+        checkpoint.append("attempts", new BasicDBObject(failedAttempts));
+        checkpoint.append("updated_at", new Date());
+
+        getCheckpointTable().update(new BasicDBObject("_id", CHECKPOINT_ID), new BasicDBObject("$set", checkpoint), true, false);
+
+    }
+
+    private static DBCollection getCheckpointTable() throws UnknownHostException {
+        return PersistentStorage.getDatabaseConnection().getCollection(CHECKPOINT_TABLE);
+    }
+
+}
@@ -4,7 +4,7 @@ package com.arik.search;
  * A class for easier discrimination of error sources
  * Unfortunately, Jest does not provide specifically typed Exception objects
  */
-public class JestException extends Exception {
+public class JestException extends SearchException {
 
     /**
      * Constructs a new exception with the specified cause and a detail
@@ -0,0 +1,144 @@
+package com.arik.search;
+
+import com.arik.json.JSONStreamWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A search query preset compiled into literal segments and parameter slots
+ * The preset is split once at load time, so filling in the parameters is a single pass over the segments which escapes
+ * the values straight into the output.
+ */
+public class QueryTemplate {
+
+    private static final String SLOT_START = "{";
+    private static final String SLOT_END = "}";
+
+    /**
+     * The text between the slots; there is always one more literal than there are slots
+     */
+    private final String[] literals;
+
+    private final String[] slotNames;
+
+    private final int literalsLength;
+
+    private QueryTemplate(final String[] literals, final String[] slotNames) {
+
+        this.literals = literals;
+        this.slotNames = slotNames;
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalsLength = length;
+
+    }
+
+    /**
+     * Compile a preset, treating every {UPPER_CASE_NAME} as a parameter slot
+     *
+     * @param preset The text of the preset
+     * @return The compiled template
+     */
+    public static QueryTemplate compile(final String preset) {
+
+        final List<String> literals = new ArrayList<>();
+        final List<String> slotNames = new ArrayList<>();
+
+        int literalStart = 0;
+        int searchStart = 0;
+
+        while (true) {
+
+            final int slotStart = preset.indexOf(SLOT_START, searchStart);
+
+            if (slotStart < 0) {
+                break;
+            }
+
+            final int slotEnd = preset.indexOf(SLOT_END, slotStart);
+
+            if (slotEnd < 0) {
+                break;
+            }
+
+            final String slotName = preset.substring(slotStart + SLOT_START.length(), slotEnd);
+
+            // JSON objects use braces as well, so only upper case names count as slots
+            if (!isSlotName(slotName)) {
+                searchStart = slotStart + SLOT_START.length();
+                continue;
+            }
+
+            literals.add(preset.substring(literalStart, slotStart));
+            slotNames.add(slotName);
+
+            literalStart = slotEnd + SLOT_END.length();
+            searchStart = literalStart;
+
+        }
+
+        literals.add(preset.substring(literalStart));
+
+        return new QueryTemplate(literals.toArray(new String[literals.size()]), slotNames.toArray(new String[slotNames.size()]));
+
+    }
+
+    private static boolean isSlotName(final String candidate) {
+
+        if (candidate.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < candidate.length(); i++) {
+
+            final char character = candidate.charAt(i);
+
+            if (!(character >= 'A' && character <= 'Z') && character != '_' && !(character >= '0' && character <= '9')) {
+                return false;
+            }
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Fill in the parameters
+     * The values are escaped as JSON string contents in order to prevent search injection, so the slots must be placed
+     * within quotes in the preset.
+     *
+     * @param parameters The values of the slots by name (missing ones are left empty)
+     * @return The query
+     */
+    public String render(final Map<String, String> parameters) {
+
+        int capacity = this.literalsLength;
+        for (String slotName : this.slotNames) {
+            final String value = parameters.get(slotName);
+            capacity += value == null ? 0 : value.length() + 16;
+        }
+
+        final StringBuilder query = new StringBuilder(capacity);
+
+        for (int i = 0; i < this.slotNames.length; i++) {
+            query.append(this.literals[i]);
+            JSONStreamWriter.appendEscaped(query, parameters.get(this.slotNames[i]));
+        }
+
+        query.append(this.literals[this.literals.length - 1]);
+
+        return query.toString();
+
+    }
+
+    public String[] getSlotNames() {
+        return this.slotNames.clone();
+    }
+
+}
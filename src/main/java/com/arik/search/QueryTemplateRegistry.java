@@ -0,0 +1,249 @@
+package com.arik.search;
+
+import com.arik.Configuration;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Holds the compiled search query presets by name
+ * The presets bundled with the application are read from the classpath (which also works from within a jar). If
+ * SEARCH_QUERY_PRESET_DIR is set, the presets are read from that directory instead and reloaded whenever it changes.
+ * A preset named todo-query-preset.json is the default one, todo-query-preset-NAME.json is the one named NAME.
+ */
+public class QueryTemplateRegistry {
+
+    public static final String DEFAULT_PRESET = "default";
+
+    private static final String PRESET_PREFIX = "todo-query-preset";
+    private static final String PRESET_SUFFIX = ".json";
+
+    private static final String[] BUNDLED_PRESETS = {DEFAULT_PRESET, "fuzzy", "prefix", "phrase"};
+
+    private static QueryTemplateRegistry registry;
+
+    private final String presetDirectory = Configuration.getString("SEARCH_QUERY_PRESET_DIR", null);
+
+    /**
+     * Replaced as a whole on reload, so readers never see a partially loaded set of presets
+     */
+    private volatile Map<String, QueryTemplate> templates;
+
+    private QueryTemplateRegistry() {
+    }
+
+    /**
+     * Get the singleton registry, loading the presets if necessary
+     *
+     * @return The registry instance
+     */
+    public static synchronized QueryTemplateRegistry getInstance() {
+
+        if (registry != null) {
+            return registry;
+        }
+
+        final QueryTemplateRegistry newRegistry = new QueryTemplateRegistry();
+
+        try {
+
+            if (newRegistry.presetDirectory == null) {
+                newRegistry.templates = loadFromClasspath();
+            } else {
+                newRegistry.templates = loadFromDirectory(Paths.get(newRegistry.presetDirectory));
+                newRegistry.watchPresetDirectory();
+            }
+
+        } catch (IOException | ParseException e) {
+
+            // without presets, search cannot work at all, which is a configuration error
+            throw new IllegalStateException("The search query presets could not be loaded", e);
+
+        }
+
+        registry = newRegistry;
+        return registry;
+
+    }
+
+    /**
+     * Get a compiled preset
+     *
+     * @param name The name of the preset
+     * @return The template, or null if there is no preset with that name
+     */
+    public QueryTemplate getTemplate(final String name) {
+        return this.templates.get(name);
+    }
+
+    public Set<String> getPresetNames() {
+        return this.templates.keySet();
+    }
+
+    private static Map<String, QueryTemplate> loadFromClasspath() throws IOException, ParseException {
+
+        final Map<String, QueryTemplate> templates = new HashMap<>();
+
+        for (String name : BUNDLED_PRESETS) {
+
+            final String resourceName = getFileName(name);
+
+            try (InputStream presetStream = QueryTemplateRegistry.class.getClassLoader().getResourceAsStream(resourceName)) {
+
+                if (presetStream == null) {
+                    throw new IOException("Missing search query preset " + resourceName);
+                }
+
+                templates.put(name, compile(readFully(presetStream)));
+
+            }
+
+        }
+
+        return Collections.unmodifiableMap(templates);
+
+    }
+
+    private static Map<String, QueryTemplate> loadFromDirectory(final Path directory) throws IOException, ParseException {
+
+        final Map<String, QueryTemplate> templates = new HashMap<>();
+
+        try (DirectoryStream<Path> presetFiles = Files.newDirectoryStream(directory, PRESET_PREFIX + "*" + PRESET_SUFFIX)) {
+
+            for (Path presetFile : presetFiles) {
+
+                final String name = getPresetName(presetFile.getFileName().toString());
+                templates.put(name, compile(new String(Files.readAllBytes(presetFile), StandardCharsets.UTF_8)));
+
+            }
+
+        }
+
+        if (!templates.containsKey(DEFAULT_PRESET)) {
+            throw new IOException("Missing search query preset " + getFileName(DEFAULT_PRESET) + " in " + directory);
+        }
+
+        return Collections.unmodifiableMap(templates);
+
+    }
+
+    /**
+     * Reload the presets in the background whenever a file in the preset directory changes
+     *
+     * @throws IOException Thrown if the directory cannot be watched
+     */
+    private void watchPresetDirectory() throws IOException {
+
+        final Path directory = Paths.get(this.presetDirectory);
+        final WatchService watchService = directory.getFileSystem().newWatchService();
+
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+        final Thread watcher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+
+                while (true) {
+
+                    final WatchKey key;
+
+                    try {
+                        key = watchService.take();
+                    } catch (InterruptedException | ClosedWatchServiceException e) {
+                        return;
+                    }
+
+                    key.pollEvents();
+
+                    try {
+                        QueryTemplateRegistry.this.templates = loadFromDirectory(directory);
+                    } catch (IOException | ParseException e) {
+
+                        // we keep serving the previous presets until the broken one is fixed
+                        System.err.println("Failed to reload the search query presets from " + directory);
+                        e.printStackTrace();
+
+                    }
+
+                    if (!key.reset()) {
+                        return;
+                    }
+
+                }
+
+            }
+
+        }, "query-preset-watcher");
+
+        watcher.setDaemon(true);
+        watcher.start();
+
+    }
+
+    /**
+     * Compile a preset and make sure it yields valid JSON
+     *
+     * @param preset The text of the preset
+     * @return The compiled template
+     * @throws ParseException Thrown if the preset is not valid JSON once its slots are filled in
+     */
+    private static QueryTemplate compile(final String preset) throws ParseException {
+
+        final QueryTemplate template = QueryTemplate.compile(preset);
+
+        final Map<String, String> sampleParameters = new HashMap<>();
+        for (String slotName : template.getSlotNames()) {
+            sampleParameters.put(slotName, "sample");
+        }
+
+        new JSONParser().parse(template.render(sampleParameters));
+
+        return template;
+
+    }
+
+    private static String getFileName(final String presetName) {
+
+        if (presetName.equals(DEFAULT_PRESET)) {
+            return PRESET_PREFIX + PRESET_SUFFIX;
+        }
+
+        return PRESET_PREFIX + "-" + presetName + PRESET_SUFFIX;
+
+    }
+
+    private static String getPresetName(final String fileName) {
+
+        final String name = fileName.substring(PRESET_PREFIX.length(), fileName.length() - PRESET_SUFFIX.length());
+
+        if (name.isEmpty()) {
+            return DEFAULT_PRESET;
+        }
+
+        // todo-query-preset-fuzzy.json is named fuzzy
+        return name.startsWith("-") ? name.substring(1) : name;
+
+    }
+
+    private static String readFully(final InputStream inputStream) throws IOException {
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final byte[] chunk = new byte[4096];
+
+        int length;
+        while ((length = inputStream.read(chunk)) != -1) {
+            buffer.write(chunk, 0, length);
+        }
+
+        return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.arik.search;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A search engine holding the title, body, and done state of the to-do items
+ * The queries are the rendered query presets, i. e. Elasticsearch query DSL, which backends other than Elasticsearch
+ * interpret as far as they support it.
+ */
+public interface SearchBackend {
+
+    /**
+     * Index and remove items
+     *
+     * @param mutations The changes to apply, at most one per item
+     * @return The IDs of the items whose changes could not be applied
+     * @throws SearchException Thrown if none of the changes could be applied
+     */
+    Set<String> apply(List<IndexMutation> mutations) throws SearchException;
+
+    /**
+     * Search the items
+     *
+     * @param query The query
+     * @return The matches by decreasing relevance
+     * @throws SearchException Thrown if the search could not be executed
+     */
+    List<SearchHit> search(String query) throws SearchException;
+
+}
@@ -0,0 +1,48 @@
+package com.arik.search;
+
+import com.arik.Configuration;
+import com.arik.search.embedded.EmbeddedSearchBackend;
+
+/**
+ * Provides the search backend chosen by SEARCH_BACKEND, which is either elasticsearch (Searchly, the default) or
+ * embedded (an in-process index for single-node deployments)
+ */
+public class SearchBackendFactory {
+
+    private static final String BACKEND_NAME = Configuration.getString("SEARCH_BACKEND", "elasticsearch");
+
+    private static SearchBackend searchBackend;
+
+    /**
+     * Get the static singleton search backend
+     *
+     * @return The configured search backend
+     */
+    public static synchronized SearchBackend getSearchBackend() {
+
+        if (searchBackend != null) {
+            return searchBackend;
+        }
+
+        if (isEmbedded()) {
+            searchBackend = EmbeddedSearchBackend.getInstance();
+        } else if (BACKEND_NAME.equalsIgnoreCase("elasticsearch")) {
+            searchBackend = new ElasticsearchBackend();
+        } else {
+            throw new IllegalStateException("Unknown search backend " + BACKEND_NAME + ", use elasticsearch or embedded");
+        }
+
+        return searchBackend;
+
+    }
+
+    /**
+     * Check whether the embedded index is configured, without opening it
+     *
+     * @return True if SEARCH_BACKEND is embedded
+     */
+    public static boolean isEmbedded() {
+        return BACKEND_NAME.equalsIgnoreCase("embedded");
+    }
+
+}
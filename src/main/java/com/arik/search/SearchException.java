@@ -0,0 +1,22 @@
+package com.arik.search;
+
+/**
+ * Thrown when the search backend, be it Searchly or the embedded index, fails to index or to search
+ */
+public class SearchException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public SearchException(final String message) {
+        super(message);
+    }
+
+    public SearchException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    public SearchException(final Throwable cause) {
+        super(cause);
+    }
+
+}
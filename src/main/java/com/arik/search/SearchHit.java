@@ -0,0 +1,30 @@
+package com.arik.search;
+
+import java.util.Map;
+
+/**
+ * A single search result
+ */
+public class SearchHit {
+
+    private final String identifier;
+
+    /**
+     * The fields stored in the index, which may be missing (e. g. for items indexed by an older version)
+     */
+    private final Map<?, ?> source;
+
+    public SearchHit(final String identifier, final Map<?, ?> source) {
+        this.identifier = identifier;
+        this.source = source;
+    }
+
+    public String getIdentifier() {
+        return this.identifier;
+    }
+
+    public Map<?, ?> getSource() {
+        return this.source;
+    }
+
+}
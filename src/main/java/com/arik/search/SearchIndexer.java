@@ -0,0 +1,437 @@
+package com.arik.search;
+
+import com.arik.Configuration;
+import com.arik.models.TodoItem;
+import com.arik.models.TodoItemCursor;
+import com.arik.persistence.PersistentStorage;
+import com.arik.resilience.BackendUnavailableException;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.MongoException;
+
+import java.net.UnknownHostException;
+import java.util.*;
+
+/**
+ * Keeps the search index up to date in the background, such that write requests only pay for the MongoDB round trip
+ * Mutations are coalesced by item ID in a bounded queue and applied to the search backend in batches whenever a batch is
+ * full or the flush interval has passed. Items whose indexation fails are recorded in a retry log in MongoDB and re-indexed from
+ * their current state later on, so the index is eventually consistent.
+ */
+public class SearchIndexer implements Runnable {
+
+    private static final String RETRY_LOG_TABLE = "search-index-retries";
+
+    private static SearchIndexer searchIndexer;
+
+    private final int batchSize = Configuration.getInt("SEARCH_INDEX_BATCH_SIZE", 500);
+    private final int queueCapacity = Configuration.getInt("SEARCH_INDEX_QUEUE_CAPACITY", 10000);
+    private final long flushInterval = Configuration.getLong("SEARCH_INDEX_FLUSH_INTERVAL_MS", 1000);
+    private final long retryInterval = Configuration.getLong("SEARCH_INDEX_RETRY_INTERVAL_MS", 30000);
+
+    /**
+     * The number of failed attempts after which an item is left in the retry log for inspection, but no longer replayed
+     */
+    private final int maximumAttempts = Configuration.getInt("SEARCH_INDEX_MAX_ATTEMPTS", 10);
+
+    /**
+     * Whether the writes of the requests are indexed right away, rather than picked up from the oplog by the
+     * IndexSynchronizer
+     */
+    private final boolean isIndexingWrites = Configuration.getString("SEARCH_INDEX_SYNC", "requests").equalsIgnoreCase("requests");
+
+    /**
+     * The mutations that have yet to be sent, by item ID
+     * Only the latest mutation of an item matters, so a newer one simply replaces the pending one
+     */
+    private final LinkedHashMap<String, IndexMutation> pendingMutations = new LinkedHashMap<>();
+
+    /**
+     * IDs read from the retry log that are to be removed from it once they have been indexed successfully
+     * Only ever accessed by the worker thread
+     */
+    private final Set<String> retriedIdentifiers = new HashSet<>();
+
+    private SearchIndexer() {
+    }
+
+    /**
+     * Get the singleton indexer, starting its worker thread if necessary
+     *
+     * @return The indexer instance
+     */
+    public static synchronized SearchIndexer getInstance() {
+
+        if (searchIndexer != null) {
+            return searchIndexer;
+        }
+
+        searchIndexer = new SearchIndexer();
+
+        final Thread worker = new Thread(searchIndexer, "search-indexer");
+        worker.setDaemon(true);
+        worker.start();
+
+        // whatever has not been flushed when the dyno goes down must at least end up in the retry log
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                searchIndexer.persistPendingMutations();
+            }
+        }, "search-indexer-shutdown"));
+
+        return searchIndexer;
+
+    }
+
+    /**
+     * Schedule an item to be (re-)indexed
+     *
+     * @param identifier The ID of the item
+     * @param source     The fields to be indexed
+     */
+    public void index(final String identifier, final Map<String, Object> source) {
+        this.enqueue(new IndexMutation(identifier, source));
+    }
+
+    /**
+     * Schedule an item to be removed from the index
+     *
+     * @param identifier The ID of the item
+     */
+    public void delete(final String identifier) {
+        this.enqueue(new IndexMutation(identifier, null));
+    }
+
+    /**
+     * Get the number of mutations waiting to be flushed
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+
+        synchronized (this.pendingMutations) {
+            return this.pendingMutations.size();
+        }
+
+    }
+
+    private void enqueue(final IndexMutation mutation) {
+
+        if (!this.isIndexingWrites) {
+            return;
+        }
+
+        synchronized (this.pendingMutations) {
+
+            // replacing a pending mutation does not grow the queue, so it is always permitted
+            if (this.pendingMutations.containsKey(mutation.getIdentifier()) || this.pendingMutations.size() < this.queueCapacity) {
+
+                this.pendingMutations.put(mutation.getIdentifier(), mutation);
+
+                if (this.pendingMutations.size() >= this.batchSize) {
+                    this.pendingMutations.notifyAll();
+                }
+
+                return;
+
+            }
+
+        }
+
+        // the queue is full, and rather than blocking the request, we let the retry log take care of the item
+        this.logForRetry(Collections.singletonList(mutation.getIdentifier()), "The indexing queue is full");
+
+    }
+
+    @Override
+    public void run() {
+
+        long nextRetry = System.currentTimeMillis() + this.retryInterval;
+
+        while (true) {
+
+            try {
+
+                final List<IndexMutation> batch = this.takeBatch();
+
+                if (!batch.isEmpty()) {
+                    this.flush(batch);
+                }
+
+                if (System.currentTimeMillis() >= nextRetry) {
+                    this.replayRetryLog();
+                    nextRetry = System.currentTimeMillis() + this.retryInterval;
+                }
+
+            } catch (InterruptedException e) {
+
+                return;
+
+            } catch (Exception e) {
+
+                // the worker must survive anything, otherwise the index would silently stop being updated
+                e.printStackTrace();
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Wait until a batch is full or the flush interval has passed, and take the pending mutations off the queue
+     *
+     * @return Up to batchSize mutations
+     * @throws InterruptedException Thrown if the worker is being stopped
+     */
+    private List<IndexMutation> takeBatch() throws InterruptedException {
+
+        synchronized (this.pendingMutations) {
+
+            if (this.pendingMutations.size() < this.batchSize) {
+                this.pendingMutations.wait(this.flushInterval);
+            }
+
+            final List<IndexMutation> batch = new ArrayList<>(Math.min(this.pendingMutations.size(), this.batchSize));
+            final Iterator<IndexMutation> iterator = this.pendingMutations.values().iterator();
+
+            while (iterator.hasNext() && batch.size() < this.batchSize) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+
+            return batch;
+
+        }
+
+    }
+
+    /**
+     * Apply a batch of mutations to the search backend at once
+     *
+     * @param queuedBatch The mutations to apply, which may contain refresh placeholders
+     */
+    private void flush(final List<IndexMutation> queuedBatch) {
+
+        final List<IndexMutation> batch = this.readRefreshedItems(queuedBatch);
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final Set<String> failedIdentifiers;
+
+        try {
+            failedIdentifiers = SearchBackendFactory.getSearchBackend().apply(batch);
+        } catch (SearchException e) {
+
+            e.printStackTrace();
+            this.logForRetry(identifiersOf(batch), e.toString());
+            return;
+
+        }
+
+        if (!failedIdentifiers.isEmpty()) {
+            this.logForRetry(new ArrayList<>(failedIdentifiers), "The search backend rejected the item");
+        }
+
+        if (this.retriedIdentifiers.isEmpty()) {
+            return;
+        }
+
+        final List<String> recoveredIdentifiers = new ArrayList<>();
+
+        for (IndexMutation mutation : batch) {
+
+            if (this.retriedIdentifiers.remove(mutation.getIdentifier()) && !failedIdentifiers.contains(mutation.getIdentifier())) {
+                recoveredIdentifiers.add(mutation.getIdentifier());
+            }
+
+        }
+
+        this.removeFromRetryLog(recoveredIdentifiers);
+
+    }
+
+    /**
+     * Replace the refresh placeholders of a batch with the current state of their items
+     * The items are read only now, after the batch has been taken off the queue, so any save that is not reflected yet
+     * queues a newer mutation, which is applied after this batch.
+     *
+     * @param queuedBatch The mutations taken off the queue
+     * @return The mutations to apply, leaving out the placeholders whose items could not be read
+     */
+    private List<IndexMutation> readRefreshedItems(final List<IndexMutation> queuedBatch) {
+
+        final Map<String, IndexMutation> refreshedMutations = new LinkedHashMap<>();
+
+        for (IndexMutation mutation : queuedBatch) {
+            if (mutation.isRefresh()) {
+                // an item that no longer exists is removed from the index
+                refreshedMutations.put(mutation.getIdentifier(), new IndexMutation(mutation.getIdentifier(), null));
+            }
+        }
+
+        if (refreshedMutations.isEmpty()) {
+            return queuedBatch;
+        }
+
+        final List<IndexMutation> batch = new ArrayList<>(queuedBatch.size());
+
+        try (TodoItemCursor cursor = TodoItem.openCurrentTodoItemCursor(refreshedMutations.keySet())) {
+
+            while (cursor.hasNext()) {
+                final TodoItem todoItem = cursor.next();
+                refreshedMutations.put(todoItem.getID(), new IndexMutation(todoItem.getID(), todoItem.toElasticSearchMap()));
+            }
+
+        } catch (UnknownHostException | MongoException | BackendUnavailableException e) {
+
+            // the items stay in the retry log, and the rest of the batch does not depend on MongoDB
+            e.printStackTrace();
+            this.logForRetry(new ArrayList<>(refreshedMutations.keySet()), e.toString());
+            refreshedMutations.clear();
+
+        }
+
+        for (IndexMutation mutation : queuedBatch) {
+
+            if (!mutation.isRefresh()) {
+                batch.add(mutation);
+            } else if (refreshedMutations.containsKey(mutation.getIdentifier())) {
+                batch.add(refreshedMutations.get(mutation.getIdentifier()));
+            }
+
+        }
+
+        return batch;
+
+    }
+
+    /**
+     * Queue the items of the retry log for re-indexation based on their current state in MongoDB
+     * The items that have been tried least recently come first, so items the search backend keeps rejecting cannot hold
+     * back the ones behind them.
+     *
+     * @throws UnknownHostException Thrown if there is an issue with MongoDB
+     */
+    private void replayRetryLog() throws UnknownHostException {
+
+        final DBCollection retryLog = getRetryLog();
+        final List<String> identifiers = new ArrayList<>();
+
+        final BasicDBObject query = new BasicDBObject("attempts", new BasicDBObject("$lt", this.maximumAttempts));
+
+        try (DBCursor cursor = retryLog.find(query).sort(new BasicDBObject("last_attempt", 1)).limit(this.batchSize)) {
+
+            while (cursor.hasNext()) {
+                identifiers.add((String) cursor.next().get("_id"));
+            }
+
+        }
+
+        for (String identifier : identifiers) {
+
+            synchronized (this.pendingMutations) {
+
+                // the logged mutation may be stale, so the item is read when its batch is flushed, unless a save has
+                // already queued a mutation, which is at least as recent
+                if (!this.pendingMutations.containsKey(identifier)) {
+                    this.pendingMutations.put(identifier, IndexMutation.refresh(identifier));
+                }
+
+            }
+
+            this.retriedIdentifiers.add(identifier);
+
+        }
+
+    }
+
+    /**
+     * Record items in the durable retry log
+     *
+     * @param identifiers  The IDs of the items whose indexation has failed
+     * @param errorMessage The reason of the failure
+     */
+    private void logForRetry(final List<String> identifiers, final String errorMessage) {
+
+        try {
+
+            final DBCollection retryLog = getRetryLog();
+
+            for (String identifier : identifiers) {
+
+                final BasicDBObject update = new BasicDBObject();
+                update.append("$setOnInsert", new BasicDBObject("queued_at", new Date()));
+                update.append("$set", new BasicDBObject("last_error", errorMessage).append("last_attempt", new Date()));
+                update.append("$inc", new BasicDBObject("attempts", 1));
+
+                retryLog.update(new BasicDBObject("_id", identifier), update, true, false);
+
+            }
+
+        } catch (Exception e) {
+
+            // stderr directs the output to Heroku's logger, which is the last trace these items leave
+            System.err.println("Failed to log items for re-indexation: " + identifiers);
+            e.printStackTrace();
+
+        }
+
+    }
+
+    private void removeFromRetryLog(final List<String> identifiers) {
+
+        if (identifiers.isEmpty()) {
+            return;
+        }
+
+        try {
+            getRetryLog().remove(new BasicDBObject("_id", new BasicDBObject("$in", identifiers)));
+        } catch (Exception e) {
+
+            // the items will simply be re-indexed once more
+            e.printStackTrace();
+
+        }
+
+    }
+
+    /**
+     * Move everything that has not been flushed yet to the retry log
+     */
+    private void persistPendingMutations() {
+
+        final List<String> identifiers;
+
+        synchronized (this.pendingMutations) {
+            identifiers = new ArrayList<>(this.pendingMutations.keySet());
+            this.pendingMutations.clear();
+        }
+
+        if (!identifiers.isEmpty()) {
+            this.logForRetry(identifiers, "The application was shut down before the item was indexed");
+        }
+
+    }
+
+    private static DBCollection getRetryLog() throws UnknownHostException {
+        return PersistentStorage.getDatabaseConnection().getCollection(RETRY_LOG_TABLE);
+    }
+
+    private static List<String> identifiersOf(final List<IndexMutation> mutations) {
+
+        final List<String> identifiers = new ArrayList<>(mutations.size());
+
+        for (IndexMutation mutation : mutations) {
+            identifiers.add(mutation.getIdentifier());
+        }
+
+        return identifiers;
+
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.arik.search;
 
+import com.arik.Configuration;
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
 import io.searchbox.client.config.HttpClientConfig;
@@ -22,7 +23,8 @@ public class SearchlyConnector {
             return jestClient;
         }
 
-        String connectionURL = System.getenv("SEARCHBOX_URL");
+        // a system property may point us at a different server, e. g. the stand-in of the load test
+        String connectionURL = Configuration.getString("SEARCHBOX_URL", null);
 
         JestClientFactory factory = new JestClientFactory();
         factory.setHttpClientConfig(new HttpClientConfig.Builder(connectionURL).multiThreaded(true).build());
@@ -0,0 +1,552 @@
+package com.arik.search.embedded;
+
+import com.arik.search.SearchException;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import java.util.*;
+
+/**
+ * The subset of the Elasticsearch query DSL used by the query presets, executed against the embedded index
+ * Supported are query_string queries (terms, "quoted phrases", and * and ? wildcards, combined with OR), and multi_match
+ * queries of the types best_fields (optionally with fuzziness), phrase, and phrase_prefix, along with field boosts such as
+ * title^3, and the size and from parameters.
+ */
+class EmbeddedQuery {
+
+    /**
+     * Elasticsearch returns ten hits unless a size is given
+     */
+    private static final int DEFAULT_SIZE = 10;
+
+    /**
+     * The largest number of terms a wildcard or fuzzy term is expanded to, like Elasticsearch's max_expansions
+     */
+    private static final int MAXIMUM_EXPANSIONS = 1024;
+    private static final int MAXIMUM_PREFIX_EXPANSIONS = 50;
+
+    private enum Type {
+        QUERY_STRING, BEST_FIELDS, PHRASE, PHRASE_PREFIX
+    }
+
+    private final Type type;
+    private final String queryText;
+    private final int[] fields;
+    private final double[] boosts;
+
+    /**
+     * The number of edits a term may be away from a query term, or -1 for AUTO, or 0 if the query is not fuzzy
+     */
+    private final int fuzziness;
+
+    private final int from;
+    private final int size;
+
+    private EmbeddedQuery(final Type type, final String queryText, final int[] fields, final double[] boosts, final int fuzziness, final int from, final int size) {
+        this.type = type;
+        this.queryText = queryText;
+        this.fields = fields;
+        this.boosts = boosts;
+        this.fuzziness = fuzziness;
+        this.from = from;
+        this.size = size;
+    }
+
+    /**
+     * Parse a rendered query preset
+     *
+     * @param json The query
+     * @return The query
+     * @throws SearchException Thrown if the query uses anything the embedded index does not support
+     */
+    static EmbeddedQuery parse(final String json) throws SearchException {
+
+        final Object parsedQuery = JSONValue.parse(json);
+
+        if (!(parsedQuery instanceof JSONObject) || !(((JSONObject) parsedQuery).get("query") instanceof JSONObject)) {
+            throw new SearchException("The embedded search index only supports queries with a query object");
+        }
+
+        final JSONObject root = (JSONObject) parsedQuery;
+        final JSONObject query = (JSONObject) root.get("query");
+
+        final int from = getInt(root, "from", 0);
+        final int size = getInt(root, "size", DEFAULT_SIZE);
+
+        if (query.get("query_string") instanceof JSONObject) {
+
+            final JSONObject queryString = (JSONObject) query.get("query_string");
+            return build(Type.QUERY_STRING, queryString, 0, from, size);
+
+        }
+
+        if (query.get("multi_match") instanceof JSONObject) {
+
+            final JSONObject multiMatch = (JSONObject) query.get("multi_match");
+            final Object typeName = multiMatch.get("type");
+
+            final Type type;
+            if (typeName == null || typeName.equals("best_fields")) {
+                type = Type.BEST_FIELDS;
+            } else if (typeName.equals("phrase")) {
+                type = Type.PHRASE;
+            } else if (typeName.equals("phrase_prefix")) {
+                type = Type.PHRASE_PREFIX;
+            } else {
+                throw new SearchException("The embedded search index does not support multi_match queries of the type " + typeName);
+            }
+
+            return build(type, multiMatch, parseFuzziness(multiMatch.get("fuzziness")), from, size);
+
+        }
+
+        throw new SearchException("The embedded search index only supports query_string and multi_match queries");
+
+    }
+
+    private static EmbeddedQuery build(final Type type, final JSONObject clause, final int fuzziness, final int from, final int size) throws SearchException {
+
+        if (!(clause.get("query") instanceof String)) {
+            throw new SearchException("The query is missing");
+        }
+
+        final List<String> fieldNames = new ArrayList<>();
+
+        if (clause.get("fields") instanceof JSONArray) {
+            for (Object fieldName : (JSONArray) clause.get("fields")) {
+                fieldNames.add(String.valueOf(fieldName));
+            }
+        } else {
+            fieldNames.addAll(Arrays.asList(InvertedIndex.FIELDS));
+        }
+
+        final int[] fields = new int[fieldNames.size()];
+        final double[] boosts = new double[fieldNames.size()];
+
+        for (int i = 0; i < fieldNames.size(); i++) {
+
+            // e. g. title^3
+            final String[] fieldAndBoost = fieldNames.get(i).split("\\^", 2);
+
+            fields[i] = InvertedIndex.getFieldIndex(fieldAndBoost[0]);
+
+            if (fields[i] < 0) {
+                throw new SearchException("The embedded search index does not contain the field " + fieldAndBoost[0]);
+            }
+
+            try {
+                boosts[i] = fieldAndBoost.length > 1 ? Double.parseDouble(fieldAndBoost[1]) : 1;
+            } catch (NumberFormatException e) {
+                throw new SearchException("Invalid boost of the field " + fieldNames.get(i));
+            }
+
+        }
+
+        return new EmbeddedQuery(type, (String) clause.get("query"), fields, boosts, fuzziness, from, size);
+
+    }
+
+    private static int parseFuzziness(final Object fuzziness) throws SearchException {
+
+        if (fuzziness == null) {
+            return 0;
+        }
+
+        if (fuzziness.toString().equalsIgnoreCase("AUTO")) {
+            return -1;
+        }
+
+        try {
+            return Math.min(2, Integer.parseInt(fuzziness.toString()));
+        } catch (NumberFormatException e) {
+            throw new SearchException("The embedded search index does not support the fuzziness " + fuzziness);
+        }
+
+    }
+
+    private static int getInt(final JSONObject object, final String key, final int defaultValue) {
+
+        final Object value = object.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+
+    }
+
+    /**
+     * Run the query
+     *
+     * @param index The index to search
+     * @return The IDs of the matching items by decreasing relevance
+     */
+    List<String> execute(final InvertedIndex index) {
+
+        final Map<String, Double> scores = new HashMap<>();
+
+        switch (this.type) {
+            case QUERY_STRING:
+                this.executeQueryString(index, scores);
+                break;
+            case BEST_FIELDS:
+                this.executeBestFields(index, scores);
+                break;
+            case PHRASE:
+            case PHRASE_PREFIX:
+                this.mergeBestField(index, scores, TextAnalyzer.analyze(this.queryText), this.type == Type.PHRASE_PREFIX);
+                break;
+        }
+
+        final List<Map.Entry<String, Double>> rankedScores = new ArrayList<>(scores.entrySet());
+
+        Collections.sort(rankedScores, new Comparator<Map.Entry<String, Double>>() {
+            @Override
+            public int compare(final Map.Entry<String, Double> first, final Map.Entry<String, Double> second) {
+
+                final int scoreComparison = Double.compare(second.getValue(), first.getValue());
+                return scoreComparison != 0 ? scoreComparison : first.getKey().compareTo(second.getKey());
+
+            }
+        });
+
+        final List<String> identifiers = new ArrayList<>(Math.min(this.size, rankedScores.size()));
+
+        for (int i = this.from; i < rankedScores.size() && identifiers.size() < this.size; i++) {
+            identifiers.add(rankedScores.get(i).getKey());
+        }
+
+        return identifiers;
+
+    }
+
+    /**
+     * Every term or quoted phrase is scored by its best field, and the scores of the clauses add up
+     */
+    private void executeQueryString(final InvertedIndex index, final Map<String, Double> scores) {
+
+        for (String clause : splitQueryString(this.queryText)) {
+
+            final Map<String, Double> clauseScores = new HashMap<>();
+
+            if (clause.startsWith("\"")) {
+                this.mergeBestField(index, clauseScores, TextAnalyzer.analyze(clause), false);
+            } else {
+
+                for (String term : TextAnalyzer.analyzeQuery(clause)) {
+
+                    final Map<String, Double> termScores = new HashMap<>();
+
+                    for (int i = 0; i < this.fields.length; i++) {
+                        mergeMaximum(termScores, this.scoreTerm(index, this.fields[i], term), this.boosts[i]);
+                    }
+
+                    mergeSum(clauseScores, termScores, 1);
+
+                }
+
+            }
+
+            mergeSum(scores, clauseScores, 1);
+
+        }
+
+    }
+
+    /**
+     * The scores of all terms add up per field, and the best field determines the score of an item
+     */
+    private void executeBestFields(final InvertedIndex index, final Map<String, Double> scores) {
+
+        final List<String> terms = TextAnalyzer.analyze(this.queryText);
+
+        for (int i = 0; i < this.fields.length; i++) {
+
+            final Map<String, Double> fieldScores = new HashMap<>();
+
+            for (String term : terms) {
+                mergeSum(fieldScores, this.scoreTerm(index, this.fields[i], term), 1);
+            }
+
+            mergeMaximum(scores, fieldScores, this.boosts[i]);
+
+        }
+
+    }
+
+    private void mergeBestField(final InvertedIndex index, final Map<String, Double> scores, final List<String> terms, final boolean isPrefix) {
+
+        if (terms.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < this.fields.length; i++) {
+            mergeMaximum(scores, scorePhrase(index, this.fields[i], terms, isPrefix), this.boosts[i]);
+        }
+
+    }
+
+    /**
+     * Score a single term, which may contain wildcards, or be matched fuzzily
+     *
+     * @return Item ID -> score
+     */
+    private Map<String, Double> scoreTerm(final InvertedIndex index, final int field, final String term) {
+
+        final Map<String, Double> termScores = new HashMap<>();
+
+        if (TextAnalyzer.isWildcard(term)) {
+
+            int expansions = 0;
+
+            // like Elasticsearch, every item matching the wildcard gets the same score
+            for (Map.Entry<String, Map<String, int[]>> candidate : index.getTermsWithPrefix(field, TextAnalyzer.getLiteralPrefix(term)).entrySet()) {
+
+                if (!TextAnalyzer.matchesWildcard(term, candidate.getKey())) {
+                    continue;
+                }
+
+                for (String identifier : candidate.getValue().keySet()) {
+                    termScores.put(identifier, 1.0);
+                }
+
+                if (++expansions >= MAXIMUM_EXPANSIONS) {
+                    break;
+                }
+
+            }
+
+            return termScores;
+
+        }
+
+        final int maximumEdits = this.fuzziness < 0 ? getAutomaticFuzziness(term) : this.fuzziness;
+
+        if (maximumEdits == 0) {
+            addTermScores(index, field, term, 1, termScores);
+            return termScores;
+        }
+
+        int expansions = 0;
+
+        for (String candidate : index.getTermsWithPrefix(field, "").keySet()) {
+
+            final int edits = TextAnalyzer.getEditDistance(term, candidate, maximumEdits);
+
+            if (edits > maximumEdits) {
+                continue;
+            }
+
+            // the further a term is away from the query, the less it counts
+            addTermScores(index, field, candidate, 1 - (double) edits / Math.max(term.length(), candidate.length()), termScores);
+
+            if (++expansions >= MAXIMUM_EXPANSIONS) {
+                break;
+            }
+
+        }
+
+        return termScores;
+
+    }
+
+    private static void addTermScores(final InvertedIndex index, final int field, final String term, final double weight, final Map<String, Double> termScores) {
+
+        final Map<String, int[]> postings = index.getPostings(field, term);
+
+        for (Map.Entry<String, int[]> posting : postings.entrySet()) {
+
+            final double score = weight * index.score(field, posting.getKey(), posting.getValue().length, postings.size());
+            final Double previousScore = termScores.get(posting.getKey());
+
+            if (previousScore == null || previousScore < score) {
+                termScores.put(posting.getKey(), score);
+            }
+
+        }
+
+    }
+
+    /**
+     * Score the items containing the terms at consecutive positions
+     *
+     * @param isPrefix Whether the last term is a prefix of the term in the item
+     * @return Item ID -> score
+     */
+    private static Map<String, Double> scorePhrase(final InvertedIndex index, final int field, final List<String> terms, final boolean isPrefix) {
+
+        final Map<String, Double> phraseScores = new HashMap<>();
+        final int lastTerm = terms.size() - 1;
+
+        final List<Map<String, int[]>> termPostings = new ArrayList<>(terms.size());
+
+        for (int i = 0; i < lastTerm; i++) {
+            termPostings.add(index.getPostings(field, terms.get(i)));
+        }
+
+        // the terms that the last term may stand for, along with their postings
+        final List<Map<String, int[]>> lastTermPostings = new ArrayList<>();
+
+        if (isPrefix) {
+
+            for (Map<String, int[]> expansion : index.getTermsWithPrefix(field, terms.get(lastTerm)).values()) {
+
+                lastTermPostings.add(expansion);
+
+                if (lastTermPostings.size() >= MAXIMUM_PREFIX_EXPANSIONS) {
+                    break;
+                }
+
+            }
+
+        } else {
+            lastTermPostings.add(index.getPostings(field, terms.get(lastTerm)));
+        }
+
+        for (Map<String, int[]> lastPostings : lastTermPostings) {
+
+            // every item containing the whole phrase contains its first term, and no other item does
+            final Map<String, int[]> candidates = lastTerm == 0 ? lastPostings : termPostings.get(0);
+
+            for (String identifier : candidates.keySet()) {
+
+                if (phraseScores.containsKey(identifier) || !lastPostings.containsKey(identifier)) {
+                    continue;
+                }
+
+                if (!containsPhrase(identifier, termPostings, lastPostings)) {
+                    continue;
+                }
+
+                double score = 0;
+
+                for (Map<String, int[]> postings : termPostings) {
+                    score += index.score(field, identifier, postings.get(identifier).length, postings.size());
+                }
+
+                score += index.score(field, identifier, lastPostings.get(identifier).length, lastPostings.size());
+                phraseScores.put(identifier, score);
+
+            }
+
+        }
+
+        return phraseScores;
+
+    }
+
+    private static boolean containsPhrase(final String identifier, final List<Map<String, int[]>> termPostings, final Map<String, int[]> lastPostings) {
+
+        final int[] startPositions = termPostings.isEmpty() ? lastPostings.get(identifier) : termPostings.get(0).get(identifier);
+
+        for (int startPosition : startPositions) {
+
+            boolean isMatch = true;
+
+            for (int i = 1; i <= termPostings.size() && isMatch; i++) {
+
+                final int[] positions = i < termPostings.size() ? termPostings.get(i).get(identifier) : lastPostings.get(identifier);
+
+                // the positions are in increasing order
+                isMatch = positions != null && Arrays.binarySearch(positions, startPosition + i) >= 0;
+
+            }
+
+            if (isMatch) {
+                return true;
+            }
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * The number of edits Elasticsearch's AUTO fuzziness permits for a term
+     */
+    private static int getAutomaticFuzziness(final String term) {
+
+        if (term.length() <= 2) {
+            return 0;
+        }
+
+        return term.length() <= 5 ? 1 : 2;
+
+    }
+
+    /**
+     * Split a query string into terms and "quoted phrases", the latter keeping their quotes
+     */
+    private static List<String> splitQueryString(final String queryText) {
+
+        final List<String> clauses = new ArrayList<>();
+        final StringBuilder clause = new StringBuilder();
+        boolean isQuoted = false;
+
+        for (int i = 0; i < queryText.length(); i++) {
+
+            final char character = queryText.charAt(i);
+
+            if (character == '"') {
+
+                if (isQuoted) {
+                    clause.append(character);
+                }
+
+                if (clause.length() > 0) {
+                    clauses.add(clause.toString());
+                    clause.setLength(0);
+                }
+
+                if (!isQuoted) {
+                    clause.append(character);
+                }
+
+                isQuoted = !isQuoted;
+
+            } else if (Character.isWhitespace(character) && !isQuoted) {
+
+                if (clause.length() > 0) {
+                    clauses.add(clause.toString());
+                    clause.setLength(0);
+                }
+
+            } else {
+                clause.append(character);
+            }
+
+        }
+
+        if (clause.length() > 0) {
+            clauses.add(clause.toString());
+        }
+
+        return clauses;
+
+    }
+
+    private static void mergeSum(final Map<String, Double> scores, final Map<String, Double> additionalScores, final double boost) {
+
+        for (Map.Entry<String, Double> additionalScore : additionalScores.entrySet()) {
+
+            final Double previousScore = scores.get(additionalScore.getKey());
+            scores.put(additionalScore.getKey(), (previousScore == null ? 0 : previousScore) + boost * additionalScore.getValue());
+
+        }
+
+    }
+
+    private static void mergeMaximum(final Map<String, Double> scores, final Map<String, Double> candidateScores, final double boost) {
+
+        for (Map.Entry<String, Double> candidateScore : candidateScores.entrySet()) {
+
+            final Double previousScore = scores.get(candidateScore.getKey());
+            final double score = boost * candidateScore.getValue();
+
+            if (previousScore == null || previousScore < score) {
+                scores.put(candidateScore.getKey(), score);
+            }
+
+        }
+
+    }
+
+}
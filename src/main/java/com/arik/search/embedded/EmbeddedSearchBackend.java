@@ -0,0 +1,252 @@
+package com.arik.search.embedded;
+
+import com.arik.Configuration;
+import com.arik.models.TodoItem;
+import com.arik.models.TodoItemCursor;
+import com.arik.search.IndexMutation;
+import com.arik.search.SearchBackend;
+import com.arik.search.SearchException;
+import com.arik.search.SearchHit;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-process search backend for single-node deployments, which answers searches from memory without a round trip to
+ * an external service
+ * The index is kept in memory and persisted to segment files in SEARCH_INDEX_DIR, so it survives restarts as long as the
+ * directory does. If the index has never been built completely, e. g. on a fresh dyno, it is rebuilt from MongoDB in the
+ * background.
+ */
+public class EmbeddedSearchBackend implements SearchBackend {
+
+    private static EmbeddedSearchBackend embeddedSearchBackend;
+
+    private final int maximumSegments = Configuration.getInt("SEARCH_INDEX_MAX_SEGMENTS", 8);
+    private final int rebuildBatchSize = Configuration.getInt("SEARCH_INDEX_BATCH_SIZE", 500);
+
+    private final InvertedIndex index = new InvertedIndex();
+    private final SegmentLog segmentLog = new SegmentLog(Paths.get(Configuration.getString("SEARCH_INDEX_DIR", "search-index")), Configuration.getLong("SEARCH_INDEX_SEGMENT_SIZE", 8 * 1024 * 1024));
+
+    /**
+     * Searches run concurrently, while mutations are applied one batch at a time
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The items that have been indexed or removed while the index is being rebuilt, which the rebuild must leave alone
+     * since what it has read from MongoDB may be older; null once the rebuild is done
+     */
+    private Set<String> rebuildSkippedIdentifiers;
+
+    private EmbeddedSearchBackend() {
+    }
+
+    /**
+     * Get the singleton backend, loading the index from disk if necessary
+     *
+     * @return The backend instance
+     */
+    public static synchronized EmbeddedSearchBackend getInstance() {
+
+        if (embeddedSearchBackend != null) {
+            return embeddedSearchBackend;
+        }
+
+        final EmbeddedSearchBackend backend = new EmbeddedSearchBackend();
+
+        try {
+            backend.segmentLog.open(backend.index);
+        } catch (IOException e) {
+            throw new IllegalStateException("The embedded search index cannot be opened", e);
+        }
+
+        embeddedSearchBackend = backend;
+
+        // a rebuild that has been interrupted is simply started over
+        if (!backend.segmentLog.isComplete()) {
+
+            backend.rebuildSkippedIdentifiers = new HashSet<>();
+
+            final Thread rebuilder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    backend.rebuild();
+                }
+            }, "search-index-rebuild");
+
+            rebuilder.setDaemon(true);
+            rebuilder.start();
+
+        }
+
+        return embeddedSearchBackend;
+
+    }
+
+    @Override
+    public Set<String> apply(final List<IndexMutation> mutations) throws SearchException {
+
+        this.lock.writeLock().lock();
+
+        try {
+
+            if (this.rebuildSkippedIdentifiers != null) {
+                for (IndexMutation mutation : mutations) {
+                    this.rebuildSkippedIdentifiers.add(mutation.getIdentifier());
+                }
+            }
+
+            this.write(mutations);
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        // a batch is written as a whole, so no single item can fail
+        return Collections.emptySet();
+
+    }
+
+    /**
+     * Persist and apply a batch while holding the write lock
+     */
+    private void write(final List<IndexMutation> mutations) throws SearchException {
+
+        try {
+
+            // the batch is durable before it becomes searchable, so a crash cannot lose what has been acknowledged
+            this.segmentLog.append(mutations);
+
+            for (IndexMutation mutation : mutations) {
+
+                if (mutation.isDeletion()) {
+                    this.index.remove(mutation.getIdentifier());
+                } else {
+                    this.index.put(StoredDocument.fromSource(mutation.getIdentifier(), mutation.getSource()));
+                }
+
+            }
+
+            if (this.segmentLog.getSegmentCount() > this.maximumSegments) {
+                this.compact();
+            }
+
+        } catch (IOException e) {
+            throw new SearchException("The embedded search index cannot be written", e);
+        }
+
+    }
+
+    @Override
+    public List<SearchHit> search(final String query) throws SearchException {
+
+        final EmbeddedQuery embeddedQuery = EmbeddedQuery.parse(query);
+
+        this.lock.readLock().lock();
+
+        try {
+
+            final List<String> identifiers = embeddedQuery.execute(this.index);
+            final List<SearchHit> hits = new ArrayList<>(identifiers.size());
+
+            for (String identifier : identifiers) {
+                hits.add(new SearchHit(identifier, this.index.getDocument(identifier).toSource()));
+            }
+
+            return hits;
+
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+    }
+
+    private void compact() {
+
+        try {
+            this.segmentLog.compact(this.index.getDocuments());
+        } catch (IOException e) {
+
+            // the segments are still complete, there are just more of them than we would like
+            e.printStackTrace();
+
+        }
+
+    }
+
+    /**
+     * Index every item stored in MongoDB, in batches
+     * Writes that happen in the meantime are applied by the SearchIndexer as usual, and since a batch read here may be
+     * older than such a write, the rebuild skips the items the SearchIndexer has touched.
+     */
+    private void rebuild() {
+
+        final List<IndexMutation> batch = new ArrayList<>(this.rebuildBatchSize);
+        int indexedCount = 0;
+
+        try (TodoItemCursor cursor = TodoItem.openTodoItemCursor(null, 0)) {
+
+            while (cursor.hasNext()) {
+
+                final TodoItem todoItem = cursor.next();
+                batch.add(new IndexMutation(todoItem.getID(), todoItem.toElasticSearchMap()));
+
+                if (batch.size() >= this.rebuildBatchSize) {
+                    indexedCount += this.applyMissing(batch);
+                    batch.clear();
+                }
+
+            }
+
+            indexedCount += this.applyMissing(batch);
+            this.segmentLog.markComplete();
+
+            // stdout directs the output to Heroku's logger
+            System.out.println("Rebuilt the embedded search index with " + indexedCount + " items");
+
+        } catch (Exception e) {
+
+            System.err.println("Failed to rebuild the embedded search index");
+            e.printStackTrace();
+
+        } finally {
+
+            this.lock.writeLock().lock();
+            this.rebuildSkippedIdentifiers = null;
+            this.lock.writeLock().unlock();
+
+        }
+
+    }
+
+    private int applyMissing(final List<IndexMutation> batch) throws SearchException {
+
+        final List<IndexMutation> missingMutations = new ArrayList<>(batch.size());
+
+        this.lock.writeLock().lock();
+
+        try {
+
+            for (IndexMutation mutation : batch) {
+                if (!this.rebuildSkippedIdentifiers.contains(mutation.getIdentifier())) {
+                    missingMutations.add(mutation);
+                }
+            }
+
+            if (!missingMutations.isEmpty()) {
+                this.write(missingMutations);
+            }
+
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        return missingMutations.size();
+
+    }
+
+}
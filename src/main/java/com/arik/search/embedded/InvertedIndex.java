@@ -0,0 +1,195 @@
+package com.arik.search.embedded;
+
+import java.util.*;
+
+/**
+ * The in-memory part of the embedded index: the stored fields of every item, and for each indexed field a sorted term
+ * dictionary pointing to the positions at which a term occurs in an item
+ * The term dictionaries are sorted such that prefix and wildcard queries only visit the terms sharing their prefix.
+ * Not thread-safe; the backend guards it with a read-write lock.
+ */
+class InvertedIndex {
+
+    static final String[] FIELDS = {"title", "body"};
+
+    private static final double TERM_FREQUENCY_SATURATION = 1.2;
+    private static final double LENGTH_NORMALIZATION = 0.75;
+
+    private final Map<String, StoredDocument> documents = new HashMap<>();
+
+    /**
+     * Per field: term -> (item ID -> positions of the term within the field)
+     */
+    private final List<TreeMap<String, Map<String, int[]>>> postings = new ArrayList<>(FIELDS.length);
+
+    private final long[] totalFieldLengths = new long[FIELDS.length];
+
+    InvertedIndex() {
+        for (int i = 0; i < FIELDS.length; i++) {
+            this.postings.add(new TreeMap<String, Map<String, int[]>>());
+        }
+    }
+
+    static int getFieldIndex(final String field) {
+
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(field)) {
+                return i;
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Add an item, replacing its previous version
+     *
+     * @param document The stored fields of the item
+     */
+    void put(final StoredDocument document) {
+
+        this.remove(document.getIdentifier());
+        this.documents.put(document.getIdentifier(), document);
+
+        for (int field = 0; field < FIELDS.length; field++) {
+
+            final List<String> terms = TextAnalyzer.analyze(document.getField(field));
+            this.totalFieldLengths[field] += terms.size();
+            document.setFieldLength(field, terms.size());
+
+            final Map<String, List<Integer>> positionsByTerm = new HashMap<>();
+
+            for (int position = 0; position < terms.size(); position++) {
+
+                List<Integer> positions = positionsByTerm.get(terms.get(position));
+
+                if (positions == null) {
+                    positions = new ArrayList<>(1);
+                    positionsByTerm.put(terms.get(position), positions);
+                }
+
+                positions.add(position);
+
+            }
+
+            for (Map.Entry<String, List<Integer>> termPositions : positionsByTerm.entrySet()) {
+
+                Map<String, int[]> termPostings = this.postings.get(field).get(termPositions.getKey());
+
+                if (termPostings == null) {
+                    termPostings = new HashMap<>();
+                    this.postings.get(field).put(termPositions.getKey(), termPostings);
+                }
+
+                final int[] positions = new int[termPositions.getValue().size()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = termPositions.getValue().get(i);
+                }
+
+                termPostings.put(document.getIdentifier(), positions);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Remove an item
+     *
+     * @param identifier The ID of the item, which need not be indexed
+     */
+    void remove(final String identifier) {
+
+        final StoredDocument document = this.documents.remove(identifier);
+
+        if (document == null) {
+            return;
+        }
+
+        for (int field = 0; field < FIELDS.length; field++) {
+
+            this.totalFieldLengths[field] -= document.getFieldLength(field);
+
+            for (String term : new HashSet<>(TextAnalyzer.analyze(document.getField(field)))) {
+
+                final Map<String, int[]> termPostings = this.postings.get(field).get(term);
+
+                if (termPostings == null) {
+                    continue;
+                }
+
+                termPostings.remove(identifier);
+
+                if (termPostings.isEmpty()) {
+                    this.postings.get(field).remove(term);
+                }
+
+            }
+
+        }
+
+    }
+
+    StoredDocument getDocument(final String identifier) {
+        return this.documents.get(identifier);
+    }
+
+    Collection<StoredDocument> getDocuments() {
+        return this.documents.values();
+    }
+
+    int size() {
+        return this.documents.size();
+    }
+
+    /**
+     * Get the items containing a term
+     *
+     * @return Item ID -> positions, or an empty map if no item contains the term
+     */
+    Map<String, int[]> getPostings(final int field, final String term) {
+
+        final Map<String, int[]> termPostings = this.postings.get(field).get(term);
+        return termPostings == null ? Collections.<String, int[]>emptyMap() : termPostings;
+
+    }
+
+    /**
+     * Get the terms starting with a prefix, in their natural order
+     */
+    SortedMap<String, Map<String, int[]>> getTermsWithPrefix(final int field, final String prefix) {
+
+        if (prefix.isEmpty()) {
+            return this.postings.get(field);
+        }
+
+        // every term starting with the prefix sorts below the prefix followed by the largest character
+        return this.postings.get(field).subMap(prefix, prefix + Character.MAX_VALUE);
+
+    }
+
+    /**
+     * Score the occurrences of a term in an item using BM25, which Elasticsearch uses as well
+     *
+     * @param field             The field containing the term
+     * @param identifier        The ID of the item
+     * @param termFrequency     The number of occurrences of the term in the field
+     * @param documentFrequency The number of items whose field contains the term
+     * @return The relevance of the term for the item
+     */
+    double score(final int field, final String identifier, final int termFrequency, final int documentFrequency) {
+
+        final double inverseDocumentFrequency = Math.log(1 + (this.documents.size() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+
+        final double averageFieldLength = this.documents.isEmpty() ? 1 : Math.max(1.0, (double) this.totalFieldLengths[field] / this.documents.size());
+        final int fieldLength = this.documents.get(identifier).getFieldLength(field);
+
+        final double lengthNormalization = 1 - LENGTH_NORMALIZATION + LENGTH_NORMALIZATION * fieldLength / averageFieldLength;
+
+        return inverseDocumentFrequency * termFrequency * (TERM_FREQUENCY_SATURATION + 1) / (termFrequency + TERM_FREQUENCY_SATURATION * lengthNormalization);
+
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.arik.search.embedded;
+
+import com.arik.search.IndexMutation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Persists the embedded index as append-only segment files in a local directory
+ * Every batch of mutations is appended to the active segment and forced to disk before it becomes searchable. On
+ * startup, the segments are memory-mapped and replayed in order. Once there are too many segments, the live items are
+ * written to a single new segment and the older ones are deleted.
+ */
+class SegmentLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Created once the segments contain every item, i. e. once the index has been built from MongoDB
+     */
+    private static final String COMPLETE_MARKER = "complete";
+
+    private static final byte INDEX_RECORD = 1;
+    private static final byte DELETE_RECORD = 2;
+
+    private final Path directory;
+    private final long maximumSegmentSize;
+
+    /**
+     * The segments in the order in which they have been written, the last one being the active one
+     */
+    private final List<Path> segments = new ArrayList<>();
+
+    private long nextSequence;
+    private FileChannel activeChannel;
+
+    SegmentLog(final Path directory, final long maximumSegmentSize) {
+        this.directory = directory;
+        this.maximumSegmentSize = maximumSegmentSize;
+    }
+
+    /**
+     * Replay the existing segments into an index and open the last one for appending
+     *
+     * @param index The empty index to fill
+     * @throws IOException Thrown if the directory cannot be read or written
+     */
+    void open(final InvertedIndex index) throws IOException {
+
+        Files.createDirectories(this.directory);
+
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*" + TEMPORARY_SUFFIX)) {
+
+            // an interrupted compaction, whose input segments are still there
+            for (Path leftover : leftovers) {
+                Files.delete(leftover);
+            }
+
+        }
+
+        try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+
+            for (Path segmentFile : segmentFiles) {
+                this.segments.add(segmentFile);
+            }
+
+        }
+
+        // the sequence numbers are zero-padded, so the names sort in the order the segments have been written
+        Collections.sort(this.segments);
+
+        for (int i = 0; i < this.segments.size(); i++) {
+            this.replay(this.segments.get(i), index, i == this.segments.size() - 1);
+        }
+
+        if (!this.segments.isEmpty()) {
+            this.nextSequence = parseSequence(this.segments.get(this.segments.size() - 1)) + 1;
+            this.activeChannel = FileChannel.open(this.segments.get(this.segments.size() - 1), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } else {
+            this.startSegment();
+        }
+
+    }
+
+    boolean isComplete() {
+        return Files.exists(this.directory.resolve(COMPLETE_MARKER));
+    }
+
+    void markComplete() throws IOException {
+
+        if (!this.isComplete()) {
+            Files.createFile(this.directory.resolve(COMPLETE_MARKER));
+        }
+
+    }
+
+    /**
+     * Durably append a batch of mutations
+     *
+     * @param mutations The mutations, which are replayed in this order
+     * @throws IOException Thrown if the segment cannot be written
+     */
+    void append(final List<IndexMutation> mutations) throws IOException {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+
+        for (IndexMutation mutation : mutations) {
+
+            if (mutation.isDeletion()) {
+                writeRecord(output, DELETE_RECORD, mutation.getIdentifier(), null, null, false);
+            } else {
+                final StoredDocument document = StoredDocument.fromSource(mutation.getIdentifier(), mutation.getSource());
+                writeRecord(output, INDEX_RECORD, document.getIdentifier(), document.getTitle(), document.getBody(), document.isDone());
+            }
+
+        }
+
+        output.flush();
+
+        if (this.activeChannel.size() > 0 && this.activeChannel.size() + bytes.size() > this.maximumSegmentSize) {
+            this.activeChannel.close();
+            this.startSegment();
+        }
+
+        write(this.activeChannel, bytes.toByteArray());
+
+        // only the data has to make it to the disk, the file's modification time does not matter
+        this.activeChannel.force(false);
+
+    }
+
+    int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * Replace all segments with a single one containing the live items
+     *
+     * @param documents The items currently in the index
+     * @throws IOException Thrown if the new segment cannot be written
+     */
+    void compact(final Collection<StoredDocument> documents) throws IOException {
+
+        final Path compactedSegment = this.directory.resolve(formatSegmentName(this.nextSequence++));
+        final Path temporarySegment = this.directory.resolve(compactedSegment.getFileName() + TEMPORARY_SUFFIX);
+
+        try (FileChannel channel = FileChannel.open(temporarySegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+
+            for (StoredDocument document : documents) {
+
+                writeRecord(output, INDEX_RECORD, document.getIdentifier(), document.getTitle(), document.getBody(), document.isDone());
+
+                if (bytes.size() >= this.maximumSegmentSize) {
+                    output.flush();
+                    write(channel, bytes.toByteArray());
+                    bytes.reset();
+                }
+
+            }
+
+            output.flush();
+            write(channel, bytes.toByteArray());
+            channel.force(true);
+
+        }
+
+        // once the compacted segment is visible under its final name, the older ones are redundant; should we crash
+        // before they are deleted, replaying them first and the compacted one last still yields the same items
+        Files.move(temporarySegment, compactedSegment, StandardCopyOption.ATOMIC_MOVE);
+
+        this.activeChannel.close();
+
+        for (Path segment : this.segments) {
+            Files.delete(segment);
+        }
+
+        this.segments.clear();
+        this.segments.add(compactedSegment);
+        this.activeChannel = FileChannel.open(compactedSegment, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (this.activeChannel != null) {
+            this.activeChannel.close();
+        }
+
+    }
+
+    private void startSegment() throws IOException {
+
+        final Path segment = this.directory.resolve(formatSegmentName(this.nextSequence++));
+
+        this.activeChannel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.segments.add(segment);
+
+    }
+
+    /**
+     * Apply the records of a segment to an index
+     *
+     * @param segment  The segment file
+     * @param index    The index
+     * @param isActive Whether the segment is the one that has been written to last, which may end in a torn record
+     * @throws IOException Thrown if the segment cannot be read
+     */
+    private void replay(final Path segment, final InvertedIndex index, final boolean isActive) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int validLength = 0;
+
+            while (buffer.remaining() >= 4) {
+
+                final int recordLength = buffer.getInt();
+
+                // the record has not been written completely, i. e. the batch has never been acknowledged
+                if (recordLength <= 0 || recordLength > buffer.remaining()) {
+                    break;
+                }
+
+                final int recordEnd = buffer.position() + recordLength;
+                final byte recordType = buffer.get();
+                final String identifier = readString(buffer);
+
+                if (recordType == INDEX_RECORD) {
+                    final String title = readString(buffer);
+                    final String body = readString(buffer);
+                    index.put(new StoredDocument(identifier, title, body, buffer.get() != 0));
+                } else {
+                    index.remove(identifier);
+                }
+
+                buffer.position(recordEnd);
+                validLength = recordEnd;
+
+            }
+
+            if (validLength < channel.size()) {
+
+                // stderr directs the output to Heroku's logger
+                System.err.println("Discarding " + (channel.size() - validLength) + " bytes of incomplete records at the end of " + segment);
+
+                // appending behind a torn record would make every later record unreadable
+                if (isActive) {
+                    channel.truncate(validLength);
+                }
+
+            }
+
+        }
+
+    }
+
+    private static void writeRecord(final DataOutputStream output, final byte recordType, final String identifier, final String title, final String body, final boolean isDone) throws IOException {
+
+        final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        final DataOutputStream record = new DataOutputStream(recordBytes);
+
+        record.writeByte(recordType);
+        writeString(record, identifier);
+
+        if (recordType == INDEX_RECORD) {
+            writeString(record, title);
+            writeString(record, body);
+            record.writeBoolean(isDone);
+        }
+
+        record.flush();
+
+        // the length prefix lets the replay tell a complete record from one that was cut short by a crash
+        output.writeInt(recordBytes.size());
+        recordBytes.writeTo(output);
+
+    }
+
+    /**
+     * Strings are written as their UTF-8 length followed by the bytes, since bodies may exceed writeUTF()'s 64 KB
+     */
+    private static void writeString(final DataOutputStream output, final String value) throws IOException {
+
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+
+        final int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+
+    }
+
+    private static void write(final FileChannel channel, final byte[] bytes) throws IOException {
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+    }
+
+    private static String formatSegmentName(final long sequence) {
+        return SEGMENT_PREFIX + String.format("%012d", sequence) + SEGMENT_SUFFIX;
+    }
+
+    private static long parseSequence(final Path segment) {
+
+        final String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+
+    }
+
+}
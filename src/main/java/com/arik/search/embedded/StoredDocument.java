@@ -0,0 +1,79 @@
+package com.arik.search.embedded;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The fields of an item as stored in the embedded index, which are returned as the source of a hit
+ */
+class StoredDocument {
+
+    private final String identifier;
+    private final String title;
+    private final String body;
+    private final boolean isDone;
+
+    /**
+     * The number of terms per indexed field, which the scoring normalizes by
+     */
+    private final int[] fieldLengths = new int[InvertedIndex.FIELDS.length];
+
+    StoredDocument(final String identifier, final String title, final String body, final boolean isDone) {
+        this.identifier = identifier;
+        this.title = title;
+        this.body = body;
+        this.isDone = isDone;
+    }
+
+    /**
+     * Build a document from the map TodoItem.toElasticSearchMap() has produced
+     */
+    static StoredDocument fromSource(final String identifier, final Map<String, Object> source) {
+
+        final Object title = source.get("title");
+        final Object body = source.get("body");
+
+        return new StoredDocument(identifier, title == null ? null : title.toString(), body == null ? null : body.toString(), Boolean.TRUE.equals(source.get("done")));
+
+    }
+
+    String getIdentifier() {
+        return this.identifier;
+    }
+
+    String getTitle() {
+        return this.title;
+    }
+
+    String getBody() {
+        return this.body;
+    }
+
+    boolean isDone() {
+        return this.isDone;
+    }
+
+    String getField(final int field) {
+        return field == 0 ? this.title : this.body;
+    }
+
+    int getFieldLength(final int field) {
+        return this.fieldLengths[field];
+    }
+
+    void setFieldLength(final int field, final int fieldLength) {
+        this.fieldLengths[field] = fieldLength;
+    }
+
+    Map<String, Object> toSource() {
+
+        final Map<String, Object> source = new LinkedHashMap<>();
+        source.put("title", this.title);
+        source.put("body", this.body);
+        source.put("done", this.isDone);
+
+        return source;
+
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.arik.search.embedded;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into lower case terms, roughly like Elasticsearch's standard analyzer does
+ * Terms are the runs of letters and digits, so punctuation and whitespace separate them.
+ */
+class TextAnalyzer {
+
+    static final char ANY_CHARACTERS = '*';
+    static final char ANY_CHARACTER = '?';
+
+    /**
+     * Split a text into terms
+     *
+     * @param text The text (null is treated as empty)
+     * @return The terms in the order in which they appear, i. e. the index of a term is its position
+     */
+    static List<String> analyze(final String text) {
+        return tokenize(text, false);
+    }
+
+    /**
+     * Split a query into terms, keeping the wildcards as part of the terms
+     *
+     * @param text The query
+     * @return The terms, which may contain * and ?
+     */
+    static List<String> analyzeQuery(final String text) {
+        return tokenize(text, true);
+    }
+
+    static boolean isWildcard(final String term) {
+        return term.indexOf(ANY_CHARACTERS) >= 0 || term.indexOf(ANY_CHARACTER) >= 0;
+    }
+
+    /**
+     * Get the part of a wildcard term in front of its first wildcard, which every matching term starts with
+     *
+     * @param pattern The wildcard term
+     * @return The literal prefix, which may be empty
+     */
+    static String getLiteralPrefix(final String pattern) {
+
+        for (int i = 0; i < pattern.length(); i++) {
+
+            final char character = pattern.charAt(i);
+
+            if (character == ANY_CHARACTERS || character == ANY_CHARACTER) {
+                return pattern.substring(0, i);
+            }
+
+        }
+
+        return pattern;
+
+    }
+
+    /**
+     * Check whether a term matches a wildcard pattern, where * stands for any number of characters and ? for exactly one
+     *
+     * @param pattern The pattern
+     * @param term    The term
+     * @return True if the whole term matches the pattern
+     */
+    static boolean matchesWildcard(final String pattern, final String term) {
+
+        int patternIndex = 0;
+        int termIndex = 0;
+
+        // the position after the last * and the term position it has been matched up to, for backtracking
+        int starIndex = -1;
+        int starTermIndex = 0;
+
+        while (termIndex < term.length()) {
+
+            if (patternIndex < pattern.length() && (pattern.charAt(patternIndex) == ANY_CHARACTER || pattern.charAt(patternIndex) == term.charAt(termIndex))) {
+                patternIndex++;
+                termIndex++;
+            } else if (patternIndex < pattern.length() && pattern.charAt(patternIndex) == ANY_CHARACTERS) {
+                starIndex = ++patternIndex;
+                starTermIndex = termIndex;
+            } else if (starIndex >= 0) {
+                patternIndex = starIndex;
+                termIndex = ++starTermIndex;
+            } else {
+                return false;
+            }
+
+        }
+
+        while (patternIndex < pattern.length() && pattern.charAt(patternIndex) == ANY_CHARACTERS) {
+            patternIndex++;
+        }
+
+        return patternIndex == pattern.length();
+
+    }
+
+    /**
+     * Compute the edit distance of two terms, counting the transposition of two adjacent characters as a single edit like
+     * Elasticsearch does, and giving up once it exceeds a limit
+     *
+     * @param first        The first term
+     * @param second       The second term
+     * @param maximumEdits The largest distance of interest
+     * @return The distance, or maximumEdits + 1 if it is larger than maximumEdits
+     */
+    static int getEditDistance(final String first, final String second, final int maximumEdits) {
+
+        if (Math.abs(first.length() - second.length()) > maximumEdits) {
+            return maximumEdits + 1;
+        }
+
+        int[] secondPreviousRow = new int[second.length() + 1];
+        int[] previousRow = new int[second.length() + 1];
+        int[] currentRow = new int[second.length() + 1];
+
+        for (int j = 0; j <= second.length(); j++) {
+            previousRow[j] = j;
+        }
+
+        int previousRowMinimum = 0;
+
+        for (int i = 1; i <= first.length(); i++) {
+
+            currentRow[0] = i;
+            int rowMinimum = i;
+
+            for (int j = 1; j <= second.length(); j++) {
+
+                final int substitutionCost = first.charAt(i - 1) == second.charAt(j - 1) ? 0 : 1;
+                currentRow[j] = Math.min(Math.min(currentRow[j - 1] + 1, previousRow[j] + 1), previousRow[j - 1] + substitutionCost);
+
+                if (i > 1 && j > 1 && first.charAt(i - 1) == second.charAt(j - 2) && first.charAt(i - 2) == second.charAt(j - 1)) {
+                    currentRow[j] = Math.min(currentRow[j], secondPreviousRow[j - 2] + 1);
+                }
+
+                rowMinimum = Math.min(rowMinimum, currentRow[j]);
+
+            }
+
+            // the next row builds on this row, or on the previous one plus a transposition
+            if (Math.min(rowMinimum, previousRowMinimum + 1) > maximumEdits) {
+                return maximumEdits + 1;
+            }
+
+            previousRowMinimum = rowMinimum;
+
+            final int[] recycledRow = secondPreviousRow;
+            secondPreviousRow = previousRow;
+            previousRow = currentRow;
+            currentRow = recycledRow;
+
+        }
+
+        return Math.min(previousRow[second.length()], maximumEdits + 1);
+
+    }
+
+    private static List<String> tokenize(final String text, final boolean keepWildcards) {
+
+        final List<String> terms = new ArrayList<>();
+
+        if (text == null) {
+            return terms;
+        }
+
+        final String lowerCaseText = text.toLowerCase(Locale.ROOT);
+        int termStart = -1;
+
+        for (int i = 0; i <= lowerCaseText.length(); i++) {
+
+            final boolean isTermCharacter = i < lowerCaseText.length() && isTermCharacter(lowerCaseText.charAt(i), keepWildcards);
+
+            if (isTermCharacter && termStart < 0) {
+                termStart = i;
+            } else if (!isTermCharacter && termStart >= 0) {
+                terms.add(lowerCaseText.substring(termStart, i));
+                termStart = -1;
+            }
+
+        }
+
+        return terms;
+
+    }
+
+    private static boolean isTermCharacter(final char character, final boolean keepWildcards) {
+        return Character.isLetterOrDigit(character) || (keepWildcards && (character == ANY_CHARACTERS || character == ANY_CHARACTER));
+    }
+
+}
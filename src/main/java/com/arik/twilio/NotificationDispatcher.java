@@ -0,0 +1,352 @@
+package com.arik.twilio;
+
+import com.arik.Configuration;
+import com.arik.resilience.BackendUnavailableException;
+import com.twilio.sdk.TwilioRestException;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends SMS notifications in the background, such that a request never waits for Twilio on behalf of the subscribers
+ * Messages are sent from a bounded pool. Messages to the same number are spaced out by a minimum interval, and failed
+ * messages are retried with exponential backoff as long as the failure is not the recipient's fault.
+ */
+public class NotificationDispatcher {
+
+    private static NotificationDispatcher notificationDispatcher;
+
+    private final int threadCount = Configuration.getInt("NOTIFICATION_THREADS", 4);
+    private final int queueCapacity = Configuration.getInt("NOTIFICATION_QUEUE_CAPACITY", 1000);
+    private final long minimumIntervalPerNumber = Configuration.getLong("NOTIFICATION_MIN_INTERVAL_PER_NUMBER_MS", 1000);
+    private final int maximumAttempts = Configuration.getInt("NOTIFICATION_MAX_ATTEMPTS", 4);
+    private final long initialBackoff = Configuration.getLong("NOTIFICATION_INITIAL_BACKOFF_MS", 1000);
+
+    private final ThreadPoolExecutor senders;
+
+    /**
+     * Holds messages back until their number may be messaged again or until their retry is due
+     */
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * The earliest time at which the next message may be sent to a number
+     */
+    private final ConcurrentHashMap<String, Long> nextSendTimes = new ConcurrentHashMap<>();
+
+    /**
+     * The number of notifications held back by the scheduler
+     */
+    private final AtomicInteger deferredCount = new AtomicInteger();
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong totalSendLatency = new AtomicLong();
+    private final AtomicLong maximumSendLatency = new AtomicLong();
+
+    private NotificationDispatcher() {
+
+        final ThreadFactory threadFactory = new ThreadFactory() {
+
+            private int threadNumber = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+
+                final Thread thread = new Thread(runnable, "notification-dispatcher-" + this.threadNumber++);
+                thread.setDaemon(true);
+                return thread;
+
+            }
+
+        };
+
+        this.senders = new ThreadPoolExecutor(this.threadCount, this.threadCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(this.queueCapacity), threadFactory);
+        this.scheduler = new ScheduledThreadPoolExecutor(1, threadFactory);
+
+        // numbers whose interval has passed need not be remembered any longer
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                NotificationDispatcher.this.forgetIdleNumbers();
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+
+    }
+
+    /**
+     * Get the singleton dispatcher
+     *
+     * @return The dispatcher instance
+     */
+    public static synchronized NotificationDispatcher getInstance() {
+
+        if (notificationDispatcher == null) {
+            notificationDispatcher = new NotificationDispatcher();
+        }
+
+        return notificationDispatcher;
+
+    }
+
+    /**
+     * Queue an SMS to be sent and return immediately
+     *
+     * @param recipientPhoneNumber The phone number to send it to
+     * @param smsMessage           The message to send
+     */
+    public void dispatch(final String recipientPhoneNumber, final String smsMessage) {
+        this.schedule(new Notification(recipientPhoneNumber, smsMessage), 0);
+    }
+
+    /**
+     * Hand a notification to the senders once its delay has passed and its number may be messaged again
+     *
+     * @param notification The notification to send
+     * @param delay        The minimum delay in milliseconds
+     */
+    private void schedule(final Notification notification, final long delay) {
+
+        final long sendTime = this.reserveSendTime(notification.recipientPhoneNumber, System.currentTimeMillis() + delay);
+        final long remainingDelay = sendTime - System.currentTimeMillis();
+
+        if (remainingDelay <= 0) {
+            this.submit(notification);
+            return;
+        }
+
+        // the scheduler's queue is unbounded, so the held back notifications are limited just like the senders' queue;
+        // the slot reserved for a dropped notification merely delays the next one to its number by one interval
+        if (this.deferredCount.incrementAndGet() > this.queueCapacity) {
+
+            this.deferredCount.decrementAndGet();
+            this.droppedCount.incrementAndGet();
+            System.err.println("Dropping notification to " + notification.recipientPhoneNumber + " because too many notifications are held back");
+            return;
+
+        }
+
+        this.scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                NotificationDispatcher.this.deferredCount.decrementAndGet();
+                NotificationDispatcher.this.submit(notification);
+            }
+        }, remainingDelay, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Reserve the next free slot of a number
+     *
+     * @param phoneNumber  The phone number
+     * @param earliestTime The earliest time the message may be sent at
+     * @return The time the message is to be sent at
+     */
+    private long reserveSendTime(final String phoneNumber, final long earliestTime) {
+
+        while (true) {
+
+            final Long nextSendTime = this.nextSendTimes.get(phoneNumber);
+            final long sendTime = nextSendTime == null ? earliestTime : Math.max(earliestTime, nextSendTime);
+            final Long followingSendTime = sendTime + this.minimumIntervalPerNumber;
+
+            final boolean isReserved;
+            if (nextSendTime == null) {
+                isReserved = this.nextSendTimes.putIfAbsent(phoneNumber, followingSendTime) == null;
+            } else {
+                isReserved = this.nextSendTimes.replace(phoneNumber, nextSendTime, followingSendTime);
+            }
+
+            if (isReserved) {
+                return sendTime;
+            }
+
+        }
+
+    }
+
+    private void forgetIdleNumbers() {
+
+        final long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, Long> nextSendTime : this.nextSendTimes.entrySet()) {
+
+            // a concurrent reservation changes the value, in which case the entry stays
+            if (nextSendTime.getValue() < now) {
+                this.nextSendTimes.remove(nextSendTime.getKey(), nextSendTime.getValue());
+            }
+
+        }
+
+    }
+
+    private void submit(final Notification notification) {
+
+        try {
+            this.senders.execute(notification);
+        } catch (RejectedExecutionException e) {
+
+            // the queue is full, and piling up more would only delay every other notification even further
+            this.droppedCount.incrementAndGet();
+            System.err.println("Dropping notification to " + notification.recipientPhoneNumber + " because the queue is full");
+
+        }
+
+    }
+
+    /**
+     * Decide whether a failed message is worth sending again
+     *
+     * @param exception The failure
+     * @return False if Twilio rejected the message itself (e. g. because the number is invalid or unverified)
+     */
+    private static boolean isRetryable(final TwilioRestException exception) {
+
+        final int statusCode = exception.getErrorCode();
+
+        // no status code means that Twilio could not be reached at all
+        return statusCode < 400 || statusCode == 429 || statusCode >= 500;
+
+    }
+
+    private void recordLatency(final long latency) {
+
+        this.totalSendLatency.addAndGet(latency);
+
+        long maximum = this.maximumSendLatency.get();
+        while (latency > maximum && !this.maximumSendLatency.compareAndSet(maximum, latency)) {
+            maximum = this.maximumSendLatency.get();
+        }
+
+    }
+
+    /**
+     * Get the number of notifications that have yet to be sent, including those waiting for a retry
+     *
+     * @return The queue depth
+     */
+    public int getQueueDepth() {
+        return this.senders.getQueue().size() + this.deferredCount.get();
+    }
+
+    public long getSentCount() {
+        return this.sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    public long getRetriedCount() {
+        return this.retriedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    /**
+     * Get the average time a call to Twilio has taken, whether it succeeded or not
+     *
+     * @return The average latency in milliseconds
+     */
+    public double getAverageSendLatency() {
+
+        final long attempts = this.sentCount.get() + this.failedCount.get() + this.retriedCount.get();
+        return attempts == 0 ? 0.0 : (double) this.totalSendLatency.get() / attempts;
+
+    }
+
+    public long getMaximumSendLatency() {
+        return this.maximumSendLatency.get();
+    }
+
+    /**
+     * A single SMS along with the number of times it has been attempted
+     */
+    private class Notification implements Runnable {
+
+        private final String recipientPhoneNumber;
+        private final String smsMessage;
+        private int attempts = 0;
+
+        private Notification(final String recipientPhoneNumber, final String smsMessage) {
+            this.recipientPhoneNumber = recipientPhoneNumber;
+            this.smsMessage = smsMessage;
+        }
+
+        @Override
+        public void run() {
+
+            this.attempts++;
+            final long startTime = System.currentTimeMillis();
+
+            try {
+
+                TwilioConnector.sendSMS(this.recipientPhoneNumber, this.smsMessage);
+
+                NotificationDispatcher.this.recordLatency(System.currentTimeMillis() - startTime);
+                NotificationDispatcher.this.sentCount.incrementAndGet();
+
+            } catch (TwilioRestException e) {
+
+                NotificationDispatcher.this.recordLatency(System.currentTimeMillis() - startTime);
+
+                if (isRetryable(e) && this.scheduleRetry()) {
+                    return;
+                }
+
+                NotificationDispatcher.this.failedCount.incrementAndGet();
+
+                // we suppress these errors from propagation
+                e.printStackTrace();
+
+            } catch (BackendUnavailableException e) {
+
+                // Twilio has not been called at all, since it is failing or busy, which should not last
+                if (this.scheduleRetry()) {
+                    return;
+                }
+
+                NotificationDispatcher.this.failedCount.incrementAndGet();
+                e.printStackTrace();
+
+            } catch (RuntimeException e) {
+
+                NotificationDispatcher.this.recordLatency(System.currentTimeMillis() - startTime);
+                NotificationDispatcher.this.failedCount.incrementAndGet();
+                e.printStackTrace();
+
+            }
+
+        }
+
+        /**
+         * Send the notification again after a backoff, unless it has been attempted too often already
+         *
+         * @return True if a retry has been scheduled
+         */
+        private boolean scheduleRetry() {
+
+            if (this.attempts >= NotificationDispatcher.this.maximumAttempts) {
+                return false;
+            }
+
+            NotificationDispatcher.this.retriedCount.incrementAndGet();
+
+            // 1s, 2s, 4s, ...
+            final long backoff = NotificationDispatcher.this.initialBackoff << (this.attempts - 1);
+            NotificationDispatcher.this.schedule(this, backoff);
+
+            return true;
+
+        }
+
+    }
+
+}
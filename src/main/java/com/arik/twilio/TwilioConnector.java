@@ -1,24 +1,90 @@
 package com.arik.twilio;
 
+import com.arik.Configuration;
+import com.arik.resilience.Backend;
+import com.arik.resilience.BackendCall;
 import com.twilio.sdk.TwilioRestException;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
-import sun.misc.BASE64Encoder;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A class used as an interface for communication with Twilio
+ * The connections are pooled and kept alive, so consecutive messages reuse the TLS session. The endpoint can be pointed
+ * at a local stub with TWILIO_API_ENDPOINT, e. g. for load tests.
  */
 public class TwilioConnector {
 
-    private static final String API_ENDPOINT = "https://api.twilio.com/2010-04-01/Accounts/AC2225010f929f77a0d5e779e5818b3a07/Messages.json";
-    private static final String ACCOUNT_SID = "AC2225010f929f77a0d5e779e5818b3a07";
-    private static final String ACCOUNT_AUTH_TOKEN = System.getenv("TWILIO_AUTH_TOKEN");
-    private static final String SENDER_NUMBER = "%2B16506207470";
+    private static final String ACCOUNT_SID = Configuration.getString("TWILIO_ACCOUNT_SID", "AC2225010f929f77a0d5e779e5818b3a07");
+    private static final String ACCOUNT_AUTH_TOKEN = Configuration.getString("TWILIO_AUTH_TOKEN", null);
+    private static final String API_ENDPOINT = Configuration.getString("TWILIO_API_ENDPOINT", "https://api.twilio.com/2010-04-01/Accounts/" + ACCOUNT_SID + "/Messages.json");
+    private static final String SENDER_NUMBER = Configuration.getString("TWILIO_SENDER_NUMBER", "+16506207470");
+
+    private static TwilioConnector twilioConnector;
+
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * The Basic authentication header never changes, so it is only encoded once
+     */
+    private final String authorizationHeader;
+
+    private TwilioConnector() {
+
+        final int maximumConnections = Configuration.getInt("TWILIO_MAX_CONNECTIONS", 20);
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maximumConnections);
+
+        // all connections go to the same host, so it may use the entire pool
+        connectionManager.setDefaultMaxPerRoute(maximumConnections);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Configuration.getInt("TWILIO_CONNECT_TIMEOUT_MS", 5000))
+                .setSocketTimeout(Configuration.getInt("TWILIO_READ_TIMEOUT_MS", 10000))
+                .setConnectionRequestTimeout(Configuration.getInt("TWILIO_POOL_TIMEOUT_MS", 5000))
+                .build();
+
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager).setDefaultRequestConfig(requestConfig).build();
+
+        final String authentication = ACCOUNT_SID + ":" + ACCOUNT_AUTH_TOKEN;
+        this.authorizationHeader = "Basic " + Base64.encodeBase64String(authentication.getBytes(StandardCharsets.UTF_8));
+
+    }
+
+    /**
+     * Get the singleton connector
+     *
+     * @return The connector instance
+     */
+    public static synchronized TwilioConnector getInstance() {
+
+        if (twilioConnector == null) {
+            twilioConnector = new TwilioConnector();
+        }
+
+        return twilioConnector;
+
+    }
 
     /**
      * Send an SMS using Twilio
@@ -28,85 +94,88 @@ public class TwilioConnector {
      * @throws TwilioRestException Thrown when Twilio says there is an error
      */
     public static void sendSMS(final String recipientPhoneNumber, final String smsMessage) throws TwilioRestException {
+        getInstance().send(recipientPhoneNumber, smsMessage);
+    }
+
+    /**
+     * Send an SMS over one of the pooled connections
+     *
+     * @param recipientPhoneNumber The phone number to send it to
+     * @param smsMessage           The message to send
+     * @throws TwilioRestException Thrown when Twilio says there is an error, or with a status code of -1 if Twilio could
+     *                             not be reached
+     */
+    public void send(final String recipientPhoneNumber, final String smsMessage) throws TwilioRestException {
 
-        HttpURLConnection connection = null;
-        int responseStatusCode = -1;
+        final List<NameValuePair> postParams = new ArrayList<>(3);
+        postParams.add(new BasicNameValuePair("From", SENDER_NUMBER));
+        postParams.add(new BasicNameValuePair("To", recipientPhoneNumber));
+        postParams.add(new BasicNameValuePair("Body", smsMessage));
 
-        final String authentication = ACCOUNT_SID + ":" + ACCOUNT_AUTH_TOKEN;
-        String base64Authentication = new BASE64Encoder().encode(authentication.getBytes());
+        final HttpPost request = new HttpPost(API_ENDPOINT);
 
-        // this is a Java bug, we need to perform a workaround
-        base64Authentication = base64Authentication.replaceAll("\n", "");
+        // we need to authenticate the API user
+        request.setHeader("Authorization", this.authorizationHeader);
+        request.setEntity(new UrlEncodedFormEntity(postParams, StandardCharsets.UTF_8));
 
-        String postParams = "From=" + SENDER_NUMBER;
-        String response = "";
+        final int responseStatusCode;
+        final JSONObject responseDetails;
 
+        try (BackendCall call = Backend.TWILIO.call("send_sms");
+             CloseableHttpResponse response = this.httpClient.execute(request)) {
 
-        try {
-            postParams += "&To=" + URLEncoder.encode(recipientPhoneNumber, "UTF-8");
-            postParams += "&Body=" + URLEncoder.encode(smsMessage, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        }
+            responseStatusCode = response.getStatusLine().getStatusCode();
+            responseDetails = parseResponse(response.getEntity());
 
-        try {
+            // the connection only returns to the pool once the response has been read entirely
+            EntityUtils.consume(response.getEntity());
 
-            final URL url = new URL(API_ENDPOINT);
-            connection = (HttpURLConnection) url.openConnection();
+            // errors caused by the message, e. g. an invalid phone number, say nothing about the health of Twilio
+            if (responseStatusCode < 500) {
+                call.succeeded();
+            }
 
-            // we need to authenticate the API user
-            connection.setRequestProperty("Authorization", "Basic " + base64Authentication);
+        } catch (IOException e) {
+            throw new TwilioRestException("Twilio could not be reached: " + e.getMessage(), -1);
+        }
 
-            // we wanna be able to send POST data
-            connection.setDoOutput(true);
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        // if it is 200 <= status code <= 299, everything's all right
+        if (responseStatusCode >= 300) {
+
+            final Object responseMessage = responseDetails == null ? null : responseDetails.get("message");
+            throw new TwilioRestException(responseMessage == null ? "HTTP status " + responseStatusCode : responseMessage.toString(), responseStatusCode);
 
-            // and we wanna read the response
-            connection.setDoInput(true);
+        }
 
-            // send the POST data
-            DataOutputStream postStream = new DataOutputStream(connection.getOutputStream());
-            postStream.writeBytes(postParams);
-            postStream.flush();
-            postStream.close();
+    }
 
-            responseStatusCode = connection.getResponseCode();
+    /**
+     * Parse the JSON response straight from the stream
+     *
+     * @param entity The response entity
+     * @return The parsed response, or null if there is no JSON object
+     * @throws IOException Thrown if the response cannot be read
+     */
+    private static JSONObject parseResponse(final HttpEntity entity) throws IOException {
 
-            // and get the response
-            InputStream responseStream;
-            try {
-                responseStream = connection.getInputStream();
-            } catch (IOException e) {
-                responseStream = connection.getErrorStream();
-            }
-            final BufferedReader responseReader = new BufferedReader(new InputStreamReader(responseStream));
+        if (entity == null) {
+            return null;
+        }
 
-            String responseLine;
-            while ((responseLine = responseReader.readLine()) != null) {
-                response += responseLine + '\r' + '\n';
-            }
-            responseReader.close();
+        final Reader responseReader = new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8);
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
+        try {
 
-            if (connection != null) {
-                connection.disconnect();
-            }
+            final Object response = new JSONParser().parse(responseReader);
+            return response instanceof JSONObject ? (JSONObject) response : null;
 
-        }
+        } catch (ParseException e) {
 
-        final JSONObject responseDetails = (JSONObject) JSONValue.parse(response);
-        final String responseMessage = (String) responseDetails.get("message");
+            // e. g. an HTML error page of a proxy, in which case the status code has to suffice
+            return null;
 
-        // if it is 200 <= status code <= 299, everything's all right
-        if (responseStatusCode >= 300) {
-            throw new TwilioRestException(responseMessage, responseStatusCode);
         }
 
-
     }
 
 }
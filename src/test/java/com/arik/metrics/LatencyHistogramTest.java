@@ -0,0 +1,94 @@
+package com.arik.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    private static final int SUB_BUCKET_COUNT = 32;
+    private static final int MAXIMUM_EXPONENT = 35;
+    private static final int LAST_BUCKET_INDEX = SUB_BUCKET_COUNT + (MAXIMUM_EXPONENT + 1) * SUB_BUCKET_COUNT - 1;
+
+    @Test
+    public void valuesBelow32HaveABucketEach() {
+
+        for (int value = 0; value < SUB_BUCKET_COUNT; value++) {
+
+            assertEquals(value, LatencyHistogram.getBucketIndex(value));
+            assertEquals(value, LatencyHistogram.getLowestValue(value));
+            assertEquals(value, LatencyHistogram.getHighestValue(value));
+
+        }
+
+    }
+
+    @Test
+    public void powersOfTwoStartABucket() {
+
+        for (int exponent = 0; exponent <= MAXIMUM_EXPONENT; exponent++) {
+
+            final long value = (long) SUB_BUCKET_COUNT << exponent;
+            final int bucketIndex = LatencyHistogram.getBucketIndex(value);
+
+            assertEquals(SUB_BUCKET_COUNT + exponent * SUB_BUCKET_COUNT, bucketIndex);
+            assertEquals(value, LatencyHistogram.getLowestValue(bucketIndex));
+            assertEquals(1L << exponent, LatencyHistogram.getHighestValue(bucketIndex) - value + 1);
+
+            assertEquals(bucketIndex - 1, LatencyHistogram.getBucketIndex(value - 1));
+            assertEquals(value - 1, LatencyHistogram.getHighestValue(bucketIndex - 1));
+
+        }
+
+    }
+
+    @Test
+    public void bucketsRoundTripAndLeaveNoGaps() {
+
+        for (int bucketIndex = 0; bucketIndex <= LAST_BUCKET_INDEX; bucketIndex++) {
+
+            final long lowestValue = LatencyHistogram.getLowestValue(bucketIndex);
+            final long highestValue = LatencyHistogram.getHighestValue(bucketIndex);
+
+            assertEquals(bucketIndex, LatencyHistogram.getBucketIndex(lowestValue));
+            assertEquals(bucketIndex, LatencyHistogram.getBucketIndex(highestValue));
+
+            if (bucketIndex < LAST_BUCKET_INDEX) {
+                assertEquals(highestValue + 1, LatencyHistogram.getLowestValue(bucketIndex + 1));
+            }
+
+        }
+
+    }
+
+    @Test
+    public void valuesPastTheTopAreClampedToTheLastBucket() {
+
+        final long largestValue = (1L << 41) - 1;
+
+        assertEquals(largestValue, LatencyHistogram.getHighestValue(LAST_BUCKET_INDEX));
+        assertEquals(LAST_BUCKET_INDEX, LatencyHistogram.getBucketIndex(largestValue));
+        assertEquals(LAST_BUCKET_INDEX, LatencyHistogram.getBucketIndex(largestValue + 1));
+        assertEquals(LAST_BUCKET_INDEX, LatencyHistogram.getBucketIndex(1L << 50));
+        assertEquals(LAST_BUCKET_INDEX, LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+
+    }
+
+    @Test
+    public void recordedValuesAreReadBackFromTheirBuckets() {
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        // the nanoseconds are truncated to whole microseconds
+        histogram.record(7999);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(7, histogram.getValueAtQuantile(0.5));
+
+        final long lastBucketMiddle = (LatencyHistogram.getLowestValue(LAST_BUCKET_INDEX) + LatencyHistogram.getHighestValue(LAST_BUCKET_INDEX)) / 2;
+        assertEquals(lastBucketMiddle, histogram.getValueAtQuantile(1));
+
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.arik.models;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ModificationTokenGeneratorTest {
+
+    private static final int TOKEN_LENGTH = 26;
+
+    @Test
+    public void encodesZeros() {
+        assertEncodedLikeBigInteger(new byte[16]);
+    }
+
+    @Test
+    public void encodesOnes() {
+
+        final byte[] bytes = new byte[16];
+        Arrays.fill(bytes, (byte) 0xff);
+
+        assertEncodedLikeBigInteger(bytes);
+
+    }
+
+    @Test
+    public void encodesTheHighBit() {
+
+        final byte[] bytes = new byte[16];
+        bytes[0] = (byte) 0x80;
+
+        assertEncodedLikeBigInteger(bytes);
+
+    }
+
+    @Test
+    public void encodesBitsAcrossTheHalves() {
+
+        final byte[] bytes = new byte[16];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 37 + 11);
+        }
+
+        assertEncodedLikeBigInteger(bytes);
+
+    }
+
+    @Test
+    public void encodesAtAnOffset() {
+
+        final byte[] bytes = new byte[20];
+        Arrays.fill(bytes, (byte) 0xff);
+        bytes[4] = 0x01;
+
+        final char[] characters = new char[TOKEN_LENGTH];
+        ModificationTokenGenerator.encode(bytes, 4, characters);
+
+        assertEquals(toPaddedBase32(Arrays.copyOfRange(bytes, 4, 20)), new String(characters));
+
+    }
+
+    @Test
+    public void generatesTokensOfTheFixedLength() {
+
+        final String token = ModificationTokenGenerator.generate();
+
+        assertEquals(TOKEN_LENGTH, token.length());
+        assertTrue(token.matches("[0-9a-v]+"));
+        assertNotEquals(token, ModificationTokenGenerator.generate());
+
+    }
+
+    @Test
+    public void matchesEqualTokensOnly() {
+
+        final String token = ModificationTokenGenerator.generate();
+
+        assertTrue(ModificationTokenGenerator.matches(token, new String(token.toCharArray())));
+        assertFalse(ModificationTokenGenerator.matches(token, token.substring(0, TOKEN_LENGTH - 1) + (token.charAt(TOKEN_LENGTH - 1) == '0' ? '1' : '0')));
+
+    }
+
+    @Test
+    public void doesNotMatchNull() {
+
+        final String token = ModificationTokenGenerator.generate();
+
+        assertFalse(ModificationTokenGenerator.matches(token, null));
+        assertFalse(ModificationTokenGenerator.matches(null, token));
+        assertFalse(ModificationTokenGenerator.matches(null, null));
+
+    }
+
+    @Test
+    public void doesNotMatchDifferentLengths() {
+
+        final String token = ModificationTokenGenerator.generate();
+
+        assertFalse(ModificationTokenGenerator.matches(token, token.substring(1)));
+        assertFalse(ModificationTokenGenerator.matches(token, token + "0"));
+        assertFalse(ModificationTokenGenerator.matches(token, ""));
+
+    }
+
+    private static void assertEncodedLikeBigInteger(final byte[] bytes) {
+
+        final char[] characters = new char[TOKEN_LENGTH];
+        ModificationTokenGenerator.encode(bytes, 0, characters);
+
+        assertEquals(toPaddedBase32(bytes), new String(characters));
+
+    }
+
+    /**
+     * The encoding of the tokens issued before, padded with zeros to the fixed length
+     */
+    private static String toPaddedBase32(final byte[] bytes) {
+
+        final StringBuilder token = new StringBuilder(new BigInteger(1, bytes).toString(32));
+
+        while (token.length() < TOKEN_LENGTH) {
+            token.insert(0, '0');
+        }
+
+        return token.toString();
+
+    }
+
+}
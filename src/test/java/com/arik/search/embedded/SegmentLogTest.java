@@ -0,0 +1,269 @@
+package com.arik.search.embedded;
+
+import com.arik.search.IndexMutation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SegmentLogTest {
+
+    /**
+     * Small enough for every batch to start a new segment
+     */
+    private static final long TINY_SEGMENT_SIZE = 1;
+
+    private static final long LARGE_SEGMENT_SIZE = 1 << 20;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void tornFinalRecordIsTruncated() throws IOException {
+
+        final Path directory = this.temporaryFolder.getRoot().toPath();
+
+        try (SegmentLog segmentLog = new SegmentLog(directory, LARGE_SEGMENT_SIZE)) {
+            segmentLog.open(new InvertedIndex());
+            segmentLog.append(Arrays.asList(index("a", "first"), index("b", "second")));
+        }
+
+        final Path segment = listSegments(directory).get(0);
+        final long completeLength = Files.size(segment);
+
+        // a record whose length prefix promises more bytes than have made it to the disk
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(7).putInt(100).put(new byte[]{1, 0, 0}).flip());
+        }
+
+        final InvertedIndex index = new InvertedIndex();
+
+        try (SegmentLog segmentLog = new SegmentLog(directory, LARGE_SEGMENT_SIZE)) {
+
+            segmentLog.open(index);
+            assertEquals(completeLength, Files.size(segment));
+
+            segmentLog.append(Collections.singletonList(index("c", "third")));
+
+        }
+
+        assertEquals(2, index.size());
+        assertEquals("first", index.getDocument("a").getTitle());
+        assertEquals("second", index.getDocument("b").getTitle());
+
+        // the record appended after the truncation has to be readable
+        final InvertedIndex reopenedIndex = openIndex(directory, LARGE_SEGMENT_SIZE);
+        assertEquals(3, reopenedIndex.size());
+        assertEquals("third", reopenedIndex.getDocument("c").getTitle());
+
+    }
+
+    @Test
+    public void recordsReplayInOrderAcrossSegments() throws IOException {
+
+        final Path directory = this.temporaryFolder.getRoot().toPath();
+
+        try (SegmentLog segmentLog = new SegmentLog(directory, TINY_SEGMENT_SIZE)) {
+
+            segmentLog.open(new InvertedIndex());
+
+            segmentLog.append(Collections.singletonList(index("a", "first")));
+            segmentLog.append(Collections.singletonList(index("b", "first")));
+            segmentLog.append(Collections.singletonList(index("a", "second")));
+            segmentLog.append(Collections.singletonList(delete("b")));
+
+            assertEquals(4, segmentLog.getSegmentCount());
+
+        }
+
+        final InvertedIndex index = openIndex(directory, TINY_SEGMENT_SIZE);
+
+        assertEquals(1, index.size());
+        assertEquals("second", index.getDocument("a").getTitle());
+        assertNull(index.getDocument("b"));
+
+    }
+
+    @Test
+    public void compactionInterruptedBeforeTheMoveIsDiscarded() throws IOException {
+
+        final Path directory = this.temporaryFolder.getRoot().toPath();
+        writeHistory(directory);
+
+        // the compacted segment has only been partially written under its temporary name
+        Files.write(directory.resolve("segment-000000000099.log.tmp"), new byte[]{0, 0, 0, 100, 1});
+
+        final InvertedIndex index = new InvertedIndex();
+
+        try (SegmentLog segmentLog = new SegmentLog(directory, TINY_SEGMENT_SIZE)) {
+            segmentLog.open(index);
+            assertEquals(3, segmentLog.getSegmentCount());
+        }
+
+        assertFalse(Files.exists(directory.resolve("segment-000000000099.log.tmp")));
+        assertHistoryReplayed(index);
+
+    }
+
+    @Test
+    public void compactionInterruptedBeforeTheDeletionIsRecovered() throws IOException {
+
+        final Path directory = this.temporaryFolder.getRoot().toPath();
+        final Path backup = this.temporaryFolder.newFolder("backup").toPath();
+
+        final InvertedIndex writtenIndex = new InvertedIndex();
+
+        try (SegmentLog segmentLog = new SegmentLog(directory, TINY_SEGMENT_SIZE)) {
+
+            segmentLog.open(writtenIndex);
+            appendHistory(segmentLog, writtenIndex);
+
+            for (Path segment : listSegments(directory)) {
+                Files.copy(segment, backup.resolve(segment.getFileName()));
+            }
+
+            segmentLog.compact(writtenIndex.getDocuments());
+            assertEquals(1, segmentLog.getSegmentCount());
+
+        }
+
+        // puts the input segments back, as if the process had died right after the compacted one was moved into place
+        try (DirectoryStream<Path> backedUpSegments = Files.newDirectoryStream(backup)) {
+            for (Path segment : backedUpSegments) {
+                Files.copy(segment, directory.resolve(segment.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        final InvertedIndex index = new InvertedIndex();
+
+        try (SegmentLog segmentLog = new SegmentLog(directory, TINY_SEGMENT_SIZE)) {
+
+            segmentLog.open(index);
+            assertEquals(4, segmentLog.getSegmentCount());
+
+            // the next compaction has to clean up after the interrupted one
+            segmentLog.compact(index.getDocuments());
+            assertEquals(1, segmentLog.getSegmentCount());
+
+        }
+
+        assertEquals(1, listSegments(directory).size());
+        assertHistoryReplayed(index);
+        assertHistoryReplayed(openIndex(directory, TINY_SEGMENT_SIZE));
+
+    }
+
+    /**
+     * Write a segment per change: a is indexed twice, b is indexed and removed, and c is indexed
+     */
+    private static void writeHistory(final Path directory) throws IOException {
+
+        try (SegmentLog segmentLog = new SegmentLog(directory, TINY_SEGMENT_SIZE)) {
+            segmentLog.open(new InvertedIndex());
+            appendHistory(segmentLog, null);
+        }
+
+    }
+
+    private static void appendHistory(final SegmentLog segmentLog, final InvertedIndex index) throws IOException {
+
+        final List<List<IndexMutation>> batches = new ArrayList<>();
+        batches.add(Arrays.asList(index("a", "first"), index("b", "first")));
+        batches.add(Arrays.asList(index("a", "second"), delete("b")));
+        batches.add(Collections.singletonList(index("c", "first")));
+
+        for (List<IndexMutation> batch : batches) {
+
+            segmentLog.append(batch);
+
+            if (index != null) {
+                apply(index, batch);
+            }
+
+        }
+
+    }
+
+    private static void assertHistoryReplayed(final InvertedIndex index) {
+
+        assertEquals(2, index.size());
+        assertEquals("second", index.getDocument("a").getTitle());
+        assertNull(index.getDocument("b"));
+        assertEquals("first", index.getDocument("c").getTitle());
+
+    }
+
+    private static void apply(final InvertedIndex index, final List<IndexMutation> batch) {
+
+        for (IndexMutation mutation : batch) {
+
+            if (mutation.isDeletion()) {
+                index.remove(mutation.getIdentifier());
+            } else {
+                index.put(StoredDocument.fromSource(mutation.getIdentifier(), mutation.getSource()));
+            }
+
+        }
+
+    }
+
+    private static InvertedIndex openIndex(final Path directory, final long maximumSegmentSize) throws IOException {
+
+        final InvertedIndex index = new InvertedIndex();
+
+        try (SegmentLog segmentLog = new SegmentLog(directory, maximumSegmentSize)) {
+            segmentLog.open(index);
+        }
+
+        return index;
+
+    }
+
+    private static List<Path> listSegments(final Path directory) throws IOException {
+
+        final List<Path> segments = new ArrayList<>();
+
+        try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path segmentFile : segmentFiles) {
+                segments.add(segmentFile);
+            }
+        }
+
+        Collections.sort(segments);
+
+        return segments;
+
+    }
+
+    private static IndexMutation index(final String identifier, final String title) {
+
+        final Map<String, Object> source = new HashMap<>();
+        source.put("title", title);
+        source.put("body", "The body of " + identifier);
+        source.put("done", false);
+
+        return new IndexMutation(identifier, source);
+
+    }
+
+    private static IndexMutation delete(final String identifier) {
+        return new IndexMutation(identifier, null);
+    }
+
+}